@@ -41,4 +41,41 @@ public interface ISPrinterCommandQueueGCodeType
   ISPrinterCommandGCode enqueue(
     ISPrinterCommandGCode command
   );
+
+  /**
+   * Send an emergency command ({@code M108}, {@code M112}, {@code M410}, or
+   * {@code M876}) to the printer ahead of every queued command. The command
+   * is written as soon as possible, even if the printer is still working
+   * on earlier commands and has not acknowledged them, and even if the
+   * send window is full. Firmware built with Marlin's
+   * {@code EMERGENCY_PARSER} acts upon such commands as soon as they arrive;
+   * other firmware will only act upon them when they reach the front of the
+   * firmware's own command buffer.
+   *
+   * @param text The command text
+   *
+   * @return The compiled command
+   *
+   * @throws IllegalArgumentException If the command is not an emergency command
+   * @see ISPrinterFirmwareCapabilitiesType#EMERGENCY_PARSER
+   */
+
+  ISPrinterCommandGCode enqueueEmergency(
+    String text
+  );
+
+  /**
+   * Resume sending queued commands after the firmware asked the host to
+   * pause ({@code //action:pause}). Such a request is typically made when
+   * the user pauses a print from the printer's own controls, and the
+   * firmware rarely tells the host when to continue, so the host must
+   * resume explicitly. This also resumes a printer whose firmware
+   * reported that it had paused ({@code //action:paused}) but never
+   * reported that it had resumed. This has no effect if the printer is
+   * not paused.
+   *
+   * @see ISPrinterState#PAUSED
+   */
+
+  void resume();
 }
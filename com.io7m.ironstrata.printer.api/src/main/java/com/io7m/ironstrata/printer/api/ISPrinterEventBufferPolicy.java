@@ -0,0 +1,48 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.printer.api;
+
+/**
+ * The policy applied to a subscriber that cannot keep up with printer
+ * events.
+ */
+
+public enum ISPrinterEventBufferPolicy
+{
+  /**
+   * Events are buffered up to a fixed capacity, and the oldest buffered
+   * event is dropped to make room for a new event when the buffer is full.
+   */
+
+  DROP_OLDEST,
+
+  /**
+   * At most one event waits to be delivered. An event that has not
+   * started to be delivered by the time a newer event arrives is dropped.
+   */
+
+  LATEST_ONLY,
+
+  /**
+   * No events are dropped, and the buffer grows without limit. The
+   * subscriber may block for as long as it likes without delaying the
+   * printer or any other subscriber, at the cost of memory while it is
+   * blocked.
+   */
+
+  UNBOUNDED
+}
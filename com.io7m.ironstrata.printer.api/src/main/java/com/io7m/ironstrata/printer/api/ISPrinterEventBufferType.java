@@ -0,0 +1,45 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.printer.api;
+
+import io.reactivex.rxjava3.core.Observable;
+
+/**
+ * A buffered stream of printer events.
+ */
+
+public interface ISPrinterEventBufferType
+{
+  /**
+   * @return The buffering policy
+   */
+
+  ISPrinterEventBufferPolicy policy();
+
+  /**
+   * @return An observable stream of printer events. Each subscriber
+   * receives events through its own buffer.
+   */
+
+  Observable<ISPrinterEventType> events();
+
+  /**
+   * @return The number of events dropped by the buffers of all subscribers
+   */
+
+  long dropped();
+}
@@ -25,7 +25,9 @@ import static com.io7m.ironstrata.printer.api.ISPrinterEventType.Kind.COMMAND_FA
 import static com.io7m.ironstrata.printer.api.ISPrinterEventType.Kind.COMMAND_SUBMITTED;
 import static com.io7m.ironstrata.printer.api.ISPrinterEventType.Kind.COMMAND_SUCCEEDED;
 import static com.io7m.ironstrata.printer.api.ISPrinterEventType.Kind.FATAL_ERROR;
+import static com.io7m.ironstrata.printer.api.ISPrinterEventType.Kind.FIRMWARE_CAPABILITIES_CHANGED;
 import static com.io7m.ironstrata.printer.api.ISPrinterEventType.Kind.ONLINE_STATE_CHANGED;
+import static com.io7m.ironstrata.printer.api.ISPrinterEventType.Kind.STATE_CHANGED;
 import static com.io7m.ironstrata.printer.api.ISPrinterEventType.Kind.TEMPERATURES_CHANGED;
 
 /**
@@ -68,10 +70,18 @@ public interface ISPrinterEventType
      * @see com.io7m.ironstrata.printer.api.ISPrinterEventFatalError
      */
     FATAL_ERROR,
+    /**
+     * @see com.io7m.ironstrata.printer.api.ISPrinterEventFirmwareCapabilitiesChanged
+     */
+    FIRMWARE_CAPABILITIES_CHANGED,
     /**
      * @see com.io7m.ironstrata.printer.api.ISPrinterEventOnlineStateChanged
      */
     ONLINE_STATE_CHANGED,
+    /**
+     * @see com.io7m.ironstrata.printer.api.ISPrinterEventStateChanged
+     */
+    STATE_CHANGED,
     /**
      * @see com.io7m.ironstrata.printer.api.ISPrinterEventTemperaturesChanged
      */
@@ -101,6 +111,32 @@ public interface ISPrinterEventType
     boolean isOnline();
   }
 
+  /**
+   * The printer moved from one connection state to another. Exactly one
+   * event is published for each change of state.
+   */
+
+  @Value.Immutable
+  @ImmutablesStyleType
+  interface ISPrinterEventStateChangedType extends ISPrinterEventType
+  {
+    @Override
+    default Kind kind()
+    {
+      return STATE_CHANGED;
+    }
+
+    @Override
+    @Value.Parameter
+    OffsetDateTime time();
+
+    @Value.Parameter
+    ISPrinterState statePrevious();
+
+    @Value.Parameter
+    ISPrinterState stateCurrent();
+  }
+
   /**
    * The temperature state of the printer changed.
    */
@@ -123,6 +159,29 @@ public interface ISPrinterEventType
     ISPrinterTemperatures temperatures();
   }
 
+  /**
+   * The printer firmware reported its capabilities.
+   */
+
+  @Value.Immutable
+  @ImmutablesStyleType
+  interface ISPrinterEventFirmwareCapabilitiesChangedType
+    extends ISPrinterEventType
+  {
+    @Override
+    default Kind kind()
+    {
+      return FIRMWARE_CAPABILITIES_CHANGED;
+    }
+
+    @Override
+    @Value.Parameter
+    OffsetDateTime time();
+
+    @Value.Parameter
+    ISPrinterFirmwareCapabilities capabilities();
+  }
+
   /**
    * A command was submitted to the queue. Execution of the command will
    * (presumably) begin at some point in the future.
@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.printer.api;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import org.immutables.value.Value;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The capabilities that a printer's firmware advertised in response to
+ * {@code M115}.
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface ISPrinterFirmwareCapabilitiesType
+{
+  /**
+   * The firmware can report temperatures periodically ({@code M155}).
+   */
+
+  String AUTOREPORT_TEMP = "AUTOREPORT_TEMP";
+
+  /**
+   * The firmware publishes free buffer counts in acknowledgements.
+   *
+   * @see ISSerialPrinterFlowControl#ADVANCED_OK
+   */
+
+  String ADVANCED_OK = "ADVANCED_OK";
+
+  /**
+   * The firmware acts upon {@code M108}, {@code M112}, and {@code M410}
+   * as soon as they are received, rather than when they reach the front
+   * of the command buffer.
+   */
+
+  String EMERGENCY_PARSER = "EMERGENCY_PARSER";
+
+  /**
+   * The firmware supports binary file transfer to its storage.
+   */
+
+  String BINARY_FILE_TRANSFER = "BINARY_FILE_TRANSFER";
+
+  /**
+   * @return The firmware name, if the firmware reported one
+   */
+
+  Optional<String> firmwareName();
+
+  /**
+   * @return The other properties reported alongside the firmware name, such
+   * as {@code PROTOCOL_VERSION} and {@code MACHINE_TYPE}
+   */
+
+  Map<String, String> properties();
+
+  /**
+   * @return The capabilities reported by the firmware, and whether each
+   * capability is enabled
+   */
+
+  Map<String, Boolean> capabilities();
+
+  /**
+   * @param name The capability name
+   *
+   * @return {@code true} if the firmware reported that the capability is
+   * enabled
+   */
+
+  default boolean supports(
+    final String name)
+  {
+    return this.capabilities()
+      .getOrDefault(name, Boolean.FALSE)
+      .booleanValue();
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.printer.api;
+
+/**
+ * The state of the connection to a printer.
+ */
+
+public enum ISPrinterState
+{
+  /**
+   * Nothing has been heard from the printer. The printer is polled until it
+   * says something.
+   */
+
+  OFFLINE,
+
+  /**
+   * The printer has said something, and the firmware is being asked to
+   * describe itself. Commands may be sent during the handshake.
+   */
+
+  HANDSHAKING,
+
+  /**
+   * The printer is online and no commands are in flight.
+   */
+
+  IDLE,
+
+  /**
+   * The printer is online and commands are in flight.
+   */
+
+  PRINTING,
+
+  /**
+   * The printer firmware has paused, either because it asked the host to
+   * pause, or because it is waiting for the user. No new commands are sent
+   * until the firmware resumes, or until the host resumes, with the
+   * exception of emergency commands.
+   *
+   * @see ISPrinterCommandQueueGCodeType#enqueueEmergency(String)
+   * @see ISPrinterCommandQueueGCodeType#resume()
+   */
+
+  PAUSED,
+
+  /**
+   * The printer asked for commands to be resent, and the resent commands
+   * have not yet all been acknowledged.
+   */
+
+  RESENDING,
+
+  /**
+   * The printer suffered a fatal error. This state is final.
+   */
+
+  ERROR;
+
+  /**
+   * @return {@code true} if the printer is online in this state
+   */
+
+  public boolean isOnline()
+  {
+    return this != OFFLINE && this != ERROR;
+  }
+}
@@ -30,12 +30,56 @@ public interface ISPrinterType extends AutoCloseable
 
   Observable<ISPrinterEventType> events();
 
+  /**
+   * Events are published by printers into a bounded buffer, and are
+   * delivered to subscribers on a shared pool of dispatch threads, so that
+   * subscribers cannot stall the printer. This method returns a stream in
+   * which each subscriber receives events through a buffer of its own,
+   * according to the given policy.
+   *
+   * @param policy   The policy applied when a subscriber falls behind
+   * @param capacity The buffer capacity used by {@link ISPrinterEventBufferPolicy#DROP_OLDEST}
+   *
+   * @return A buffered stream of printer events
+   */
+
+  ISPrinterEventBufferType events(
+    ISPrinterEventBufferPolicy policy,
+    int capacity);
+
+  /**
+   * @return The number of events that the printer dropped because the
+   * dispatcher had fallen behind
+   */
+
+  long eventsDropped();
+
   /**
    * @return {@code true} if the printer is currently online
    */
 
   boolean isOnline();
 
+  /**
+   * @return The current state of the connection to the printer
+   *
+   * @see com.io7m.ironstrata.printer.api.ISPrinterEventType.ISPrinterEventStateChangedType
+   */
+
+  ISPrinterState state();
+
+  /**
+   * The capabilities that the printer firmware advertised when the printer
+   * last came online. The capabilities are empty until the firmware has
+   * responded, and are cleared when the printer goes offline.
+   *
+   * @return The firmware capabilities
+   *
+   * @see com.io7m.ironstrata.printer.api.ISPrinterEventType.ISPrinterEventFirmwareCapabilitiesChangedType
+   */
+
+  ISPrinterFirmwareCapabilities firmwareCapabilities();
+
   /**
    * Get access to the command queue for the printer. Callers should pass in
    * the interface type that describes the commands supported by the printer.
@@ -18,8 +18,13 @@ package com.io7m.ironstrata.printer.api;
 
 import com.io7m.immutables.styles.ImmutablesStyleType;
 import com.io7m.ironstrata.serialport.api.ISSerialPortConfiguration;
+import com.io7m.jaffirm.core.Preconditions;
 import org.immutables.value.Value;
 
+import java.time.Duration;
+
+import static com.io7m.ironstrata.printer.api.ISSerialPrinterFlowControl.PING_PONG;
+
 /**
  * A serial-port based printer configuration.
  */
@@ -33,4 +38,144 @@ public interface ISSerialPrinterConfigurationType
    */
 
   ISSerialPortConfiguration port();
+
+  /**
+   * @return The flow control method used when sending commands
+   */
+
+  @Value.Default
+  default ISSerialPrinterFlowControl flowControl()
+  {
+    return PING_PONG;
+  }
+
+  /**
+   * The size in octets of the printer firmware's receive buffer. This value
+   * is used to limit the number of unacknowledged commands when using
+   * {@link ISSerialPrinterFlowControl#CHARACTER_COUNTING} or
+   * {@link ISSerialPrinterFlowControl#ADVANCED_OK} flow control.
+   * Marlin uses a 128 octet buffer by default.
+   *
+   * @return The size of the firmware receive buffer
+   */
+
+  @Value.Default
+  default int firmwareReceiveBufferSize()
+  {
+    return 128;
+  }
+
+  /**
+   * Whether the printer should read from the serial port on a dedicated
+   * thread. Received lines are placed into a bounded ring from which the
+   * printer consumes them, so that reception is never delayed by the
+   * sending of commands, and sending is never delayed by a slow read.
+   *
+   * @return {@code true} if a dedicated reader thread should be used
+   */
+
+  @Value.Default
+  default boolean dedicatedReader()
+  {
+    return false;
+  }
+
+  /**
+   * @return The number of lines the dedicated reader may read ahead
+   *
+   * @see #dedicatedReader()
+   */
+
+  @Value.Default
+  default int dedicatedReaderCapacity()
+  {
+    return 64;
+  }
+
+  /**
+   * The minimum time that the printer is given to acknowledge a command,
+   * or to send anything at all, before it is considered to be offline.
+   * Firmware keepalive messages such as {@code echo:busy: processing}
+   * restart the timer. Commands that are known to take a long time, such as
+   * homing and waiting for heaters, are given longer, as are commands that
+   * have been observed to take longer to be acknowledged.
+   *
+   * @return The minimum response timeout
+   */
+
+  @Value.Default
+  default Duration responseTimeout()
+  {
+    return Duration.ofSeconds(10L);
+  }
+
+  /**
+   * Whether the printer should enable the protocol features that the
+   * firmware advertises in response to {@code M115}. Currently, a printer
+   * configured to use {@link ISSerialPrinterFlowControl#PING_PONG} switches
+   * to {@link ISSerialPrinterFlowControl#ADVANCED_OK} if the firmware
+   * advertises {@code ADVANCED_OK}, and temperature reports are requested
+   * if the firmware advertises {@code AUTOREPORT_TEMP}.
+   *
+   * @return {@code true} if advertised features should be enabled
+   *
+   * @see ISPrinterFirmwareCapabilitiesType
+   */
+
+  @Value.Default
+  default boolean negotiateCapabilities()
+  {
+    return true;
+  }
+
+  /**
+   * The interval at which the printer should be asked to report temperatures
+   * by itself ({@code M155}), if the firmware advertises the
+   * {@code AUTOREPORT_TEMP} capability in response to {@code M115} and
+   * {@link #negotiateCapabilities()} is enabled. Otherwise, the printer is
+   * polled with {@code M105} whenever it has been idle for a while. The interval is sent to the firmware
+   * in whole seconds, and an interval of zero disables automatic reporting.
+   *
+   * @return The temperature auto-report interval
+   */
+
+  @Value.Default
+  default Duration temperatureReportInterval()
+  {
+    return Duration.ofSeconds(2L);
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    Preconditions.checkPreconditionI(
+      this.firmwareReceiveBufferSize(),
+      this.firmwareReceiveBufferSize() > 0,
+      value -> "Firmware receive buffer size must be positive"
+    );
+
+    Preconditions.checkPreconditionI(
+      this.dedicatedReaderCapacity(),
+      this.dedicatedReaderCapacity() > 0,
+      value -> "Dedicated reader capacity must be positive"
+    );
+
+    final var timeout = this.responseTimeout();
+    Preconditions.checkPrecondition(
+      timeout,
+      !timeout.isNegative() && !timeout.isZero(),
+      value -> "Response timeout must be positive"
+    );
+
+    final var seconds = this.temperatureReportInterval().toSeconds();
+    Preconditions.checkPreconditionL(
+      seconds,
+      seconds >= 0L && seconds <= 60L,
+      value -> "Temperature report interval must be in the range [0, 60] seconds"
+    );
+  }
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.printer.api;
+
+/**
+ * The flow control method used when sending commands to a printer.
+ */
+
+public enum ISSerialPrinterFlowControl
+{
+  /**
+   * A single command is sent, and the next command is not sent until the
+   * printer has acknowledged the current command.
+   */
+
+  PING_PONG,
+
+  /**
+   * Commands are sent ahead of acknowledgements for as long as the total
+   * size of the unacknowledged commands fits into the printer firmware's
+   * receive buffer.
+   *
+   * @see ISSerialPrinterConfigurationType#firmwareReceiveBufferSize()
+   */
+
+  CHARACTER_COUNTING,
+
+  /**
+   * Commands are sent ahead of acknowledgements using the free command
+   * buffer counts that the firmware publishes in each acknowledgement
+   * (Marlin's {@code ADVANCED_OK} feature). The firmware receive buffer size
+   * continues to limit the number of octets in flight. If the firmware does
+   * not publish buffer counts, this degrades to one command in flight.
+   *
+   * @see ISSerialPrinterConfigurationType#firmwareReceiveBufferSize()
+   */
+
+  ADVANCED_OK
+}
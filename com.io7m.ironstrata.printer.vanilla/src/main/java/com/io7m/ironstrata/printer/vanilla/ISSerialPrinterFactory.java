@@ -22,41 +22,78 @@ import com.io7m.ironstrata.printer.api.ISSerialPrinterConfiguration;
 import com.io7m.ironstrata.printer.api.ISSerialPrinterFactoryType;
 import com.io7m.ironstrata.printer.api.ISSerialPrinterType;
 import com.io7m.ironstrata.printer.vanilla.internal.ISSerialPrinter;
+import com.io7m.ironstrata.printer.vanilla.internal.ISSerialPrinterEventLoop;
+import com.io7m.ironstrata.serialport.api.ISSerialPortFactoryRouter;
 import com.io7m.ironstrata.serialport.api.ISSerialPortFactoryType;
+import com.io7m.ironstrata.serialport.api.ISSerialPortReadAhead;
 import com.io7m.ironstrata.serialport.api.ISSerialPortType;
 
 import java.io.IOException;
 import java.time.Clock;
+import java.util.ArrayList;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.ServiceConfigurationError;
 import java.util.ServiceLoader;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
 
 /**
  * The basic serial port printer factory.
+ *
+ * By default, each printer is driven by its own named thread. A
+ * factory may be given a different thread factory for printer threads, or
+ * may instead be constructed with a number of event loop threads, in which
+ * case all of the printers it opens are driven by that small shared pool.
+ * Closing the factory stops the event loop threads, and closes any printers
+ * that they are still driving.
  */
 
 public final class ISSerialPrinterFactory
-  implements ISSerialPrinterFactoryType
+  implements ISSerialPrinterFactoryType, AutoCloseable
 {
   private final ISSerialPrinterMessages messages;
   private final ISSerialPortFactoryType serialPorts;
   private final Clock clock;
+  private final LongSupplier nanoTime;
+  private final Optional<ISSerialPrinterEventLoop> eventLoop;
+  private final ThreadFactory threads;
+  private final AtomicBoolean closed;
 
   /**
    * Construct a factory, loading dependencies from {@link ServiceLoader}.
+   * Each printer's serial port is opened by whichever of the available
+   * serial port factories supports its device name.
+   *
+   * @see ISSerialPortFactoryRouter
    */
 
   public ISSerialPrinterFactory()
   {
     this(
       ISSerialPrinterMessages.create(),
-      ServiceLoader.load(ISSerialPortFactoryType.class)
-        .findFirst()
-        .orElseThrow(ISSerialPrinterFactory::serviceNotFound),
+      serialPortsFromServiceLoader(),
       Clock.systemUTC()
     );
   }
 
+  private static ISSerialPortFactoryType serialPortsFromServiceLoader()
+  {
+    final var loader =
+      ServiceLoader.load(ISSerialPortFactoryType.class);
+    final var factories =
+      new ArrayList<ISSerialPortFactoryType>();
+
+    for (final var factory : loader) {
+      factories.add(factory);
+    }
+    if (factories.isEmpty()) {
+      throw serviceNotFound();
+    }
+    return new ISSerialPortFactoryRouter(factories);
+  }
+
   /**
    * Construct a factory.
    *
@@ -70,12 +107,57 @@ public final class ISSerialPrinterFactory
     final ISSerialPortFactoryType inSerialPorts,
     final Clock inClock)
   {
+    this(
+      inMessages,
+      inSerialPorts,
+      inClock,
+      System::nanoTime,
+      0,
+      ISSerialPrinter.defaultThreadFactory()
+    );
+  }
+
+  /**
+   * @return A builder of factories
+   */
+
+  public static Builder builder()
+  {
+    return new Builder();
+  }
+
+  private ISSerialPrinterFactory(
+    final ISSerialPrinterMessages inMessages,
+    final ISSerialPortFactoryType inSerialPorts,
+    final Clock inClock,
+    final LongSupplier inNanoTime,
+    final int eventLoopThreads,
+    final ThreadFactory inThreads)
+  {
+    this.threads =
+      Objects.requireNonNull(inThreads, "threads");
     this.messages =
       Objects.requireNonNull(inMessages, "messages");
     this.serialPorts =
       Objects.requireNonNull(inSerialPorts, "inSerialPorts");
     this.clock =
       Objects.requireNonNull(inClock, "clock");
+    this.nanoTime =
+      Objects.requireNonNull(inNanoTime, "nanoTime");
+    this.closed =
+      new AtomicBoolean(false);
+
+    if (eventLoopThreads < 0) {
+      throw new IllegalArgumentException(
+        "Event loop thread count must be non-negative");
+    }
+
+    if (eventLoopThreads > 0) {
+      this.eventLoop =
+        Optional.of(new ISSerialPrinterEventLoop(eventLoopThreads));
+    } else {
+      this.eventLoop = Optional.empty();
+    }
   }
 
   private static ServiceConfigurationError serviceNotFound()
@@ -91,6 +173,7 @@ public final class ISSerialPrinterFactory
     throws ISPrinterException
   {
     Objects.requireNonNull(configuration, "selection");
+    this.checkNotClosed();
 
     final ISSerialPortType port;
     try {
@@ -109,12 +192,38 @@ public final class ISSerialPrinterFactory
   {
     Objects.requireNonNull(configuration, "configuration");
     Objects.requireNonNull(port, "port");
+    this.checkNotClosed();
+
+    final ISSerialPortType printerPort;
+    if (configuration.dedicatedReader()) {
+      printerPort = ISSerialPortReadAhead.create(
+        port,
+        configuration.dedicatedReaderCapacity(),
+        configuration.port().readTimeout()
+      );
+    } else {
+      printerPort = port;
+    }
+
+    if (this.eventLoop.isPresent()) {
+      return ISSerialPrinter.createShared(
+        this.messages,
+        configuration,
+        this.clock,
+        this.nanoTime,
+        printerPort,
+        this.eventLoop.get(),
+        this.threads
+      );
+    }
 
     return ISSerialPrinter.create(
       this.messages,
       configuration,
       this.clock,
-      port
+      this.nanoTime,
+      printerPort,
+      this.threads
     );
   }
 
@@ -126,4 +235,164 @@ public final class ISSerialPrinterFactory
       Long.toUnsignedString(System.identityHashCode(this), 16)
     );
   }
+
+  private void checkNotClosed()
+  {
+    if (this.closed.get()) {
+      throw new IllegalStateException("Printer factory is closed");
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    if (this.closed.compareAndSet(false, true)) {
+      this.eventLoop.ifPresent(ISSerialPrinterEventLoop::close);
+    }
+  }
+
+  /**
+   * A builder of factories. Any value that is not set takes the same
+   * default as {@link #ISSerialPrinterFactory()}: message resources and
+   * serial port factories are loaded from {@link ServiceLoader}, the clock
+   * is the system UTC clock, timeouts are measured with
+   * {@link System#nanoTime()}, and each printer is driven by its own
+   * thread.
+   */
+
+  public static final class Builder
+  {
+    private ISSerialPrinterMessages messages;
+    private ISSerialPortFactoryType serialPorts;
+    private Clock clock;
+    private LongSupplier nanoTime;
+    private int eventLoopThreads;
+    private ThreadFactory threads;
+
+    private Builder()
+    {
+      this.clock = Clock.systemUTC();
+      this.nanoTime = System::nanoTime;
+      this.eventLoopThreads = 0;
+      this.threads = ISSerialPrinter.defaultThreadFactory();
+    }
+
+    /**
+     * @param inMessages Message resources
+     *
+     * @return this
+     */
+
+    public Builder setMessages(
+      final ISSerialPrinterMessages inMessages)
+    {
+      this.messages = Objects.requireNonNull(inMessages, "messages");
+      return this;
+    }
+
+    /**
+     * @param inSerialPorts A serial port factory
+     *
+     * @return this
+     */
+
+    public Builder setSerialPorts(
+      final ISSerialPortFactoryType inSerialPorts)
+    {
+      this.serialPorts = Objects.requireNonNull(inSerialPorts, "serialPorts");
+      return this;
+    }
+
+    /**
+     * @param inClock The clock used to timestamp events
+     *
+     * @return this
+     */
+
+    public Builder setClock(
+      final Clock inClock)
+    {
+      this.clock = Objects.requireNonNull(inClock, "clock");
+      return this;
+    }
+
+    /**
+     * Set the monotonic nanosecond source used to measure printer
+     * timeouts, in place of {@link System#nanoTime()}.
+     *
+     * @param inNanoTime The monotonic time source used for timeouts
+     *
+     * @return this
+     */
+
+    public Builder setNanoTime(
+      final LongSupplier inNanoTime)
+    {
+      this.nanoTime = Objects.requireNonNull(inNanoTime, "nanoTime");
+      return this;
+    }
+
+    /**
+     * Set the number of shared event loop threads. If the number is
+     * positive, printers are driven by the event loop. The loop waits for
+     * the plain and socket ports directly, so printers driven by the loop
+     * do not need {@link ISSerialPrinterConfiguration#dedicatedReader()}.
+     * A printer whose port the loop cannot wait for is driven by its own
+     * thread.
+     *
+     * @param threadCount The number of shared event loop threads, or
+     *                    {@code 0} to use a thread per printer
+     *
+     * @return this
+     */
+
+    public Builder setEventLoopThreads(
+      final int threadCount)
+    {
+      if (threadCount < 0) {
+        throw new IllegalArgumentException(
+          "Event loop thread count must be non-negative");
+      }
+      this.eventLoopThreads = threadCount;
+      return this;
+    }
+
+    /**
+     * Set the factory of printer threads, which allows the caller to
+     * control the names, priorities, and thread groups of printer threads.
+     * The factory is used for printers that are not driven by an event
+     * loop.
+     *
+     * @param inThreads A factory of printer threads
+     *
+     * @return this
+     */
+
+    public Builder setThreadFactory(
+      final ThreadFactory inThreads)
+    {
+      this.threads = Objects.requireNonNull(inThreads, "threads");
+      return this;
+    }
+
+    /**
+     * @return A new factory
+     */
+
+    public ISSerialPrinterFactory build()
+    {
+      return new ISSerialPrinterFactory(
+        this.messages == null
+          ? ISSerialPrinterMessages.create()
+          : this.messages,
+        this.serialPorts == null
+          ? serialPortsFromServiceLoader()
+          : this.serialPorts,
+        this.clock,
+        this.nanoTime,
+        this.eventLoopThreads,
+        this.threads
+      );
+    }
+  }
 }
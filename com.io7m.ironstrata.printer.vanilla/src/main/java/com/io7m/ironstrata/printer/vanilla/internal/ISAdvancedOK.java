@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.printer.vanilla.internal;
+
+import java.util.Objects;
+import java.util.OptionalInt;
+
+/**
+ * The buffer information published by Marlin in acknowledgements when the
+ * firmware is built with {@code ADVANCED_OK}. An acknowledgement takes the
+ * form {@code ok N123 P15 B3}, where {@code N} is the last line number
+ * received, {@code P} is the number of free planner slots, and {@code B} is
+ * the number of free command buffer slots.
+ */
+
+public final class ISAdvancedOK
+{
+  private final OptionalInt lineNumber;
+  private final int plannerFree;
+  private final int bufferFree;
+
+  /**
+   * Construct a report.
+   *
+   * @param inLineNumber  The line number, if any
+   * @param inPlannerFree The number of free planner slots
+   * @param inBufferFree  The number of free command buffer slots
+   */
+
+  public ISAdvancedOK(
+    final OptionalInt inLineNumber,
+    final int inPlannerFree,
+    final int inBufferFree)
+  {
+    this.lineNumber =
+      Objects.requireNonNull(inLineNumber, "lineNumber");
+    this.plannerFree = inPlannerFree;
+    this.bufferFree = inBufferFree;
+  }
+
+  /**
+   * @return The last line number received by the firmware, if any
+   */
+
+  public OptionalInt lineNumber()
+  {
+    return this.lineNumber;
+  }
+
+  /**
+   * @return The number of free planner slots
+   */
+
+  public int plannerFree()
+  {
+    return this.plannerFree;
+  }
+
+  /**
+   * @return The number of free command buffer slots
+   */
+
+  public int bufferFree()
+  {
+    return this.bufferFree;
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format(
+      "[ISAdvancedOK %s P%d B%d]",
+      this.lineNumber,
+      Integer.valueOf(this.plannerFree),
+      Integer.valueOf(this.bufferFree)
+    );
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.printer.vanilla.internal;
+
+import java.util.Optional;
+import java.util.OptionalInt;
+
+/**
+ * A parser for Marlin {@code ADVANCED_OK} acknowledgements.
+ *
+ * @see ISAdvancedOK
+ */
+
+public final class ISAdvancedOKParser
+{
+  public ISAdvancedOKParser()
+  {
+
+  }
+
+  private static boolean isWhitespace(
+    final char c)
+  {
+    return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+  }
+
+  /**
+   * Parse the decimal number in {@code text[start + 1, end)}.
+   *
+   * @return The number, or -1 if the word is not a prefix followed by digits
+   */
+
+  private static int parseWordNumber(
+    final CharSequence text,
+    final int start,
+    final int end)
+  {
+    if (end - start < 2) {
+      return -1;
+    }
+
+    int value = 0;
+    for (int index = start + 1; index < end; ++index) {
+      final var c = text.charAt(index);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = Math.addExact(Math.multiplyExact(value, 10), c - '0');
+    }
+    return value;
+  }
+
+  private static boolean isOK(
+    final CharSequence text)
+  {
+    return text.length() >= 2
+      && Character.toUpperCase(text.charAt(0)) == 'O'
+      && Character.toUpperCase(text.charAt(1)) == 'K';
+  }
+
+  /**
+   * Parse an acknowledgement. Acknowledgements that do not contain both
+   * planner and buffer counts are not considered to be advanced
+   * acknowledgements.
+   *
+   * @param text The acknowledgement text
+   *
+   * @return The parsed report, if any
+   */
+
+  public Optional<ISAdvancedOK> parse(
+    final CharSequence text)
+  {
+    if (!isOK(text) || text.length() == 2) {
+      return Optional.empty();
+    }
+
+    final var words = new Words();
+    final var length = text.length();
+    int index = 2;
+    while (index < length) {
+      while (index < length && isWhitespace(text.charAt(index))) {
+        ++index;
+      }
+      final var start = index;
+      while (index < length && !isWhitespace(text.charAt(index))) {
+        ++index;
+      }
+      if (start < index) {
+        try {
+          words.word(text, start, index);
+        } catch (final ArithmeticException e) {
+          return Optional.empty();
+        }
+      }
+    }
+    return words.toReport();
+  }
+
+  private static final class Words
+  {
+    private int lineNumber = -1;
+    private int plannerFree = -1;
+    private int bufferFree = -1;
+
+    Words()
+    {
+
+    }
+
+    void word(
+      final CharSequence text,
+      final int start,
+      final int end)
+    {
+      switch (text.charAt(start)) {
+        case 'N':
+          this.lineNumber = parseWordNumber(text, start, end);
+          break;
+        case 'P':
+          this.plannerFree = parseWordNumber(text, start, end);
+          break;
+        case 'B':
+          this.bufferFree = parseWordNumber(text, start, end);
+          break;
+        default:
+          break;
+      }
+    }
+
+    Optional<ISAdvancedOK> toReport()
+    {
+      if (this.plannerFree < 0 || this.bufferFree < 0) {
+        return Optional.empty();
+      }
+
+      final OptionalInt line;
+      if (this.lineNumber < 0) {
+        line = OptionalInt.empty();
+      } else {
+        line = OptionalInt.of(this.lineNumber);
+      }
+      return Optional.of(
+        new ISAdvancedOK(line, this.plannerFree, this.bufferFree));
+    }
+  }
+}
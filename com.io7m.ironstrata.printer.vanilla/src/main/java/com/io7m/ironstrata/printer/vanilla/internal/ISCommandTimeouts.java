@@ -0,0 +1,281 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.printer.vanilla.internal;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Per-command response timeouts. The time taken for the printer to
+ * acknowledge each kind of command (such as {@code G1} or {@code G28}) is
+ * tracked using a smoothed round-trip time and round-trip time variance,
+ * in the manner of TCP retransmission timers (RFC 6298). The timeout for a
+ * kind of command is the smoothed round-trip time plus four times the
+ * variance, but never less than the minimum timeout, and never less than
+ * a generous built-in allowance for commands that are known to take a long
+ * time, such as homing, probing, and waiting for heaters.
+ */
+
+public final class ISCommandTimeouts
+{
+  private static final int KIND_UNKNOWN = -1;
+
+  private final Int2ObjectOpenHashMap<Estimate> estimates;
+  private final long minimumNanos;
+  private final long maximumNanos;
+
+  /**
+   * Create a set of timeouts.
+   *
+   * @param minimum The minimum timeout for any command
+   * @param maximum The maximum timeout for any command
+   */
+
+  public ISCommandTimeouts(
+    final Duration minimum,
+    final Duration maximum)
+  {
+    Objects.requireNonNull(minimum, "minimum");
+    Objects.requireNonNull(maximum, "maximum");
+
+    if (minimum.isNegative() || minimum.isZero()) {
+      throw new IllegalArgumentException("Minimum timeout must be positive");
+    }
+    if (maximum.compareTo(minimum) < 0) {
+      throw new IllegalArgumentException(
+        "Maximum timeout must be at least the minimum timeout");
+    }
+
+    this.minimumNanos = minimum.toNanos();
+    this.maximumNanos = maximum.toNanos();
+    this.estimates = new Int2ObjectOpenHashMap<>(64);
+
+    this.allow("G4", Duration.ofMinutes(15L));
+    this.allow("G28", Duration.ofMinutes(2L));
+    this.allow("G29", Duration.ofMinutes(10L));
+    this.allow("G33", Duration.ofMinutes(10L));
+    this.allow("G34", Duration.ofMinutes(5L));
+    this.allow("G35", Duration.ofMinutes(5L));
+    this.allow("G76", Duration.ofMinutes(30L));
+    this.allow("G425", Duration.ofMinutes(10L));
+    this.allow("M0", Duration.ofHours(1L));
+    this.allow("M1", Duration.ofHours(1L));
+    this.allow("M109", Duration.ofMinutes(15L));
+    this.allow("M116", Duration.ofMinutes(30L));
+    this.allow("M190", Duration.ofMinutes(30L));
+    this.allow("M191", Duration.ofMinutes(30L));
+    this.allow("M303", Duration.ofMinutes(30L));
+    this.allow("M400", Duration.ofMinutes(15L));
+    this.allow("M600", Duration.ofHours(1L));
+  }
+
+  private void allow(
+    final String code,
+    final Duration duration)
+  {
+    this.estimate(kindOf(code)).allowanceNanos = duration.toNanos();
+  }
+
+  private Estimate estimate(
+    final int kind)
+  {
+    var estimate = this.estimates.get(kind);
+    if (estimate == null) {
+      estimate = new Estimate();
+      this.estimates.put(kind, estimate);
+    }
+    return estimate;
+  }
+
+  /**
+   * Determine the kind of the given command text. The kind consists of the
+   * command letter, number, and subcode (such as {@code G29.1}); any line
+   * number, parameters, and checksum are ignored.
+   *
+   * @param text The command text
+   *
+   * @return The kind of command, or a negative value if the command has no
+   * recognizable kind
+   */
+
+  public static int kindOf(
+    final CharSequence text)
+  {
+    final var length = text.length();
+    int index = skipSpaces(text, 0);
+
+    if (index < length && Character.toUpperCase(text.charAt(index)) == 'N') {
+      final var digits = skipDigits(text, index + 1);
+      if (digits > index + 1) {
+        index = skipSpaces(text, digits);
+      }
+    }
+
+    if (index >= length) {
+      return KIND_UNKNOWN;
+    }
+
+    final var letter = Character.toUpperCase(text.charAt(index));
+    if (letter < 'A' || letter > 'Z') {
+      return KIND_UNKNOWN;
+    }
+
+    int number = 0;
+    int end = index + 1;
+    for (; end < length; ++end) {
+      final var c = text.charAt(end);
+      if (c < '0' || c > '9') {
+        break;
+      }
+      number = number * 10 + (c - '0');
+      if (number >= 0x10_0000) {
+        return KIND_UNKNOWN;
+      }
+    }
+
+    int subcode = 0;
+    if (end + 1 < length && text.charAt(end) == '.') {
+      final var c = text.charAt(end + 1);
+      if (c >= '0' && c <= '9') {
+        subcode = c - '0' + 1;
+      }
+    }
+
+    return (letter << 24) | (number << 4) | subcode;
+  }
+
+  private static int skipSpaces(
+    final CharSequence text,
+    final int start)
+  {
+    int index = start;
+    while (index < text.length() && text.charAt(index) == ' ') {
+      ++index;
+    }
+    return index;
+  }
+
+  private static int skipDigits(
+    final CharSequence text,
+    final int start)
+  {
+    int index = start;
+    while (index < text.length() && Character.isDigit(text.charAt(index))) {
+      ++index;
+    }
+    return index;
+  }
+
+  /**
+   * @return The minimum timeout in nanoseconds
+   */
+
+  public long minimumNanos()
+  {
+    return this.minimumNanos;
+  }
+
+  /**
+   * @param kind The kind of command
+   *
+   * @return The time in nanoseconds that a command of the given kind may
+   * take to be acknowledged
+   *
+   * @see #kindOf(CharSequence)
+   */
+
+  public long timeoutNanos(
+    final int kind)
+  {
+    final var estimate = this.estimates.get(kind);
+    if (estimate == null) {
+      return this.minimumNanos;
+    }
+
+    var timeout = Math.max(this.minimumNanos, estimate.allowanceNanos);
+    if (estimate.samples > 0L) {
+      timeout = Math.max(
+        timeout,
+        estimate.smoothedNanos + 4L * estimate.varianceNanos
+      );
+    }
+    return Math.min(timeout, this.maximumNanos);
+  }
+
+  /**
+   * @param kind The kind of command
+   *
+   * @return The smoothed round-trip time in nanoseconds, or {@code -1} if
+   * no round-trip times have been recorded for the kind
+   */
+
+  public long smoothedNanos(
+    final int kind)
+  {
+    final var estimate = this.estimates.get(kind);
+    if (estimate == null || estimate.samples == 0L) {
+      return -1L;
+    }
+    return estimate.smoothedNanos;
+  }
+
+  /**
+   * Record the time taken for a command to be acknowledged. Callers should
+   * not record round-trip times for commands that were sent more than once,
+   * as the acknowledgement cannot be attributed to a particular send.
+   *
+   * @param kind  The kind of command
+   * @param nanos The round-trip time in nanoseconds
+   */
+
+  public void record(
+    final int kind,
+    final long nanos)
+  {
+    if (kind < 0 || nanos < 0L) {
+      return;
+    }
+
+    final var estimate = this.estimate(kind);
+    if (estimate.samples == 0L) {
+      estimate.smoothedNanos = nanos;
+      estimate.varianceNanos = nanos / 2L;
+    } else {
+      final var error = Math.abs(estimate.smoothedNanos - nanos);
+      estimate.varianceNanos =
+        estimate.varianceNanos - (estimate.varianceNanos / 4L) + (error / 4L);
+      estimate.smoothedNanos =
+        estimate.smoothedNanos - (estimate.smoothedNanos / 8L) + (nanos / 8L);
+    }
+    ++estimate.samples;
+  }
+
+  private static final class Estimate
+  {
+    private long allowanceNanos;
+    private long smoothedNanos;
+    private long varianceNanos;
+    private long samples;
+
+    Estimate()
+    {
+
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.printer.vanilla.internal;
+
+import com.io7m.ironstrata.printer.api.ISPrinterFirmwareCapabilities;
+
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import static com.io7m.ironstrata.serialport.api.ISSerialLines.startsWith;
+
+/**
+ * A parser for the {@code FIRMWARE_NAME} and {@code Cap:} lines that
+ * firmware sends in response to {@code M115}. Lines are accumulated until
+ * {@link #finish()} is called.
+ */
+
+public final class ISFirmwareCapabilitiesParser
+{
+  private static final Pattern PROPERTY_NAME =
+    Pattern.compile("(?:^|\\s)([A-Z][A-Z0-9_]*):");
+
+  private final LinkedHashMap<String, String> properties;
+  private final LinkedHashMap<String, Boolean> capabilities;
+  private Optional<String> firmwareName;
+  private boolean pending;
+
+  public ISFirmwareCapabilitiesParser()
+  {
+    this.properties = new LinkedHashMap<>();
+    this.capabilities = new LinkedHashMap<>();
+    this.firmwareName = Optional.empty();
+  }
+
+  /**
+   * Accept a line of text.
+   *
+   * @param line The line
+   *
+   * @return {@code true} if the line was part of an {@code M115} response
+   */
+
+  public boolean accept(
+    final CharSequence line)
+  {
+    if (startsWith(line, "FIRMWARE_NAME:")) {
+      this.acceptFirmwareLine(line.toString().trim());
+      this.pending = true;
+      return true;
+    }
+    if (startsWith(line, "Cap:")) {
+      this.acceptCapabilityLine(line.toString().trim());
+      this.pending = true;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * The firmware line consists of {@code NAME:value} properties, where
+   * values may contain spaces.
+   */
+
+  private void acceptFirmwareLine(
+    final String text)
+  {
+    final var matcher = PROPERTY_NAME.matcher(text);
+    String name = null;
+    int valueStart = 0;
+    while (matcher.find()) {
+      if (name != null) {
+        this.acceptProperty(name, text.substring(valueStart, matcher.start()));
+      }
+      name = matcher.group(1);
+      valueStart = matcher.end();
+    }
+    if (name != null) {
+      this.acceptProperty(name, text.substring(valueStart));
+    }
+  }
+
+  private void acceptProperty(
+    final String name,
+    final String value)
+  {
+    final var trimmed = value.trim();
+    if ("FIRMWARE_NAME".equals(name)) {
+      this.firmwareName = Optional.of(trimmed);
+    } else {
+      this.properties.put(name, trimmed);
+    }
+  }
+
+  /**
+   * Capability lines take the form {@code Cap:NAME:0} or {@code Cap:NAME:1}.
+   */
+
+  private void acceptCapabilityLine(
+    final String text)
+  {
+    final var separator = text.lastIndexOf(':');
+    if (separator <= 4) {
+      return;
+    }
+
+    final var name = text.substring(4, separator).trim();
+    final var value = text.substring(separator + 1).trim();
+    if (!name.isEmpty()) {
+      this.capabilities.put(name, Boolean.valueOf("1".equals(value)));
+    }
+  }
+
+  /**
+   * @return {@code true} if lines have been accepted since the last call to
+   * {@link #finish()} or {@link #reset()}
+   */
+
+  public boolean isPending()
+  {
+    return this.pending;
+  }
+
+  /**
+   * @return The capabilities accumulated so far
+   */
+
+  public ISPrinterFirmwareCapabilities finish()
+  {
+    final var result =
+      ISPrinterFirmwareCapabilities.builder()
+        .setFirmwareName(this.firmwareName)
+        .setProperties(this.properties)
+        .setCapabilities(this.capabilities)
+        .build();
+
+    this.reset();
+    return result;
+  }
+
+  /**
+   * Discard any accumulated lines.
+   */
+
+  public void reset()
+  {
+    this.properties.clear();
+    this.capabilities.clear();
+    this.firmwareName = Optional.empty();
+    this.pending = false;
+  }
+}
@@ -20,27 +20,38 @@ import com.io7m.ironstrata.printer.api.ISPrinterCommandGCode;
 import com.io7m.ironstrata.printer.api.ISPrinterCommandQueueGCodeType;
 import com.io7m.ironstrata.printer.api.ISPrinterCommandQueueStatistics;
 import com.io7m.ironstrata.printer.api.ISPrinterEventCommandSubmitted;
-import com.io7m.ironstrata.printer.api.ISPrinterEventType;
 import com.io7m.ironstrata.printer.api.ISPrinterGCodeCommandStyle;
-import io.reactivex.rxjava3.subjects.Subject;
 
 import java.time.Clock;
 import java.time.OffsetDateTime;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.io7m.ironstrata.printer.api.ISPrinterGCodeCommandStyle.COMMAND_WITHOUT_LINE;
 
 final class ISGCodeCommandQueue implements ISPrinterCommandQueueGCodeType
 {
+  private static final int KIND_M108 = ISCommandTimeouts.kindOf("M108");
+  private static final int KIND_M112 = ISCommandTimeouts.kindOf("M112");
+  private static final int KIND_M410 = ISCommandTimeouts.kindOf("M410");
+  private static final int KIND_M876 = ISCommandTimeouts.kindOf("M876");
+
   private final Clock clock;
-  private final Subject<ISPrinterEventType> events;
+  private final ISPrinterEventDispatcher events;
   private final Queue<ISPrinterCommandGCode> queue;
+  private final Queue<ISPrinterCommandGCode> emergencyQueue;
+  private final Runnable onEnqueue;
+  private final AtomicBoolean resumeRequested;
   private ISPrinterCommandQueueStatistics statistics;
   private int lineNumber;
 
   ISGCodeCommandQueue(
     final Clock inClock,
-    final Subject<ISPrinterEventType> inEvents,
-    final Queue<ISPrinterCommandGCode> inCommandQueue)
+    final ISPrinterEventDispatcher inEvents,
+    final Queue<ISPrinterCommandGCode> inCommandQueue,
+    final Queue<ISPrinterCommandGCode> inEmergencyQueue,
+    final Runnable inOnEnqueue)
   {
     this.clock =
       Objects.requireNonNull(inClock, "clock");
@@ -48,6 +59,12 @@ final class ISGCodeCommandQueue implements ISPrinterCommandQueueGCodeType
       Objects.requireNonNull(inEvents, "inEvents");
     this.queue =
       Objects.requireNonNull(inCommandQueue, "commandQueue");
+    this.emergencyQueue =
+      Objects.requireNonNull(inEmergencyQueue, "emergencyQueue");
+    this.onEnqueue =
+      Objects.requireNonNull(inOnEnqueue, "onEnqueue");
+    this.resumeRequested =
+      new AtomicBoolean(false);
 
     this.statistics =
       ISPrinterCommandQueueStatistics.builder()
@@ -81,10 +98,56 @@ final class ISGCodeCommandQueue implements ISPrinterCommandQueueGCodeType
     final ISPrinterCommandGCode command)
   {
     this.queue.add(command);
+    return this.onSubmitted(command);
+  }
+
+  @Override
+  public ISPrinterCommandGCode enqueueEmergency(
+    final String text)
+  {
+    Objects.requireNonNull(text, "text");
+
+    final var kind = ISCommandTimeouts.kindOf(text);
+    if (kind != KIND_M108
+      && kind != KIND_M112
+      && kind != KIND_M410
+      && kind != KIND_M876) {
+      throw new IllegalArgumentException(
+        String.format("Not an emergency command: %s", text));
+    }
+
+    final var command =
+      ISGCode.compile(this.lineNumber, text, COMMAND_WITHOUT_LINE);
+
+    this.emergencyQueue.add(command);
+    return this.onSubmitted(command);
+  }
+
+  @Override
+  public void resume()
+  {
+    this.resumeRequested.set(true);
+    this.onEnqueue.run();
+  }
+
+  /**
+   * @return {@code true} if {@link #resume()} has been called since this
+   * method was last called
+   */
+
+  boolean takeResumeRequest()
+  {
+    return this.resumeRequested.getAndSet(false);
+  }
+
+  private ISPrinterCommandGCode onSubmitted(
+    final ISPrinterCommandGCode command)
+  {
+    this.onEnqueue.run();
     final var x = this.statistics.commandSubmissions();
     this.statistics = this.statistics.withCommandSubmissions(x + 1L);
 
-    this.events.onNext(
+    this.events.publish(
       ISPrinterEventCommandSubmitted.of(
         OffsetDateTime.now(this.clock),
         command
@@ -102,6 +165,7 @@ final class ISGCodeCommandQueue implements ISPrinterCommandQueueGCodeType
   public void reset()
   {
     this.queue.clear();
+    this.emergencyQueue.clear();
     this.lineNumber = 0;
   }
 
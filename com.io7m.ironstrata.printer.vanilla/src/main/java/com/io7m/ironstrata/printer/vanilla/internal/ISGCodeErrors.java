@@ -16,6 +16,8 @@
 
 package com.io7m.ironstrata.printer.vanilla.internal;
 
+import static com.io7m.ironstrata.serialport.api.ISSerialLines.startsWithIgnoreCase;
+
 public final class ISGCodeErrors
 {
   private ISGCodeErrors()
@@ -24,20 +26,56 @@ public final class ISGCodeErrors
   }
 
   public static boolean isError(
-    final String line)
+    final CharSequence line)
   {
-    final var lineUpper = line.trim().toUpperCase();
-    if (lineUpper.startsWith("ERROR")) {
+    final var start = skipWhitespace(line);
+    if (startsWithIgnoreCase(line, start, "ERROR")) {
       return true;
     }
-    if (lineUpper.startsWith("FATAL")) {
+    if (startsWithIgnoreCase(line, start, "FATAL")) {
       return true;
     }
-    if (lineUpper.startsWith("!!")) {
+    if (startsWithIgnoreCase(line, start, "!!")) {
       return true;
     }
 
-    return isObnoxiousPrusaErrorCode(lineUpper);
+    return isObnoxiousPrusaErrorCode(line, start);
+  }
+
+  /**
+   * Errors that describe a line that was received corrupted or out of
+   * order, such as {@code Error:Line Number is not Last Line Number+1}.
+   * Each such error is followed by a request to resend a line.
+   *
+   * @param line The line
+   *
+   * @return {@code true} if the line is an error about line framing
+   */
+
+  public static boolean isLineError(
+    final CharSequence line)
+  {
+    final var start = skipWhitespace(line);
+    if (!startsWithIgnoreCase(line, start, "ERROR:")) {
+      return false;
+    }
+
+    final var offset = start + "ERROR:".length();
+    return startsWithIgnoreCase(line, offset, "LINE NUMBER")
+      || startsWithIgnoreCase(line, offset, "CHECKSUM MISMATCH")
+      || startsWithIgnoreCase(line, offset, "NO CHECKSUM")
+      || startsWithIgnoreCase(line, offset, "NO LINE NUMBER");
+  }
+
+  private static int skipWhitespace(
+    final CharSequence line)
+  {
+    final var length = line.length();
+    int index = 0;
+    while (index < length && line.charAt(index) <= ' ') {
+      ++index;
+    }
+    return index;
   }
 
   /**
@@ -47,23 +85,24 @@ public final class ISGCodeErrors
    */
 
   private static boolean isObnoxiousPrusaErrorCode(
-    final String lineUpper)
+    final CharSequence line,
+    final int start)
   {
-    if (lineUpper.startsWith("INVALID M CODE")) {
+    if (startsWithIgnoreCase(line, start, "INVALID M CODE")) {
       return true;
     }
-    if (lineUpper.startsWith("UNKNOWN M CODE")) {
+    if (startsWithIgnoreCase(line, start, "UNKNOWN M CODE")) {
       return true;
     }
-    if (lineUpper.startsWith("INVALID G CODE")) {
+    if (startsWithIgnoreCase(line, start, "INVALID G CODE")) {
       return true;
     }
-    if (lineUpper.startsWith("UNKNOWN G CODE")) {
+    if (startsWithIgnoreCase(line, start, "UNKNOWN G CODE")) {
       return true;
     }
-    if (lineUpper.startsWith("INVALID D CODE")) {
+    if (startsWithIgnoreCase(line, start, "INVALID D CODE")) {
       return true;
     }
-    return lineUpper.startsWith("UNKNOWN D CODE");
+    return startsWithIgnoreCase(line, start, "UNKNOWN D CODE");
   }
 }
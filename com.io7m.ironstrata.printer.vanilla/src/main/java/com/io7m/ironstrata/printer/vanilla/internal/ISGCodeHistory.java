@@ -0,0 +1,129 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.printer.vanilla.internal;
+
+import com.io7m.ironstrata.printer.api.ISPrinterCommandGCode;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A fixed-size ring of the most recently sent commands that have line
+ * numbers, indexed by line number. The history allows for resending
+ * commands that the printer has asked to be resent, even if they have
+ * already been acknowledged.
+ */
+
+final class ISGCodeHistory
+{
+  private final ISPrinterCommandGCode[] ring;
+  private final Int2ObjectOpenHashMap<ISPrinterCommandGCode> byLine;
+  private int ringNext;
+  private int lineLast;
+
+  ISGCodeHistory(
+    final int capacity)
+  {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+
+    this.ring = new ISPrinterCommandGCode[capacity];
+    this.byLine = new Int2ObjectOpenHashMap<>(capacity);
+    this.lineLast = -1;
+  }
+
+  /**
+   * Record a sent command. Commands without line numbers are ignored, as
+   * printers cannot ask for them to be resent. Recording a command may
+   * evict the oldest command in the history.
+   *
+   * @param command The command
+   */
+
+  void record(
+    final ISPrinterCommandGCode command)
+  {
+    Objects.requireNonNull(command, "command");
+
+    final var lineNumber = command.lineNumber();
+    if (lineNumber.isEmpty()) {
+      return;
+    }
+
+    final var evicted = this.ring[this.ringNext];
+    if (evicted != null) {
+      final var evictedLine = evicted.lineNumber().getAsInt();
+      if (this.byLine.get(evictedLine) == evicted) {
+        this.byLine.remove(evictedLine);
+      }
+    }
+
+    this.ring[this.ringNext] = command;
+    this.ringNext = (this.ringNext + 1) % this.ring.length;
+    this.byLine.put(lineNumber.getAsInt(), command);
+    this.lineLast = lineNumber.getAsInt();
+  }
+
+  /**
+   * @return The line number following the most recently recorded command
+   */
+
+  int lineNext()
+  {
+    return this.lineLast + 1;
+  }
+
+  /**
+   * Retrieve the commands in the line number range
+   * {@code [lineStart, lineEnd)} in line number order.
+   *
+   * @param lineStart The first line number (inclusive)
+   * @param lineEnd   The last line number (exclusive)
+   *
+   * @return The commands, or nothing if any command in the range is no
+   * longer present in the history
+   */
+
+  Optional<List<ISPrinterCommandGCode>> range(
+    final int lineStart,
+    final int lineEnd)
+  {
+    final var size = Math.max(0, lineEnd - lineStart);
+    final var results = new ArrayList<ISPrinterCommandGCode>(size);
+    for (int line = lineStart; line < lineEnd; ++line) {
+      final var command = this.byLine.get(line);
+      if (command == null) {
+        return Optional.empty();
+      }
+      results.add(command);
+    }
+    return Optional.of(results);
+  }
+
+  void clear()
+  {
+    this.byLine.clear();
+    Arrays.fill(this.ring, null);
+    this.ringNext = 0;
+    this.lineLast = -1;
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.printer.vanilla.internal;
+
+import com.io7m.ironstrata.printer.api.ISPrinterCommandGCode;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.OptionalInt;
+
+/**
+ * The set of commands that have been written to the printer but that have
+ * not yet been acknowledged. Commands are acknowledged in the order in
+ * which they were sent.
+ */
+
+final class ISGCodeSendWindow
+{
+  private final ArrayDeque<Entry> entries;
+  private final int octetLimit;
+  private int commandLimit;
+  private int octets;
+
+  ISGCodeSendWindow(
+    final int inCommandLimit,
+    final int inOctetLimit)
+  {
+    this.commandLimit = inCommandLimit;
+    this.octetLimit = inOctetLimit;
+    this.entries = new ArrayDeque<>(16);
+  }
+
+  /**
+   * @param command The command
+   *
+   * @return The number of octets the command occupies on the wire
+   */
+
+  static int sizeOf(
+    final ISPrinterCommandGCode command)
+  {
+    return command.text().length() + 1;
+  }
+
+  boolean isEmpty()
+  {
+    return this.entries.isEmpty();
+  }
+
+  int size()
+  {
+    return this.entries.size();
+  }
+
+  int octets()
+  {
+    return this.octets;
+  }
+
+  int commandLimit()
+  {
+    return this.commandLimit;
+  }
+
+  /**
+   * Set the maximum number of commands that may be in flight. The limit
+   * is never allowed to fall below one command.
+   *
+   * @param limit The new limit
+   */
+
+  void setCommandLimit(
+    final int limit)
+  {
+    this.commandLimit = Math.max(1, limit);
+  }
+
+  /**
+   * Determine if there is room to send the given command. A command is
+   * always allowed to be sent if nothing else is in flight, even if the
+   * command is larger than the octet limit.
+   *
+   * @param command The command
+   *
+   * @return {@code true} if the command can be sent
+   */
+
+  boolean hasRoomFor(
+    final ISPrinterCommandGCode command)
+  {
+    if (this.entries.isEmpty()) {
+      return true;
+    }
+    if (this.entries.size() >= this.commandLimit) {
+      return false;
+    }
+    return this.octets + sizeOf(command) <= this.octetLimit;
+  }
+
+  Entry add(
+    final ISPrinterCommandGCode command)
+  {
+    final var entry = new Entry(command);
+    this.entries.addLast(entry);
+    this.octets += entry.octets;
+    return entry;
+  }
+
+  /**
+   * Insert commands at the front of the window, ahead of all of the
+   * commands currently in flight, preserving the order of the given list.
+   * The commands are assumed to have been acknowledged once already.
+   *
+   * @param commands The commands
+   */
+
+  void prepend(
+    final List<ISPrinterCommandGCode> commands)
+  {
+    for (int index = commands.size() - 1; index >= 0; --index) {
+      final var entry = new Entry(commands.get(index));
+      entry.acknowledgedPreviously = true;
+      this.entries.addFirst(entry);
+      this.octets += entry.octets;
+    }
+  }
+
+  /**
+   * @return The line number of the oldest command in the window that has
+   * a line number
+   */
+
+  OptionalInt oldestLineNumber()
+  {
+    for (final var entry : this.entries) {
+      final var lineNumber = entry.command.lineNumber();
+      if (lineNumber.isPresent()) {
+        return lineNumber;
+      }
+    }
+    return OptionalInt.empty();
+  }
+
+  Entry oldest()
+  {
+    return this.entries.peekFirst();
+  }
+
+  Entry removeOldest()
+  {
+    final var entry = this.entries.removeFirst();
+    this.octets -= entry.octets;
+    return entry;
+  }
+
+  Iterable<Entry> entries()
+  {
+    return this.entries;
+  }
+
+  void clear()
+  {
+    this.entries.clear();
+    this.octets = 0;
+  }
+
+  static final class Entry
+  {
+    private final ISPrinterCommandGCode command;
+    private final int octets;
+    private final int kind;
+    private long timeSent;
+    private int sendAttempts;
+    private boolean failed;
+    private boolean acknowledgedPreviously;
+
+    Entry(
+      final ISPrinterCommandGCode inCommand)
+    {
+      this.command = Objects.requireNonNull(inCommand, "command");
+      this.octets = sizeOf(inCommand);
+      this.kind = ISCommandTimeouts.kindOf(inCommand.text());
+    }
+
+    ISPrinterCommandGCode command()
+    {
+      return this.command;
+    }
+
+    int sendAttempts()
+    {
+      return this.sendAttempts;
+    }
+
+    /**
+     * @return The kind of command
+     *
+     * @see ISCommandTimeouts#kindOf(CharSequence)
+     */
+
+    int kind()
+    {
+      return this.kind;
+    }
+
+    /**
+     * @return The monotonic time in nanoseconds at which the command was
+     * most recently sent
+     */
+
+    long timeSent()
+    {
+      return this.timeSent;
+    }
+
+    void onSent(
+      final long time)
+    {
+      ++this.sendAttempts;
+      this.timeSent = time;
+      this.failed = false;
+    }
+
+    boolean isFailed()
+    {
+      return this.failed;
+    }
+
+    void setFailed()
+    {
+      this.failed = true;
+    }
+
+    boolean wasAcknowledgedPreviously()
+    {
+      return this.acknowledgedPreviously;
+    }
+  }
+}
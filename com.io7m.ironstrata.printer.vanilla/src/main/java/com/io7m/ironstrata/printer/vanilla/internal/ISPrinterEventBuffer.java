@@ -0,0 +1,209 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironstrata.printer.vanilla.internal;
+
+import com.io7m.ironstrata.printer.api.ISPrinterEventBufferPolicy;
+import com.io7m.ironstrata.printer.api.ISPrinterEventBufferType;
+import com.io7m.ironstrata.printer.api.ISPrinterEventType;
+import com.io7m.junreachable.UnreachableCodeException;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.ObservableEmitter;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stream of printer events in which each subscriber has its own buffer.
+ *
+ * The dispatcher places each event into the buffer of every subscriber,
+ * and a task on the shared event pool delivers the buffered events to the
+ * subscriber. At most one task runs for each subscriber at any time, and
+ * the task finishes as soon as the buffer is empty, so a subscriber only
+ * occupies a thread while it is receiving events. An event that is being
+ * delivered has already left the buffer. Subscribers with a dropping
+ * policy have a bounded buffer. Unbounded subscribers may block for as
+ * long as they like, because the dispatcher never waits for them.
+ */
+
+public final class ISPrinterEventBuffer implements ISPrinterEventBufferType
+{
+  private final ISPrinterEventBufferPolicy policy;
+  private final Executor executor;
+  private final int capacity;
+  private final AtomicLong dropped;
+  private final Observable<ISPrinterEventType> events;
+
+  private ISPrinterEventBuffer(
+    final ISPrinterEventBufferPolicy inPolicy,
+    final Observable<ISPrinterEventType> source,
+    final Executor inExecutor,
+    final int inCapacity)
+  {
+    this.policy =
+      Objects.requireNonNull(inPolicy, "policy");
+    this.executor =
+      Objects.requireNonNull(inExecutor, "executor");
+    this.dropped =
+      new AtomicLong(0L);
+
+    switch (inPolicy) {
+      case DROP_OLDEST: {
+        this.capacity = inCapacity;
+        break;
+      }
+      case LATEST_ONLY: {
+        this.capacity = 1;
+        break;
+      }
+      case UNBOUNDED: {
+        this.capacity = Integer.MAX_VALUE;
+        break;
+      }
+      default: {
+        throw new UnreachableCodeException();
+      }
+    }
+
+    this.events = Observable.create(emitter -> {
+      final var subscriber = new Subscriber(emitter);
+      emitter.setDisposable(
+        source.subscribe(
+          subscriber::offer,
+          emitter::tryOnError,
+          subscriber::complete)
+      );
+    });
+  }
+
+  /**
+   * Create a buffered stream of events.
+   *
+   * @param source   The events delivered by the dispatcher
+   * @param policy   The buffering policy
+   * @param capacity The buffer capacity for {@link ISPrinterEventBufferPolicy#DROP_OLDEST}
+   *
+   * @return A buffered stream of events
+   */
+
+  public static ISPrinterEventBuffer create(
+    final Observable<ISPrinterEventType> source,
+    final ISPrinterEventBufferPolicy policy,
+    final int capacity)
+  {
+    Objects.requireNonNull(source, "source");
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    return new ISPrinterEventBuffer(
+      policy, source, ISPrinterEventExecutor.shared(), capacity);
+  }
+
+  @Override
+  public ISPrinterEventBufferPolicy policy()
+  {
+    return this.policy;
+  }
+
+  @Override
+  public Observable<ISPrinterEventType> events()
+  {
+    return this.events;
+  }
+
+  @Override
+  public long dropped()
+  {
+    return this.dropped.get();
+  }
+
+  /**
+   * The buffer of a single subscriber.
+   */
+
+  private final class Subscriber implements Runnable
+  {
+    private final ObservableEmitter<ISPrinterEventType> emitter;
+    private final ArrayDeque<ISPrinterEventType> queue;
+    private boolean scheduled;
+    private boolean completed;
+
+    Subscriber(
+      final ObservableEmitter<ISPrinterEventType> inEmitter)
+    {
+      this.emitter = inEmitter;
+      this.queue = new ArrayDeque<>();
+    }
+
+    void offer(
+      final ISPrinterEventType event)
+    {
+      final boolean start;
+      synchronized (this.queue) {
+        if (this.queue.size() >= ISPrinterEventBuffer.this.capacity) {
+          this.queue.pollFirst();
+          ISPrinterEventBuffer.this.dropped.incrementAndGet();
+        }
+        this.queue.addLast(event);
+        start = !this.scheduled;
+        this.scheduled = true;
+      }
+      if (start) {
+        ISPrinterEventBuffer.this.executor.execute(this);
+      }
+    }
+
+    void complete()
+    {
+      final boolean start;
+      synchronized (this.queue) {
+        this.completed = true;
+        start = !this.scheduled;
+        this.scheduled = true;
+      }
+      if (start) {
+        ISPrinterEventBuffer.this.executor.execute(this);
+      }
+    }
+
+    @Override
+    public void run()
+    {
+      while (true) {
+        final ISPrinterEventType event;
+        final boolean finished;
+        synchronized (this.queue) {
+          event = this.queue.pollFirst();
+          finished = event == null && this.completed;
+          if (event == null) {
+            this.scheduled = false;
+          }
+        }
+
+        if (event == null) {
+          if (finished) {
+            this.emitter.onComplete();
+          }
+          return;
+        }
+        this.emitter.onNext(event);
+      }
+    }
+  }
+}
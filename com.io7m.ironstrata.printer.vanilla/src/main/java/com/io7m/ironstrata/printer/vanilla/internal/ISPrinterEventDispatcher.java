@@ -0,0 +1,218 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.printer.vanilla.internal;
+
+import com.io7m.ironstrata.printer.api.ISPrinterEventType;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A dispatcher of printer events.
+ *
+ * Events are placed into a bounded ring by any number of threads, and
+ * are taken from the ring and delivered to subscribers by a task running
+ * on an executor. At most one such task runs at any time, so events are
+ * delivered in order. The task is submitted when the first event arrives
+ * at an empty ring, and finishes once the ring is empty again, so an idle
+ * dispatcher occupies no thread. Publishing an event never blocks; if the
+ * ring is full, the event is dropped and counted.
+ */
+
+public final class ISPrinterEventDispatcher
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(ISPrinterEventDispatcher.class);
+
+  private final AtomicReferenceArray<ISPrinterEventType> slots;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail;
+  private final AtomicLong dropped;
+  private final PublishSubject<ISPrinterEventType> events;
+  private final Executor executor;
+  private final AtomicBoolean scheduled;
+  private volatile long head;
+  private volatile boolean completed;
+  private boolean finished;
+
+  /**
+   * Create a dispatcher that delivers events on the shared event pool.
+   *
+   * @param capacity The maximum number of events waiting to be delivered
+   *
+   * @see ISPrinterEventExecutor#shared()
+   */
+
+  public ISPrinterEventDispatcher(
+    final int capacity)
+  {
+    this(ISPrinterEventExecutor.shared(), capacity);
+  }
+
+  /**
+   * Create a dispatcher.
+   *
+   * @param inExecutor The executor on which events are delivered
+   * @param capacity   The maximum number of events waiting to be delivered
+   */
+
+  public ISPrinterEventDispatcher(
+    final Executor inExecutor,
+    final int capacity)
+  {
+    this.executor = Objects.requireNonNull(inExecutor, "executor");
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+
+    final var size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    this.slots = new AtomicReferenceArray<>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int index = 0; index < size; ++index) {
+      this.sequences.set(index, index);
+    }
+    this.mask = size - 1;
+    this.tail = new AtomicLong(0L);
+    this.dropped = new AtomicLong(0L);
+    this.events = PublishSubject.create();
+    this.scheduled = new AtomicBoolean(false);
+  }
+
+  /**
+   * @return The stream of events, delivered on the executor
+   */
+
+  public Observable<ISPrinterEventType> events()
+  {
+    return this.events;
+  }
+
+  /**
+   * @return The number of events dropped because the ring was full
+   */
+
+  public long dropped()
+  {
+    return this.dropped.get();
+  }
+
+  /**
+   * Add an event to the ring. This method never blocks.
+   *
+   * @param event The event
+   */
+
+  public void publish(
+    final ISPrinterEventType event)
+  {
+    while (true) {
+      final var position = this.tail.get();
+      final var index = (int) (position & this.mask);
+      final var sequence = this.sequences.get(index);
+
+      if (sequence < position) {
+        this.dropped.incrementAndGet();
+        return;
+      }
+
+      if (sequence == position
+        && this.tail.compareAndSet(position, position + 1L)) {
+        this.slots.set(index, event);
+        this.sequences.set(index, position + 1L);
+        this.schedule();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Deliver all remaining events, then complete the stream. This method
+   * does not wait for delivery.
+   */
+
+  public void complete()
+  {
+    this.completed = true;
+    this.schedule();
+  }
+
+  private void schedule()
+  {
+    if (this.scheduled.compareAndSet(false, true)) {
+      this.executor.execute(this::run);
+    }
+  }
+
+  private boolean isEmpty()
+  {
+    final var index = (int) (this.head & this.mask);
+    return this.sequences.get(index) != this.head + 1L;
+  }
+
+  /**
+   * Deliver events until the ring is empty. An event published after the
+   * final check for an empty ring either sees that no task is scheduled
+   * and submits a new one, or is seen by this task when it reclaims the
+   * schedule.
+   */
+
+  private void run()
+  {
+    while (true) {
+      final var completing = this.completed;
+      this.drain();
+
+      if (completing && !this.finished) {
+        this.finished = true;
+        this.events.onComplete();
+      }
+
+      this.scheduled.set(false);
+      if (this.isEmpty() && this.completed == this.finished) {
+        return;
+      }
+      if (!this.scheduled.compareAndSet(false, true)) {
+        return;
+      }
+    }
+  }
+
+  private void drain()
+  {
+    while (!this.isEmpty()) {
+      final var index = (int) (this.head & this.mask);
+      final var event = this.slots.getAndSet(index, null);
+      this.sequences.set(index, this.head + this.slots.length());
+      ++this.head;
+
+      try {
+        this.events.onNext(event);
+      } catch (final Throwable e) {
+        LOG.error("event subscriber failed: ", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironstrata.printer.vanilla.internal;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The pool of threads on which printer events are delivered.
+ *
+ * Events for every printer, and for every buffered subscriber, are
+ * delivered by short tasks submitted to this one shared pool. A thread is
+ * only occupied while it is delivering events (or while a subscriber is
+ * blocked), so the number of threads follows the number of subscribers
+ * that are busy at the same time rather than the number of printers and
+ * subscribers. Idle threads exit after a minute.
+ */
+
+public final class ISPrinterEventExecutor
+{
+  private static final ExecutorService EXECUTOR =
+    Executors.newCachedThreadPool(ISPrinterEventExecutor::createThread);
+
+  private ISPrinterEventExecutor()
+  {
+
+  }
+
+  private static Thread createThread(
+    final Runnable runnable)
+  {
+    final var thread = new Thread(runnable);
+    thread.setName(String.format(
+      "com.io7m.ironstrata.printer.events.%d",
+      Long.valueOf(thread.getId()))
+    );
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /**
+   * @return The shared event delivery pool
+   */
+
+  public static Executor shared()
+  {
+    return EXECUTOR;
+  }
+}
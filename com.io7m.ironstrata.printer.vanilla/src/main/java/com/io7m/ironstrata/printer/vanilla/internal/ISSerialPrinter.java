@@ -18,8 +18,12 @@ package com.io7m.ironstrata.printer.vanilla.internal;
 
 import com.io7m.ironstrata.printer.api.ISPrinterCommandGCode;
 import com.io7m.ironstrata.printer.api.ISPrinterCommandQueueType;
+import com.io7m.ironstrata.printer.api.ISPrinterEventBufferPolicy;
+import com.io7m.ironstrata.printer.api.ISPrinterEventBufferType;
 import com.io7m.ironstrata.printer.api.ISPrinterEventType;
 import com.io7m.ironstrata.printer.api.ISPrinterException;
+import com.io7m.ironstrata.printer.api.ISPrinterFirmwareCapabilities;
+import com.io7m.ironstrata.printer.api.ISPrinterState;
 import com.io7m.ironstrata.printer.api.ISSerialPrinterConfiguration;
 import com.io7m.ironstrata.printer.api.ISSerialPrinterType;
 import com.io7m.ironstrata.printer.vanilla.ISSerialPrinterMessages;
@@ -31,11 +35,14 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.time.Clock;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
 
 public final class ISSerialPrinter implements ISSerialPrinterType
 {
@@ -44,14 +51,14 @@ public final class ISSerialPrinter implements ISSerialPrinterType
 
   private final AtomicBoolean closed;
   private final ISSerialPortType port;
-  private final ExecutorService executor;
+  private final Optional<ExecutorService> executor;
   private final ISSerialPrinterEngine engine;
 
   private ISSerialPrinter(
     final ISSerialPrinterMessages inMessages,
     final ISSerialPortType inPort,
     final Clock inClock,
-    final ExecutorService inExecutor,
+    final Optional<ExecutorService> inExecutor,
     final ISSerialPrinterEngine inEngine)
   {
     this.port =
@@ -64,34 +71,149 @@ public final class ISSerialPrinter implements ISSerialPrinterType
       new AtomicBoolean(false);
   }
 
+  /**
+   * @return A factory of named platform threads for printer engines
+   */
+
+  public static ThreadFactory defaultThreadFactory()
+  {
+    return runnable -> {
+      final var thread = new Thread(runnable);
+      thread.setName(String.format(
+        "com.io7m.ironstrata.printer.%d",
+        Long.valueOf(thread.getId()))
+      );
+      return thread;
+    };
+  }
+
   public static ISSerialPrinterType create(
     final ISSerialPrinterMessages messages,
     final ISSerialPrinterConfiguration configuration,
     final Clock clock,
     final ISSerialPortType inPort)
+  {
+    return create(
+      messages,
+      configuration,
+      clock,
+      System::nanoTime,
+      inPort,
+      defaultThreadFactory()
+    );
+  }
+
+  /**
+   * Create a printer whose engine runs on a thread created by the given
+   * factory.
+   *
+   * @param messages      Message resources
+   * @param configuration The printer configuration
+   * @param clock         The clock
+   * @param nanoTime      The monotonic time source used for timeouts
+   * @param inPort        The serial port
+   * @param threads       The engine thread factory
+   *
+   * @return A printer
+   */
+
+  public static ISSerialPrinterType create(
+    final ISSerialPrinterMessages messages,
+    final ISSerialPrinterConfiguration configuration,
+    final Clock clock,
+    final LongSupplier nanoTime,
+    final ISSerialPortType inPort,
+    final ThreadFactory threads)
   {
     Objects.requireNonNull(messages, "messages");
     Objects.requireNonNull(configuration, "configuration");
     Objects.requireNonNull(clock, "clock");
+    Objects.requireNonNull(nanoTime, "nanoTime");
     Objects.requireNonNull(inPort, "inPort");
+    Objects.requireNonNull(threads, "threads");
 
     final ExecutorService executor =
-      Executors.newSingleThreadExecutor(runnable -> {
-        final var thread = new Thread(runnable);
-        thread.setName(String.format(
-          "com.io7m.ironstrata.printer.%d",
-          Long.valueOf(thread.getId()))
-        );
-        return thread;
-      });
+      Executors.newSingleThreadExecutor(threads);
+
+    final var engine =
+      createEngine(messages, configuration, clock, nanoTime, inPort);
+    executor.execute(engine);
+    return new ISSerialPrinter(
+      messages, inPort, clock, Optional.of(executor), engine);
+  }
+
+  /**
+   * Create a printer that is driven by a shared event loop rather than
+   * by a dedicated thread. If the port can neither report when lines are
+   * available nor be selected, the loop cannot drive the printer, and the
+   * printer is instead driven by a thread created by the given thread
+   * factory.
+   *
+   * @param messages      Message resources
+   * @param configuration The printer configuration
+   * @param clock         The clock
+   * @param nanoTime      The monotonic time source used for timeouts
+   * @param inPort        The serial port
+   * @param eventLoop     The event loop
+   * @param threads       The engine thread factory
+   *
+   * @return A printer
+   */
+
+  public static ISSerialPrinterType createShared(
+    final ISSerialPrinterMessages messages,
+    final ISSerialPrinterConfiguration configuration,
+    final Clock clock,
+    final LongSupplier nanoTime,
+    final ISSerialPortType inPort,
+    final ISSerialPrinterEventLoop eventLoop,
+    final ThreadFactory threads)
+  {
+    Objects.requireNonNull(messages, "messages");
+    Objects.requireNonNull(configuration, "configuration");
+    Objects.requireNonNull(clock, "clock");
+    Objects.requireNonNull(nanoTime, "nanoTime");
+    Objects.requireNonNull(inPort, "inPort");
+    Objects.requireNonNull(eventLoop, "eventLoop");
+    Objects.requireNonNull(threads, "threads");
+
+    final var engine =
+      createEngine(messages, configuration, clock, nanoTime, inPort);
+
+    if (!eventLoop.register(engine)) {
+      LOG.debug(
+        "port {} cannot be waited for by the loop; using a dedicated thread",
+        inPort
+      );
+      final ExecutorService executor =
+        Executors.newSingleThreadExecutor(threads);
+      executor.execute(engine);
+      return new ISSerialPrinter(
+        messages, inPort, clock, Optional.of(executor), engine);
+    }
+
+    return new ISSerialPrinter(
+      messages, inPort, clock, Optional.empty(), engine);
+  }
 
+  private static ISSerialPrinterEngine createEngine(
+    final ISSerialPrinterMessages messages,
+    final ISSerialPrinterConfiguration configuration,
+    final Clock clock,
+    final LongSupplier nanoTime,
+    final ISSerialPortType inPort)
+  {
     final var queue =
       new ArrayBlockingQueue<ISPrinterCommandGCode>(100);
 
-    final var engine =
-      new ISSerialPrinterEngine(messages, inPort, clock, queue);
-    executor.execute(engine);
-    return new ISSerialPrinter(messages, inPort, clock, executor, engine);
+    return new ISSerialPrinterEngine(
+      messages,
+      configuration,
+      inPort,
+      clock,
+      nanoTime,
+      queue
+    );
   }
 
   @Override
@@ -100,12 +222,38 @@ public final class ISSerialPrinter implements ISSerialPrinterType
     return this.engine.events();
   }
 
+  @Override
+  public ISPrinterEventBufferType events(
+    final ISPrinterEventBufferPolicy policy,
+    final int capacity)
+  {
+    return ISPrinterEventBuffer.create(this.engine.events(), policy, capacity);
+  }
+
+  @Override
+  public long eventsDropped()
+  {
+    return this.engine.eventsDropped();
+  }
+
   @Override
   public boolean isOnline()
   {
     return this.engine.isOnline();
   }
 
+  @Override
+  public ISPrinterState state()
+  {
+    return this.engine.state();
+  }
+
+  @Override
+  public ISPrinterFirmwareCapabilities firmwareCapabilities()
+  {
+    return this.engine.firmwareCapabilities();
+  }
+
   @Override
   public <T extends ISPrinterCommandQueueType> T commandQueue(
     final Class<T> clazz)
@@ -128,12 +276,15 @@ public final class ISSerialPrinter implements ISSerialPrinterType
         LOG.error("close: ", e);
       }
 
-      this.executor.shutdown();
+      if (this.executor.isPresent()) {
+        final var exec = this.executor.get();
+        exec.shutdown();
 
-      try {
-        this.executor.awaitTermination(30L, TimeUnit.SECONDS);
-      } catch (final InterruptedException e) {
-        Thread.currentThread().interrupt();
+        try {
+          exec.awaitTermination(30L, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
       }
     }
   }
@@ -22,30 +22,57 @@ import com.io7m.ironstrata.printer.api.ISPrinterCommandType;
 import com.io7m.ironstrata.printer.api.ISPrinterEventCommandFailed;
 import com.io7m.ironstrata.printer.api.ISPrinterEventCommandSucceeded;
 import com.io7m.ironstrata.printer.api.ISPrinterEventFatalError;
+import com.io7m.ironstrata.printer.api.ISPrinterEventFirmwareCapabilitiesChanged;
 import com.io7m.ironstrata.printer.api.ISPrinterEventOnlineStateChanged;
+import com.io7m.ironstrata.printer.api.ISPrinterEventStateChanged;
 import com.io7m.ironstrata.printer.api.ISPrinterEventTemperaturesChanged;
 import com.io7m.ironstrata.printer.api.ISPrinterEventType;
 import com.io7m.ironstrata.printer.api.ISPrinterException;
 import com.io7m.ironstrata.printer.api.ISPrinterExceptionUnsupported;
+import com.io7m.ironstrata.printer.api.ISPrinterFirmwareCapabilities;
+import com.io7m.ironstrata.printer.api.ISPrinterState;
 import com.io7m.ironstrata.printer.api.ISPrinterTemperatures;
+import com.io7m.ironstrata.printer.api.ISSerialPrinterConfiguration;
+import com.io7m.ironstrata.printer.api.ISSerialPrinterFlowControl;
 import com.io7m.ironstrata.printer.vanilla.ISSerialPrinterMessages;
 import com.io7m.ironstrata.serialport.api.ISSerialPortType;
+import com.io7m.jfsm.core.FSMEnumMutable;
+import com.io7m.jfsm.core.FSMEnumMutableType;
+import com.io7m.junreachable.UnreachableCodeException;
 import io.reactivex.rxjava3.core.Observable;
-import io.reactivex.rxjava3.subjects.PublishSubject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.channels.SelectableChannel;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
 import java.util.regex.Pattern;
 
 import static com.io7m.ironstrata.printer.api.ISPrinterGCodeCommandStyle.COMMAND_WITHOUT_LINE;
+import static com.io7m.ironstrata.printer.api.ISPrinterState.ERROR;
+import static com.io7m.ironstrata.printer.api.ISPrinterState.HANDSHAKING;
+import static com.io7m.ironstrata.printer.api.ISPrinterState.IDLE;
+import static com.io7m.ironstrata.printer.api.ISPrinterState.OFFLINE;
+import static com.io7m.ironstrata.printer.api.ISPrinterState.PAUSED;
+import static com.io7m.ironstrata.printer.api.ISPrinterState.PRINTING;
+import static com.io7m.ironstrata.printer.api.ISPrinterState.RESENDING;
+import static com.io7m.ironstrata.printer.api.ISSerialPrinterFlowControl.ADVANCED_OK;
+import static com.io7m.ironstrata.printer.api.ISSerialPrinterFlowControl.PING_PONG;
+import static com.io7m.ironstrata.serialport.api.ISSerialLines.indexOf;
+import static com.io7m.ironstrata.serialport.api.ISSerialLines.isEqualTo;
+import static com.io7m.ironstrata.serialport.api.ISSerialLines.startsWith;
+import static com.io7m.ironstrata.serialport.api.ISSerialLines.startsWithIgnoreCase;
 import static java.util.regex.Pattern.CASE_INSENSITIVE;
 
 public final class ISSerialPrinterEngine implements Runnable
@@ -53,11 +80,6 @@ public final class ISSerialPrinterEngine implements Runnable
   private static final Logger LOG =
     LoggerFactory.getLogger(ISSerialPrinterEngine.class);
 
-  private static final Pattern OK_ANY_PATTERN =
-    Pattern.compile(
-      "^OK.*",
-      CASE_INSENSITIVE
-    );
   private static final Pattern RESEND_PATTERN =
     Pattern.compile(
       "^(RS|RESEND):\\s*([0-9]+)",
@@ -69,73 +91,293 @@ public final class ISSerialPrinterEngine implements Runnable
       "M105",
       COMMAND_WITHOUT_LINE
     );
-  private final AtomicBoolean online;
+  private static final String HOST_ACTION = "//action:";
+  private static final int SEND_ATTEMPTS_MAX = 30;
+  private static final int HISTORY_SIZE = 256;
+  private static final int EVENT_CAPACITY = 1024;
+  private static final Duration COMMAND_TIMEOUT_MAX = Duration.ofHours(1L);
+  private static final ISPrinterFirmwareCapabilities NO_CAPABILITIES =
+    ISPrinterFirmwareCapabilities.builder()
+      .build();
+
+  private final FSMEnumMutableType<ISPrinterState> states;
+  private volatile ISPrinterState state;
   private final AtomicBoolean stopped;
+  private volatile Thread waiter;
+  private volatile Runnable waker;
+  private boolean portSignalsReadable;
+  private boolean waitingForPort;
   private final BlockingQueue<ISPrinterCommandGCode> commandQueue;
+  private final Queue<ISPrinterCommandGCode> emergencyQueue;
   private final Clock clock;
+  private final LongSupplier nanoTime;
   private final ISGCodeCommandQueue queue;
+  private final ISGCodeSendWindow window;
+  private final ISGCodeHistory history;
+  private final ArrayList<ISGCodeSendWindow.Entry> batch;
+  private final ArrayList<String> batchTexts;
+  private final ISSerialPrinterConfiguration configuration;
   private final ISSerialPortType port;
   private final ISSerialPrinterMessages messages;
   private final ISTemperatureParser temperatureParser;
+  private final ISAdvancedOKParser advancedOKParser;
+  private final ISFirmwareCapabilitiesParser capabilitiesParser;
+  private volatile ISPrinterFirmwareCapabilities capabilities;
+  private ISSerialPrinterFlowControl flowControl;
   private final ISTimeOut offlineTimeout;
   private final ISTimeOut onlineTimeout;
-  private final PublishSubject<ISPrinterEventType> events;
+  private final ISCommandTimeouts commandTimeouts;
+  private final ISPrinterEventDispatcher events;
   private OffsetDateTime timeLastReceived;
+  private boolean resendRequested;
+  private int resendLine;
+  private int resendIgnoreLine;
+  private int resendIgnoreCount;
+  private boolean resendIgnoreOK;
+  private String resendDeferredError;
+  private boolean autoReportTemperatures;
+  private ISPrinterCommandGCode handshakeCommand;
+  private ISPrinterCommandGCode temperaturePoll;
+  private boolean pausedByFirmware;
+  private boolean pausedByRequest;
+  private boolean pausedForUser;
 
   public ISSerialPrinterEngine(
     final ISSerialPrinterMessages inMessages,
+    final ISSerialPrinterConfiguration inConfiguration,
     final ISSerialPortType inPort,
     final Clock inClock,
+    final LongSupplier inNanoTime,
     final BlockingQueue<ISPrinterCommandGCode> inQueue)
   {
     this.messages =
       Objects.requireNonNull(inMessages, "inMessages");
+    this.configuration =
+      Objects.requireNonNull(inConfiguration, "configuration");
     this.port =
       Objects.requireNonNull(inPort, "port");
     this.clock =
       Objects.requireNonNull(inClock, "clock");
+    this.nanoTime =
+      Objects.requireNonNull(inNanoTime, "nanoTime");
     this.commandQueue =
       Objects.requireNonNull(inQueue, "queue");
+    this.emergencyQueue =
+      new ConcurrentLinkedQueue<>();
+
+    final var responseTimeout =
+      this.configuration.responseTimeout();
 
     this.offlineTimeout =
-      new ISTimeOut(this.clock, Duration.ofSeconds(10L));
+      new ISTimeOut(this.nanoTime, Duration.ofSeconds(10L));
     this.onlineTimeout =
-      new ISTimeOut(this.clock, Duration.ofSeconds(10L));
+      new ISTimeOut(this.nanoTime, responseTimeout);
+    this.commandTimeouts =
+      new ISCommandTimeouts(
+        responseTimeout,
+        responseTimeout.compareTo(COMMAND_TIMEOUT_MAX) > 0
+          ? responseTimeout
+          : COMMAND_TIMEOUT_MAX
+      );
 
     this.events =
-      PublishSubject.create();
-    this.online =
-      new AtomicBoolean(false);
+      new ISPrinterEventDispatcher(EVENT_CAPACITY);
+    this.states =
+      createStateMachine();
+    this.state =
+      this.states.current();
     this.stopped =
       new AtomicBoolean(false);
     this.queue =
-      new ISGCodeCommandQueue(this.clock, this.events, this.commandQueue);
+      new ISGCodeCommandQueue(
+        this.clock,
+        this.events,
+        this.commandQueue,
+        this.emergencyQueue,
+        this::wakeup
+      );
     this.temperatureParser =
       new ISTemperatureParser();
+    this.flowControl =
+      this.configuration.flowControl();
+    this.window =
+      new ISGCodeSendWindow(
+        initialCommandLimit(this.flowControl),
+        this.configuration.firmwareReceiveBufferSize()
+      );
+    this.advancedOKParser =
+      new ISAdvancedOKParser();
+    this.capabilitiesParser =
+      new ISFirmwareCapabilitiesParser();
+    this.capabilities =
+      NO_CAPABILITIES;
+    this.history =
+      new ISGCodeHistory(HISTORY_SIZE);
+    this.batch =
+      new ArrayList<>(16);
+    this.batchTexts =
+      new ArrayList<>(16);
+  }
+
+  /**
+   * The table of permitted state transitions. A printer that is online may
+   * move between any of the online states except
+   * {@link ISPrinterState#HANDSHAKING}, which can only be entered from
+   * {@link ISPrinterState#OFFLINE}. Any state may move to
+   * {@link ISPrinterState#ERROR}, and no state may leave it.
+   *
+   * @return A state machine in the {@link ISPrinterState#OFFLINE} state
+   */
+
+  private static FSMEnumMutableType<ISPrinterState> createStateMachine()
+  {
+    final var builder = FSMEnumMutable.builder(OFFLINE);
+
+    builder.addTransition(OFFLINE, HANDSHAKING);
+    builder.addTransition(OFFLINE, ERROR);
+
+    builder.addTransition(HANDSHAKING, IDLE);
+    builder.addTransition(HANDSHAKING, PRINTING);
+    builder.addTransition(HANDSHAKING, PAUSED);
+    builder.addTransition(HANDSHAKING, RESENDING);
+    builder.addTransition(HANDSHAKING, OFFLINE);
+    builder.addTransition(HANDSHAKING, ERROR);
+
+    builder.addTransition(IDLE, PRINTING);
+    builder.addTransition(IDLE, PAUSED);
+    builder.addTransition(IDLE, RESENDING);
+    builder.addTransition(IDLE, OFFLINE);
+    builder.addTransition(IDLE, ERROR);
+
+    builder.addTransition(PRINTING, IDLE);
+    builder.addTransition(PRINTING, PAUSED);
+    builder.addTransition(PRINTING, RESENDING);
+    builder.addTransition(PRINTING, OFFLINE);
+    builder.addTransition(PRINTING, ERROR);
+
+    builder.addTransition(PAUSED, IDLE);
+    builder.addTransition(PAUSED, PRINTING);
+    builder.addTransition(PAUSED, RESENDING);
+    builder.addTransition(PAUSED, OFFLINE);
+    builder.addTransition(PAUSED, ERROR);
+
+    builder.addTransition(RESENDING, IDLE);
+    builder.addTransition(RESENDING, PRINTING);
+    builder.addTransition(RESENDING, PAUSED);
+    builder.addTransition(RESENDING, OFFLINE);
+    builder.addTransition(RESENDING, ERROR);
+
+    return builder.build();
+  }
+
+  /**
+   * @return The number of commands that may initially be in flight
+   */
+
+  private static int initialCommandLimit(
+    final ISSerialPrinterFlowControl flowControl)
+  {
+    switch (flowControl) {
+      case PING_PONG:
+      case ADVANCED_OK:
+        return 1;
+      case CHARACTER_COUNTING:
+        return Integer.MAX_VALUE;
+    }
+    throw new UnreachableCodeException();
   }
 
   private static boolean isOKResponse(
-    final String line)
+    final CharSequence line)
   {
-    return OK_ANY_PATTERN.matcher(line).matches();
+    return startsWithIgnoreCase(line, "OK");
   }
 
   private static boolean isErrorResponse(
-    final String line)
+    final CharSequence line)
   {
     return ISGCodeErrors.isError(line);
   }
 
+  private static boolean isINT4(
+    final CharSequence line)
+  {
+    return isEqualTo(line, "INT4");
+  }
+
   private static boolean isResendResponse(
-    final String line)
+    final CharSequence line)
   {
-    return RESEND_PATTERN.matcher(line).matches();
+    return startsWithIgnoreCase(line, "RS")
+      || startsWithIgnoreCase(line, "RESEND");
   }
 
-  private static boolean isINT4(
-    final String line)
+  /**
+   * Firmware built with {@code HOST_KEEPALIVE_FEATURE} periodically reports
+   * that it is still working on a long-running command, such as
+   * {@code echo:busy: processing} or {@code busy: paused for user}.
+   */
+
+  private static boolean isBusy(
+    final CharSequence line)
+  {
+    return startsWithIgnoreCase(line, "echo:busy:")
+      || startsWithIgnoreCase(line, "busy:");
+  }
+
+  /**
+   * @return {@code true} if a keepalive says that the firmware is waiting
+   * for the user, such as {@code echo:busy: paused for user}
+   */
+
+  private static boolean isBusyPaused(
+    final CharSequence line)
   {
-    return Objects.equals(line, "INT4");
+    var offset = startsWithIgnoreCase(line, "echo:")
+      ? "echo:busy:".length()
+      : "busy:".length();
+    while (offset < line.length() && line.charAt(offset) == ' ') {
+      ++offset;
+    }
+    return startsWithIgnoreCase(line, offset, "paused for");
+  }
+
+  /**
+   * Firmware built with {@code HOST_ACTION_COMMANDS} asks the host to act
+   * on its behalf with lines such as {@code //action:pause}.
+   */
+
+  private static boolean isHostAction(
+    final CharSequence line)
+  {
+    return startsWith(line, HOST_ACTION);
+  }
+
+  /**
+   * Temperature reports that are not part of an acknowledgement, such as
+   * those produced by {@code M155}, begin with the hotend temperature.
+   */
+
+  private static boolean isTemperatureReport(
+    final CharSequence line)
+  {
+    var offset = 0;
+    while (offset < line.length() && line.charAt(offset) == ' ') {
+      ++offset;
+    }
+    return startsWithIgnoreCase(line, offset, "T:");
+  }
+
+  /**
+   * Temperature reports are the only part of an acknowledgement that the
+   * temperature parser understands, and they always contain a colon. Plain
+   * acknowledgements are therefore never converted to strings.
+   */
+
+  private static boolean hasTemperatures(
+    final CharSequence line)
+  {
+    return indexOf(line, ':') >= 0;
   }
 
   @Override
@@ -143,91 +385,429 @@ public final class ISSerialPrinterEngine implements Runnable
   {
     LOG.debug("starting");
 
-    try {
-      while (this.isStillRunning()) {
-        this.runOffline();
-
-        if (!this.isStillRunning()) {
-          break;
-        }
+    this.waiter = Thread.currentThread();
+    this.portSignalsReadable = this.port.setReadableListener(this::wakeup);
 
-        try {
-          this.runOnline();
-        } catch (final PrinterWentOffline ex) {
-          // Continue...
+    try {
+      while (this.isStillRunning() && this.state != ERROR) {
+        if (this.portSignalsReadable) {
+          if (!this.stepState(false)) {
+            this.park(this.timeoutFor(this.state));
+          }
+        } else {
+          this.stepState(true);
         }
       }
     } catch (final Throwable e) {
-      LOG.error("fatal error: ", e);
-      this.events.onNext(ISPrinterEventFatalError.of(this.now(), e));
-      this.wentOffline();
+      this.onFatalError(e);
     } finally {
       LOG.debug("finished");
     }
   }
 
+  /**
+   * Prepare the engine to be driven using {@link #step()}. New commands
+   * call the given function to wake whichever thread is driving the engine.
+   * Lines arriving at the port either call the function too, if the port
+   * can report when lines are available, or make the port's
+   * {@link #selectableChannel()} readable. An engine whose port can do
+   * neither cannot be driven in this way, and must be driven by
+   * {@link #run()} instead.
+   *
+   * @param function The function that wakes the driving thread
+   *
+   * @return {@code false} if the engine must be driven by {@link #run()}
+   */
+
+  public boolean attach(
+    final Runnable function)
+  {
+    Objects.requireNonNull(function, "function");
+
+    this.portSignalsReadable = this.port.setReadableListener(this::wakeup);
+    if (!this.portSignalsReadable
+      && this.port.selectableChannel().isEmpty()) {
+      return false;
+    }
+    this.waker = function;
+    return true;
+  }
+
+  /**
+   * @return The channel that becomes readable when lines arrive at the port,
+   * if the port has one
+   *
+   * @see ISSerialPortType#selectableChannel()
+   */
+
+  public Optional<SelectableChannel> selectableChannel()
+  {
+    return this.port.selectableChannel();
+  }
+
+  /**
+   * @return {@code true} if the last call to {@link #step()} looked for a
+   * line from the port and found none, and so the engine should be stepped
+   * again when the port becomes readable
+   */
+
+  public boolean isWaitingForPort()
+  {
+    return this.waitingForPort;
+  }
+
+  /**
+   * @return The time in nanoseconds until the timeout of the current state
+   * expires, and therefore the longest time that a thread driving the
+   * engine with {@link #step()} may wait without being woken
+   */
+
+  public long waitNanos()
+  {
+    if (this.isFinished()) {
+      return 0L;
+    }
+    return this.timeoutFor(this.state).remainingNanos();
+  }
+
+  /**
+   * Perform a single iteration of the engine without waiting for the port
+   * or the command queue. This is used when many engines share a single
+   * thread, in place of {@link #run()}.
+   *
+   * @return {@code true} if anything was sent or received
+   */
+
+  public boolean step()
+  {
+    this.waitingForPort = false;
+    if (this.isFinished()) {
+      return false;
+    }
+
+    try {
+      return this.stepState(false);
+    } catch (final Throwable e) {
+      this.onFatalError(e);
+      LOG.debug("finished");
+      return false;
+    }
+  }
+
+  /**
+   * @return {@code true} if the engine has been closed or has failed
+   */
+
+  public boolean isFinished()
+  {
+    return this.state == ERROR || !this.isStillRunning();
+  }
+
+  /**
+   * Perform a single iteration of whichever state the engine is in.
+   *
+   * @param wait {@code true} if the command queue and port reads may wait
+   *
+   * @return {@code true} if anything was sent or received
+   */
+
+  private boolean stepState(
+    final boolean wait)
+    throws IOException
+  {
+    switch (this.state) {
+      case OFFLINE:
+        return this.stepOffline(wait);
+      case HANDSHAKING:
+      case IDLE:
+      case PRINTING:
+      case PAUSED:
+      case RESENDING:
+        return this.stepOnline(wait);
+      case ERROR:
+        return false;
+    }
+    throw new UnreachableCodeException();
+  }
+
+  private ISTimeOut timeoutFor(
+    final ISPrinterState current)
+  {
+    if (current == OFFLINE) {
+      return this.offlineTimeout;
+    }
+    return this.onlineTimeout;
+  }
+
+  private void onFatalError(
+    final Throwable e)
+  {
+    LOG.error("fatal error: ", e);
+    final var time = this.now();
+    this.events.publish(ISPrinterEventFatalError.of(time, e));
+    this.resetConnection();
+    this.transition(ERROR, time);
+  }
+
+  /**
+   * Move to the given state, publishing a single event that describes the
+   * transition. Going online or offline additionally publishes an
+   * {@link ISPrinterEventOnlineStateChanged} event. The state machine
+   * rejects transitions that are not in the transition table.
+   */
+
+  private void transition(
+    final ISPrinterState next,
+    final OffsetDateTime time)
+  {
+    final var previous = this.states.current();
+    if (previous == next) {
+      return;
+    }
+
+    LOG.debug("state {} -> {}", previous, next);
+    this.states.transition(next);
+    this.state = next;
+    this.events.publish(ISPrinterEventStateChanged.of(time, previous, next));
+
+    final var nowOnline = next.isOnline();
+    if (previous.isOnline() != nowOnline) {
+      this.events.publish(
+        ISPrinterEventOnlineStateChanged.of(time, nowOnline)
+      );
+    }
+  }
+
+  /**
+   * Determine which online state the engine is in. This is evaluated after
+   * every online step, and so only examines fields that are already to hand.
+   */
+
+  private ISPrinterState onlineState()
+  {
+    if (this.handshakeCommand != null) {
+      return HANDSHAKING;
+    }
+    if (this.isPaused()) {
+      return PAUSED;
+    }
+    if (this.resendRequested) {
+      return RESENDING;
+    }
+
+    final var oldest = this.window.oldest();
+    if (oldest == null) {
+      return IDLE;
+    }
+    if (oldest.sendAttempts() > 1 || oldest.wasAcknowledgedPreviously()) {
+      return RESENDING;
+    }
+    if (oldest.command() == this.temperaturePoll && this.window.size() == 1) {
+      return IDLE;
+    }
+    return PRINTING;
+  }
+
   private boolean isStillRunning()
   {
     return !this.stopped.get();
   }
 
-  private void runOffline()
+  /**
+   * Wake the thread driving the engine if it is waiting for a command, for
+   * a line from the port, or for a timeout.
+   */
+
+  private void wakeup()
+  {
+    final var function = this.waker;
+    if (function != null) {
+      function.run();
+      return;
+    }
+
+    final var thread = this.waiter;
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  /**
+   * Wait until woken, or until the given timeout would expire.
+   */
+
+  private void park(
+    final ISTimeOut timeout)
+  {
+    if (this.isStillRunning()) {
+      LockSupport.parkNanos(this, timeout.remainingNanos());
+    }
+  }
+
+  private CharSequence readLine(
+    final boolean wait)
     throws IOException
   {
-    while (this.isStillRunning()) {
-      if (this.offlineTimeout.isTimedOut()) {
-        this.port.writeLine(TEMPERATURE_COMMAND.text());
-      }
+    if (wait) {
+      return this.port.readLineView();
+    }
 
-      final var line = this.port.readLine();
-      if (line == null) {
-        continue;
-      }
+    final var line = this.port.pollLineView();
+    this.waitingForPort = line == null;
+    return line;
+  }
 
-      if (isINT4(line)) {
-        this.onReceivedINT4();
-        continue;
+  /**
+   * Wait for the printer to say anything at all.
+   *
+   * @param wait {@code true} if the port read may wait
+   *
+   * @return {@code true} if a line was received
+   */
+
+  private boolean stepOffline(
+    final boolean wait)
+    throws IOException
+  {
+    while (true) {
+      final var command = this.emergencyQueue.poll();
+      if (command == null) {
+        break;
       }
+      LOG.debug("emergency command executing offline: {}", command.show());
+      this.port.writeLine(command.text());
+    }
 
-      this.timeLastReceived = this.now();
-      this.wentOnline();
-      this.enqueueFirmwareVersionCommand();
-      this.enqueueTemperatureCommand();
-      break;
+    if (this.offlineTimeout.isTimedOut()) {
+      this.port.writeLine(TEMPERATURE_COMMAND.text());
+    }
+
+    final var line = this.readLine(wait);
+    if (line == null) {
+      return false;
+    }
+
+    if (isINT4(line)) {
+      this.onReceivedINT4();
+      return true;
     }
+
+    this.timeLastReceived = this.now();
+    this.wentOnline();
+    return true;
   }
 
-  private PrinterWentOffline onReceivedINT4()
+  private void onReceivedINT4()
   {
     LOG.debug("received INT4");
-    return this.wentOffline();
+    this.wentOffline();
   }
 
-  private void runOnline()
-    throws PrinterWentOffline, IOException
+  private ISPrinterCommandGCode pollCommand(
+    final boolean wait)
   {
-    while (this.isStillRunning()) {
-      ISPrinterCommandGCode command = null;
-      try {
-        command = this.commandQueue.poll(10L, TimeUnit.MILLISECONDS);
-      } catch (final InterruptedException e) {
-        Thread.currentThread().interrupt();
-      }
+    final var command = this.commandQueue.poll();
+    if (command != null || !wait) {
+      return command;
+    }
 
-      if (command != null) {
-        this.onlineTimeout.reset();
-        this.runOnlineCommand(command);
-        continue;
+    this.park(this.onlineTimeout);
+    return this.commandQueue.poll();
+  }
+
+  /**
+   * Perform a single online step, and then move to whichever online state
+   * the step left the engine in. The step may instead have taken the
+   * printer offline.
+   *
+   * @param wait {@code true} if the command queue and port reads may wait
+   *
+   * @return {@code true} if anything was sent or received
+   */
+
+  private boolean stepOnline(
+    final boolean wait)
+    throws IOException
+  {
+    final var progress = this.stepOnlineProtocol(wait);
+    final var current = this.state;
+    if (current.isOnline()) {
+      final var next = this.onlineState();
+      if (next != current) {
+        this.transition(next, this.now());
       }
+    }
+    return progress;
+  }
 
-      if (this.onlineTimeout.isTimedOut()) {
-        LOG.debug(
-          "no commands sent in the last {}, sending temperature command",
-          this.onlineTimeout.duration()
-        );
-        this.enqueueTemperatureCommand();
+  /**
+   * Send any commands that fit into the send window, and then process at
+   * most one response. No new commands are sent while the firmware is
+   * paused.
+   *
+   * @param wait {@code true} if the command queue and port reads may wait
+   *
+   * @return {@code true} if anything was sent or received
+   */
+
+  private boolean stepOnlineProtocol(
+    final boolean wait)
+    throws IOException
+  {
+    if (!this.emergencyQueue.isEmpty()) {
+      this.runOnlineEmergency();
+    }
+    if (this.queue.takeResumeRequest()) {
+      this.onResumeRequested();
+    }
+
+    final var paused = this.isPaused();
+    if (this.window.isEmpty()) {
+      final var command =
+        paused ? null : this.pollCommand(wait && !this.autoReportTemperatures);
+      if (command == null) {
+        final var receiveIdle = this.autoReportTemperatures || paused;
+        if (receiveIdle && this.runOnlineReceiveIdle(wait)) {
+          return true;
+        }
+        if (this.onlineTimeout.isTimedOut()) {
+          LOG.debug(
+            "nothing sent or received in the last {}, sending temperature command",
+            this.onlineTimeout.duration()
+          );
+          if (paused) {
+            this.runOnlineTemperaturePoll();
+          } else {
+            this.temperaturePoll = this.enqueueTemperatureCommand();
+          }
+        }
+        return false;
       }
+
+      this.runOnlineCommand(command);
     }
+
+    if (!paused) {
+      this.runOnlineSendAhead();
+    }
+    final var sent = !this.batch.isEmpty();
+    this.sendBatch();
+    return this.runOnlineReceive(wait) || sent;
+  }
+
+  /**
+   * Poll the temperature while paused. The command queue is held while
+   * paused, so the poll is sent directly in the same manner as an emergency
+   * command. This also ensures that a printer that disappears while paused
+   * is noticed.
+   */
+
+  private void runOnlineTemperaturePoll()
+    throws IOException
+  {
+    this.temperaturePoll = TEMPERATURE_COMMAND;
+    this.batch.add(this.window.add(TEMPERATURE_COMMAND));
+    this.sendBatch();
   }
 
   private ISPrinterCommandGCode enqueueTemperatureCommand()
@@ -240,74 +820,531 @@ public final class ISSerialPrinterEngine implements Runnable
     return this.queue.enqueueCompile("M115");
   }
 
+  /**
+   * The firmware has finished describing its capabilities. Enable any
+   * protocol features that the firmware supports.
+   */
+
+  private void onFirmwareCapabilities(
+    final ISPrinterFirmwareCapabilities newCapabilities)
+  {
+    LOG.debug("firmware capabilities: {}", newCapabilities);
+    this.capabilities = newCapabilities;
+    this.events.publish(
+      ISPrinterEventFirmwareCapabilitiesChanged.of(this.now(), newCapabilities)
+    );
+
+    if (!this.configuration.negotiateCapabilities()) {
+      return;
+    }
+
+    if (newCapabilities.supports(ISPrinterFirmwareCapabilities.ADVANCED_OK)
+      && this.flowControl == PING_PONG) {
+      LOG.debug("switching to advanced ok flow control");
+      this.flowControl = ADVANCED_OK;
+    }
+
+    if (newCapabilities.supports(ISPrinterFirmwareCapabilities.AUTOREPORT_TEMP)) {
+      this.enableTemperatureReports();
+    }
+  }
+
+  /**
+   * The firmware can report temperatures by itself, so ask it to do so
+   * rather than polling it. Polling continues only if the reports stop
+   * arriving.
+   */
+
+  private void enableTemperatureReports()
+  {
+    final var seconds =
+      this.configuration.temperatureReportInterval().toSeconds();
+
+    if (seconds == 0L || this.autoReportTemperatures) {
+      return;
+    }
+
+    LOG.debug("enabling temperature reports every {}s", Long.valueOf(seconds));
+    final var command = this.queue.enqueueCompile("M155 S" + seconds);
+    this.autoReportTemperatures = true;
+
+    /*
+     * Reports enabled during the handshake are part of the handshake.
+     */
+
+    if (this.handshakeCommand != null) {
+      this.handshakeCommand = command;
+    }
+  }
+
+  private void onTemperatureReport(
+    final CharSequence line)
+  {
+    this.temperatureParser.parse(line.toString().trim())
+      .ifPresent(this::onTemperature);
+  }
+
+  /**
+   * Send all emergency commands immediately, regardless of the space in the
+   * send window. The firmware still acknowledges emergency commands in the
+   * order in which they arrive, so they are placed at the end of the window
+   * like any other command.
+   */
+
+  private void runOnlineEmergency()
+    throws IOException
+  {
+    while (true) {
+      final var command = this.emergencyQueue.poll();
+      if (command == null) {
+        break;
+      }
+      LOG.debug("emergency command executing: {}", command.show());
+      this.batch.add(this.window.add(command));
+    }
+    this.sendBatch();
+  }
+
+  /**
+   * Send as many queued commands as will fit into the send window without
+   * waiting for acknowledgements.
+   */
+
+  private void runOnlineSendAhead()
+    throws IOException
+  {
+    while (this.isStillRunning()) {
+      final var next = this.commandQueue.peek();
+      if (next == null || !this.window.hasRoomFor(next)) {
+        return;
+      }
+      this.runOnlineCommand(this.commandQueue.remove());
+    }
+  }
+
   private void runOnlineCommand(
     final ISPrinterCommandGCode command)
-    throws PrinterWentOffline, IOException
+    throws IOException
   {
     LOG.debug("command executing: {}", command.show());
+    this.history.record(command);
+    this.batch.add(this.window.add(command));
+  }
 
-    for (int sendAttempt = 0; sendAttempt < 30; ++sendAttempt) {
-      if (!this.isStillRunning()) {
-        return;
+  /**
+   * Send all of the commands that have been added to the current batch
+   * with a single write.
+   */
+
+  private void sendBatch()
+    throws IOException
+  {
+    if (this.batch.isEmpty()) {
+      return;
+    }
+
+    this.batchTexts.clear();
+    for (final var entry : this.batch) {
+      this.batchTexts.add(entry.command().text());
+    }
+
+    try {
+      this.port.writeLines(this.batchTexts);
+    } finally {
+      this.batchTexts.clear();
+    }
+
+    final var time = this.nanoTime.getAsLong();
+    for (final var entry : this.batch) {
+      LOG.debug(
+        "command send attempt {}",
+        Integer.valueOf(entry.sendAttempts()));
+      entry.onSent(time);
+    }
+    this.batch.clear();
+    this.onlineTimeout.reset();
+    this.updateOnlineTimeout();
+  }
+
+  /**
+   * The printer is given as long as the oldest command in flight is expected
+   * to take to be acknowledged, or the minimum response timeout if nothing
+   * is in flight.
+   */
+
+  private void updateOnlineTimeout()
+  {
+    final var oldest = this.window.oldest();
+    if (oldest == null) {
+      this.onlineTimeout.setDurationNanos(this.commandTimeouts.minimumNanos());
+    } else {
+      this.onlineTimeout.setDurationNanos(
+        this.commandTimeouts.timeoutNanos(oldest.kind()));
+    }
+  }
+
+  /**
+   * Record the round-trip time of an acknowledged command. Commands that
+   * were sent more than once are ignored, as it cannot be known which send
+   * was acknowledged.
+   */
+
+  private void recordRoundTrip(
+    final ISGCodeSendWindow.Entry entry)
+  {
+    if (entry.sendAttempts() == 1 && !entry.wasAcknowledgedPreviously()) {
+      this.commandTimeouts.record(
+        entry.kind(),
+        this.nanoTime.getAsLong() - entry.timeSent()
+      );
+    }
+  }
+
+  /**
+   * Read and process a single response line. Responses are always attributed
+   * to the oldest unacknowledged command.
+   *
+   * @param wait {@code true} if the port read may wait
+   *
+   * @return {@code true} if a line was received
+   */
+
+  private boolean runOnlineReceive(
+    final boolean wait)
+    throws IOException
+  {
+    final var line = this.readLine(wait);
+    if (line == null) {
+      if (this.onlineTimeout.isTimedOut()) {
+        LOG.debug(
+          "nothing received in last {}; printer must be offline",
+          this.onlineTimeout.duration()
+        );
+        this.wentOffline();
+        return true;
       }
+      return false;
+    }
 
-      LOG.debug("command send attempt {}", Integer.valueOf(sendAttempt));
-      this.port.writeLine(command.text());
-      this.onlineTimeout.reset();
-
-      boolean needResend = false;
-      boolean failed = false;
-
-      while (this.isStillRunning()) {
-        final var line = this.port.readLine();
-        if (line == null) {
-          if (this.onlineTimeout.isTimedOut()) {
-            LOG.debug(
-              "nothing received in last {}; printer must be offline",
-              this.onlineTimeout.duration()
-            );
-            throw this.wentOffline();
-          }
-          continue;
-        }
+    if (isINT4(line)) {
+      this.onReceivedINT4();
+      return true;
+    }
 
-        if (isINT4(line)) {
-          throw this.onReceivedINT4();
-        }
+    this.onlineTimeout.reset();
 
-        this.onlineTimeout.reset();
+    final var oldest = this.window.oldest();
+    if (isResendResponse(line)) {
+      final var resend = RESEND_PATTERN.matcher(line);
+      if (resend.matches()) {
+        this.onResendResponse(oldest, Integer.parseInt(resend.group(2)));
+        return true;
+      }
+    }
 
-        if (isResendResponse(line)) {
-          LOG.debug("command {} must be resent", command.show());
-          this.queue.incrementResends();
-          needResend = true;
-          continue;
-        }
+    if (isErrorResponse(line)) {
+      this.onDeferredError(oldest);
 
-        if (isErrorResponse(line)) {
-          failed = true;
-          this.handleErrorResponse(command, line);
-          continue;
-        }
+      /*
+       * The printer reports an error before each repeated request to resend
+       * a line. The error cannot be attributed until it is known whether the
+       * request that follows it is one that will be ignored.
+       */
 
-        if (isOKResponse(line)) {
-          this.temperatureParser.parseOK(line).ifPresent(this::onTemperature);
-          if (!needResend) {
-            LOG.debug("command {} done", command.show());
-            if (!failed) {
-              this.events.onNext(
-                ISPrinterEventCommandSucceeded.of(this.now(), command)
-              );
-            }
-            return;
-          }
-          break;
-        }
+      if (this.resendIgnoreCount > 0 && ISGCodeErrors.isLineError(line)) {
+        this.resendDeferredError = line.toString();
+        return true;
+      }
+
+      oldest.setFailed();
+      this.handleErrorResponse(oldest.command(), line.toString());
+      return true;
+    }
+
+    if (isOKResponse(line)) {
+      this.onDeferredError(oldest);
+      if (this.capabilitiesParser.isPending()) {
+        this.onFirmwareCapabilities(this.capabilitiesParser.finish());
       }
+      this.onOKResponse(oldest, line);
+      return true;
     }
 
-    LOG.error("command {} could not be re-sent", command.show());
-    throw new IOException("Command resubmission failure");
+    this.onUnsolicitedLine(line);
+    return true;
+  }
+
+  /**
+   * Read and process a single line while no commands are outstanding. Only
+   * unsolicited lines such as temperature reports can arrive here.
+   *
+   * @param wait {@code true} if the port read may wait
+   *
+   * @return {@code true} if a line was received
+   */
+
+  private boolean runOnlineReceiveIdle(
+    final boolean wait)
+    throws IOException
+  {
+    final var line = this.readLine(wait);
+    if (line == null) {
+      return false;
+    }
+
+    if (isINT4(line)) {
+      this.onReceivedINT4();
+      return true;
+    }
+
+    this.onlineTimeout.reset();
+    this.onUnsolicitedLine(line);
+    return true;
+  }
+
+  private void onUnsolicitedLine(
+    final CharSequence line)
+  {
+    if (isBusy(line)) {
+      LOG.trace("printer is busy");
+      this.pausedForUser = isBusyPaused(line);
+      return;
+    }
+    if (isHostAction(line)) {
+      this.onHostAction(line);
+      return;
+    }
+    if (isTemperatureReport(line)) {
+      this.onTemperatureReport(line);
+      return;
+    }
+    this.capabilitiesParser.accept(line);
+  }
+
+  /**
+   * The firmware either tells the host that it has paused
+   * ({@code //action:paused}) and later that it has resumed
+   * ({@code //action:resumed}), or asks the host to pause
+   * ({@code //action:pause}). The firmware only occasionally follows a
+   * request to pause with a request to resume ({@code //action:resume}),
+   * so a paused request may also be ended by the host through
+   * {@link ISGCodeCommandQueue#resume()}. Either way, the host stops
+   * sending while paused. Other actions are not acted upon.
+   */
+
+  private void onHostAction(
+    final CharSequence line)
+  {
+    final var offset = HOST_ACTION.length();
+    if (startsWithIgnoreCase(line, offset, "paused")) {
+      LOG.debug("firmware paused");
+      this.pausedByFirmware = true;
+      return;
+    }
+    if (startsWithIgnoreCase(line, offset, "resumed")) {
+      LOG.debug("firmware resumed");
+      this.pausedByFirmware = false;
+      return;
+    }
+    if (startsWithIgnoreCase(line, offset, "pause")) {
+      LOG.debug("firmware requested pause");
+      this.pausedByRequest = true;
+      return;
+    }
+    if (startsWithIgnoreCase(line, offset, "resume")) {
+      LOG.debug("firmware requested resume");
+      this.pausedByRequest = false;
+    }
+  }
+
+  /**
+   * The host asked to resume. Both a request to pause and a report that
+   * the firmware has paused are cleared, as the firmware may never report
+   * that it has resumed.
+   */
+
+  private void onResumeRequested()
+  {
+    if (this.pausedByRequest || this.pausedByFirmware) {
+      LOG.debug("host resumed");
+    }
+    this.pausedByRequest = false;
+    this.pausedByFirmware = false;
+  }
+
+  private boolean isPaused()
+  {
+    return this.pausedByFirmware
+      || this.pausedByRequest
+      || this.pausedForUser;
+  }
+
+  private void onResendResponse(
+    final ISGCodeSendWindow.Entry oldest,
+    final int lineNumber)
+  {
+    if (this.resendIgnoreCount > 0 && this.resendIgnoreLine == lineNumber) {
+      LOG.debug("ignoring repeated request to resend line {}", lineNumber);
+      --this.resendIgnoreCount;
+      this.resendIgnoreOK = true;
+      this.resendDeferredError = null;
+      return;
+    }
+
+    this.onDeferredError(oldest);
+
+    LOG.debug(
+      "command {} must be resent (from line {})",
+      oldest.command().show(),
+      Integer.valueOf(lineNumber)
+    );
+    this.queue.incrementResends();
+    this.resendRequested = true;
+    this.resendLine = lineNumber;
+  }
+
+  /**
+   * An error that was held back because it might have preceded a repeated
+   * request to resend a line turned out not to. Attribute it as usual.
+   */
+
+  private void onDeferredError(
+    final ISGCodeSendWindow.Entry oldest)
+  {
+    final var error = this.resendDeferredError;
+    if (error != null) {
+      this.resendDeferredError = null;
+      oldest.setFailed();
+      this.handleErrorResponse(oldest.command(), error);
+    }
+  }
+
+  private void onOKResponse(
+    final ISGCodeSendWindow.Entry oldest,
+    final CharSequence line)
+    throws IOException
+  {
+    this.pausedForUser = false;
+
+    if (hasTemperatures(line)) {
+      this.temperatureParser.parseOK(line.toString())
+        .ifPresent(this::onTemperature);
+    }
+    final var advanced = this.advancedOKParser.parse(line);
+
+    if (this.resendIgnoreOK) {
+      this.resendIgnoreOK = false;
+      return;
+    }
+
+    if (this.resendRequested) {
+      this.resendRequested = false;
+      advanced.ifPresent(this::onAdvancedOK);
+      this.resendFrom(this.resendLine);
+      return;
+    }
+
+    this.window.removeOldest();
+    this.recordRoundTrip(oldest);
+    advanced.ifPresent(this::onAdvancedOK);
+    this.onCommandDone(oldest);
+  }
+
+  private void onCommandDone(
+    final ISGCodeSendWindow.Entry entry)
+  {
+    final var command = entry.command();
+    LOG.debug("command {} done", command.show());
+    if (command == this.handshakeCommand) {
+      this.handshakeCommand = null;
+    }
+    if (command == this.temperaturePoll) {
+      this.temperaturePoll = null;
+    }
+    this.updateOnlineTimeout();
+    if (!entry.isFailed() && !entry.wasAcknowledgedPreviously()) {
+      this.events.publish(
+        ISPrinterEventCommandSucceeded.of(this.now(), command)
+      );
+    }
+  }
+
+  /**
+   * The firmware reported the number of free command buffer slots. The
+   * commands that are still in flight will occupy slots when they arrive,
+   * so the window may grow to the current number of in-flight commands
+   * plus the number of free slots.
+   */
+
+  private void onAdvancedOK(
+    final ISAdvancedOK report)
+  {
+    LOG.trace("advanced ok: {}", report);
+    if (this.flowControl == ADVANCED_OK) {
+      this.window.setCommandLimit(this.window.size() + report.bufferFree());
+    }
+  }
+
+  /**
+   * The printer discards everything after the line that it asked to be
+   * resent, so every command from that line onwards is sent again in order.
+   * Commands in the window that precede the requested line were evidently
+   * received. Commands from the requested line that have already been
+   * acknowledged are fetched from the history and placed back into the
+   * window ahead of everything else.
+   *
+   * @param lineNumber The line number requested by the printer
+   */
+
+  private void resendFrom(
+    final int lineNumber)
+    throws IOException
+  {
+    while (!this.window.isEmpty()) {
+      final var entryLine = this.window.oldest().command().lineNumber();
+      if (entryLine.isPresent() && entryLine.getAsInt() < lineNumber) {
+        this.onCommandDone(this.window.removeOldest());
+        continue;
+      }
+      break;
+    }
+
+    final var lineEnd =
+      this.window.oldestLineNumber().orElse(this.history.lineNext());
+
+    if (lineNumber < lineEnd) {
+      final var commands =
+        this.history.range(lineNumber, lineEnd)
+          .orElseThrow(() -> {
+            LOG.error("line {} is not in the history", lineNumber);
+            return new IOException("Command resubmission failure");
+          });
+      this.window.prepend(commands);
+    }
+
+    if (this.window.isEmpty()) {
+      return;
+    }
+
+    final var oldest = this.window.oldest();
+    if (oldest.sendAttempts() >= SEND_ATTEMPTS_MAX) {
+      LOG.error("command {} could not be re-sent", oldest.command().show());
+      throw new IOException("Command resubmission failure");
+    }
+
+    /*
+     * Any lines that were still in transit when the printer discarded its
+     * receive buffer will each provoke another request to resend the same
+     * line. Those requests are ignored.
+     */
+
+    this.resendIgnoreLine = lineNumber;
+    this.resendIgnoreCount = this.window.size() - 1;
+
+    for (final var entry : this.window.entries()) {
+      this.batch.add(entry);
+    }
+    this.sendBatch();
   }
 
   private OffsetDateTime now()
@@ -320,7 +1357,7 @@ public final class ISSerialPrinterEngine implements Runnable
     final String line)
   {
     this.queue.incrementErrors();
-    this.events.onNext(
+    this.events.publish(
       ISPrinterEventCommandFailed.of(this.now(), command, line)
     );
   }
@@ -328,46 +1365,92 @@ public final class ISSerialPrinterEngine implements Runnable
   private void onTemperature(
     final ISPrinterTemperatures temperatures)
   {
-    this.events.onNext(
+    this.events.publish(
       ISPrinterEventTemperaturesChanged.of(this.now(), temperatures)
     );
   }
 
+  /**
+   * The printer said something, and so the firmware is asked to describe
+   * itself. The handshake ends when the firmware has acknowledged the
+   * request.
+   */
+
   private void wentOnline()
   {
     LOG.debug("printer came online");
-    this.online.set(true);
-    this.events.onNext(
-      ISPrinterEventOnlineStateChanged.of(this.timeLastReceived, true)
-    );
+    this.transition(HANDSHAKING, this.timeLastReceived);
+    this.handshakeCommand = this.enqueueFirmwareVersionCommand();
+    this.temperaturePoll = this.enqueueTemperatureCommand();
   }
 
-  private PrinterWentOffline wentOffline()
+  private void wentOffline()
   {
     LOG.debug("printer went offline");
+    this.resetConnection();
+    this.transition(OFFLINE, this.now());
+  }
+
+  private void resetConnection()
+  {
     this.queue.reset();
-    this.online.set(false);
-    this.events.onNext(
-      ISPrinterEventOnlineStateChanged.of(this.now(), false)
-    );
-    return new PrinterWentOffline();
+    this.window.clear();
+    this.flowControl = this.configuration.flowControl();
+    this.window.setCommandLimit(initialCommandLimit(this.flowControl));
+    this.updateOnlineTimeout();
+    this.history.clear();
+    this.batch.clear();
+    this.resendRequested = false;
+    this.resendIgnoreCount = 0;
+    this.resendIgnoreOK = false;
+    this.resendDeferredError = null;
+    this.autoReportTemperatures = false;
+    this.capabilitiesParser.reset();
+    this.capabilities = NO_CAPABILITIES;
+    this.handshakeCommand = null;
+    this.temperaturePoll = null;
+    this.pausedByFirmware = false;
+    this.pausedByRequest = false;
+    this.pausedForUser = false;
+    this.queue.takeResumeRequest();
   }
 
   public void close()
   {
     if (this.stopped.compareAndSet(false, true)) {
-      this.events.onComplete();
+      this.events.complete();
+      this.wakeup();
     }
   }
 
   public Observable<ISPrinterEventType> events()
   {
-    return this.events;
+    return this.events.events();
+  }
+
+  /**
+   * @return The number of events dropped because the dispatcher had
+   * fallen behind
+   */
+
+  public long eventsDropped()
+  {
+    return this.events.dropped();
   }
 
   public boolean isOnline()
   {
-    return this.online.get();
+    return this.state.isOnline();
+  }
+
+  public ISPrinterState state()
+  {
+    return this.state;
+  }
+
+  public ISPrinterFirmwareCapabilities firmwareCapabilities()
+  {
+    return this.capabilities;
   }
 
   public <T extends ISPrinterCommandQueueType> T commandQueue(
@@ -387,12 +1470,4 @@ public final class ISSerialPrinterEngine implements Runnable
       )
     );
   }
-
-  private static final class PrinterWentOffline extends Exception
-  {
-    PrinterWentOffline()
-    {
-
-    }
-  }
 }
@@ -0,0 +1,368 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.printer.vanilla.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of threads that drive many printer engines.
+ *
+ * Each engine is assigned to the least loaded thread, and each thread
+ * repeatedly steps all of its engines without blocking. Each thread owns a
+ * selector, and registers the selectable channel of each of its engines'
+ * ports with it. A thread that makes no progress waits in its selector
+ * until one of its engines is given a command, until a line arrives at the
+ * port of one of its engines, or until the earliest timeout of any of its
+ * engines expires.
+ *
+ * A socket port is selected directly, and so a printer on a socket costs
+ * no threads of its own. A plain serial port still requires its own
+ * thread to perform blocking reads from the device, but its pipe is
+ * selected by the loop. Ports that instead report when lines are available
+ * (such as {@link com.io7m.ironstrata.serialport.api.ISSerialPortReadAhead})
+ * wake the selector directly. Engines whose ports can do neither are not
+ * driven by the loop.
+ */
+
+public final class ISSerialPrinterEventLoop implements AutoCloseable
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(ISSerialPrinterEventLoop.class);
+
+  private final Worker[] workers;
+  private final AtomicBoolean closed;
+
+  /**
+   * Create an event loop.
+   *
+   * @param threads The number of threads
+   */
+
+  public ISSerialPrinterEventLoop(
+    final int threads)
+  {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("Thread count must be positive");
+    }
+
+    this.closed = new AtomicBoolean(false);
+    this.workers = new Worker[threads];
+    for (int index = 0; index < threads; ++index) {
+      this.workers[index] = new Worker(this.closed);
+    }
+  }
+
+  /**
+   * Start driving the given engine. The engine is dropped from the loop
+   * once it has been closed or has failed.
+   *
+   * @param engine The engine
+   *
+   * @return {@code false} if the engine's port can neither report when
+   * lines are available nor be selected, in which case the engine is not
+   * driven by the loop
+   *
+   * @see ISSerialPrinterEngine#attach(Runnable)
+   */
+
+  public boolean register(
+    final ISSerialPrinterEngine engine)
+  {
+    Objects.requireNonNull(engine, "engine");
+
+    synchronized (this.workers) {
+      if (this.closed.get()) {
+        throw new IllegalStateException("Event loop is closed");
+      }
+
+      var selected = this.workers[0];
+      for (final var worker : this.workers) {
+        if (worker.load.get() < selected.load.get()) {
+          selected = worker;
+        }
+      }
+      return selected.register(engine);
+    }
+  }
+
+  /**
+   * Stop the loop. Any engines that the loop is still driving are closed,
+   * and this method returns once every thread (other than the calling
+   * thread) has finished.
+   */
+
+  @Override
+  public void close()
+  {
+    synchronized (this.workers) {
+      if (!this.closed.compareAndSet(false, true)) {
+        return;
+      }
+    }
+
+    for (final var worker : this.workers) {
+      worker.wakeup();
+    }
+
+    var interrupted = false;
+    for (final var worker : this.workers) {
+      if (worker.thread == Thread.currentThread()) {
+        continue;
+      }
+      while (true) {
+        try {
+          worker.thread.join();
+          break;
+        } catch (final InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static final class Worker implements Runnable
+  {
+    private final AtomicBoolean closed;
+    private final Thread thread;
+    private final Selector selector;
+    private final AtomicInteger load;
+    private final Queue<ISSerialPrinterEngine> incoming;
+    private final ArrayList<Entry> entries;
+
+    Worker(
+      final AtomicBoolean inClosed)
+    {
+      this.closed = inClosed;
+      this.load = new AtomicInteger(0);
+      this.incoming = new ConcurrentLinkedQueue<>();
+      this.entries = new ArrayList<>();
+
+      try {
+        this.selector = Selector.open();
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+
+      this.thread = new Thread(this);
+      this.thread.setName(String.format(
+        "com.io7m.ironstrata.printer.loop.%d",
+        Long.valueOf(this.thread.getId()))
+      );
+      this.thread.setDaemon(true);
+      this.thread.start();
+    }
+
+    boolean register(
+      final ISSerialPrinterEngine engine)
+    {
+      if (!engine.attach(this.selector::wakeup)) {
+        return false;
+      }
+
+      this.load.incrementAndGet();
+      this.incoming.add(engine);
+      this.selector.wakeup();
+      return true;
+    }
+
+    void wakeup()
+    {
+      this.selector.wakeup();
+    }
+
+    @Override
+    public void run()
+    {
+      try {
+        while (!this.closed.get()) {
+          while (true) {
+            final var engine = this.incoming.poll();
+            if (engine == null) {
+              break;
+            }
+            LOG.debug("engine added to {}", this.thread.getName());
+            this.entries.add(new Entry(engine));
+          }
+
+          if (this.entries.isEmpty()) {
+            this.select(0L);
+            continue;
+          }
+
+          if (!this.stepAll()) {
+            final var wait = this.waitNanos();
+            if (wait > 0L) {
+              this.select(wait);
+            }
+          }
+        }
+      } catch (final IOException e) {
+        LOG.error("select: ", e);
+      } finally {
+        this.closeAll();
+      }
+    }
+
+    /**
+     * Wait for the given number of nanoseconds, or indefinitely if the
+     * number is zero, or until a port becomes readable or the selector is
+     * woken.
+     */
+
+    private void select(
+      final long waitNanos)
+      throws IOException
+    {
+      final var waitMillis =
+        TimeUnit.NANOSECONDS.toMillis(
+          Math.min(waitNanos, Long.MAX_VALUE - 999_999L) + 999_999L);
+      this.selector.select(waitMillis);
+      this.selector.selectedKeys().clear();
+    }
+
+    private void closeAll()
+    {
+      while (true) {
+        final var engine = this.incoming.poll();
+        if (engine == null) {
+          break;
+        }
+        this.entries.add(new Entry(engine));
+      }
+
+      for (final var entry : this.entries) {
+        entry.engine.close();
+      }
+      this.entries.clear();
+      this.load.set(0);
+
+      try {
+        this.selector.close();
+      } catch (final IOException e) {
+        LOG.error("close: ", e);
+      }
+      LOG.debug("{} finished", this.thread.getName());
+    }
+
+    private long waitNanos()
+    {
+      var wait = Long.MAX_VALUE;
+      for (final var entry : this.entries) {
+        wait = Math.min(wait, entry.engine.waitNanos());
+      }
+      return wait;
+    }
+
+    private boolean stepAll()
+    {
+      var progress = false;
+      final var iterator = this.entries.iterator();
+      while (iterator.hasNext()) {
+        final var entry = iterator.next();
+        final var engine = entry.engine;
+        if (engine.isFinished()) {
+          LOG.debug("engine removed from {}", this.thread.getName());
+          entry.cancel();
+          iterator.remove();
+          this.load.decrementAndGet();
+          continue;
+        }
+        progress |= engine.step();
+        this.updateInterest(entry);
+      }
+      return progress;
+    }
+
+    /**
+     * Select the engine's port only if the engine is waiting for it. An
+     * engine that is not currently reading from its port (such as an idle
+     * engine) would otherwise cause the selector to return immediately
+     * for as long as any unread data remained in the port. The port may
+     * also have replaced or closed its channel since the last step.
+     */
+
+    private void updateInterest(
+      final Entry entry)
+    {
+      final var channelOpt = entry.engine.selectableChannel();
+      if (channelOpt.isEmpty()) {
+        entry.cancel();
+        return;
+      }
+
+      final var channel = channelOpt.get();
+      final var ops =
+        entry.engine.isWaitingForPort() ? SelectionKey.OP_READ : 0;
+
+      try {
+        final var key = entry.key;
+        if (key != null && key.isValid() && key.channel() == channel) {
+          if (key.interestOps() != ops) {
+            key.interestOps(ops);
+          }
+          return;
+        }
+
+        entry.cancel();
+        if (channel.isOpen()) {
+          entry.key = channel.register(this.selector, ops);
+        }
+      } catch (final CancelledKeyException | ClosedChannelException e) {
+        entry.key = null;
+      }
+    }
+  }
+
+  private static final class Entry
+  {
+    private final ISSerialPrinterEngine engine;
+    private SelectionKey key;
+
+    Entry(
+      final ISSerialPrinterEngine inEngine)
+    {
+      this.engine = inEngine;
+    }
+
+    void cancel()
+    {
+      final var existing = this.key;
+      if (existing != null) {
+        existing.cancel();
+        this.key = null;
+      }
+    }
+  }
+}
@@ -79,6 +79,10 @@ public final class ISTemperatureParser
       }
     }
 
+    if (temperatures.isEmpty()) {
+      return Optional.empty();
+    }
+
     return Optional.of(
       ISPrinterTemperatures.builder()
         .setTemperatures(temperatures)
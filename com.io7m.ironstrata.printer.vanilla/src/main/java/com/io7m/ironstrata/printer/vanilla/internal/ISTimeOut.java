@@ -16,51 +16,94 @@
 
 package com.io7m.ironstrata.printer.vanilla.internal;
 
-import java.time.Clock;
 import java.time.Duration;
-import java.time.OffsetDateTime;
 import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * A timer that expires when a given duration has passed since it was last
+ * reset. Time is read from a monotonic nanosecond source, so the timer is
+ * unaffected by changes to the wall clock, and checking the timer does not
+ * allocate.
+ */
 
 public final class ISTimeOut
 {
-  private final Clock clock;
-  private final Duration timeOutDuration;
-  private OffsetDateTime timeLast;
+  private final LongSupplier nanoTime;
+  private long timeOutNanos;
+  private boolean started;
+  private long timeLast;
 
   public ISTimeOut(
-    final Clock inClock,
+    final LongSupplier inNanoTime,
     final Duration inTimeOutDuration)
   {
-    this.clock =
-      Objects.requireNonNull(inClock, "clock");
-    this.timeOutDuration =
-      Objects.requireNonNull(inTimeOutDuration, "duration");
+    this.nanoTime =
+      Objects.requireNonNull(inNanoTime, "nanoTime");
+    this.timeOutNanos =
+      Objects.requireNonNull(inTimeOutDuration, "duration")
+        .toNanos();
+  }
+
+  /**
+   * Change the duration of the timer. The time at which the timer was last
+   * reset is unchanged.
+   *
+   * @param nanos The new duration in nanoseconds
+   */
+
+  public void setDurationNanos(
+    final long nanos)
+  {
+    if (nanos < 0L) {
+      throw new IllegalArgumentException("Duration must be non-negative");
+    }
+    this.timeOutNanos = nanos;
   }
 
   public void reset()
   {
-    this.timeLast = OffsetDateTime.now(this.clock);
+    this.timeLast = this.nanoTime.getAsLong();
+    this.started = true;
   }
 
   public boolean isTimedOut()
   {
-    final OffsetDateTime now = OffsetDateTime.now(this.clock);
-    final var last = this.timeLast;
-    if (last == null) {
+    final var now = this.nanoTime.getAsLong();
+    if (!this.started) {
       this.timeLast = now;
+      this.started = true;
       return true;
     }
 
-    final Duration currentDuration = Duration.between(this.timeLast, now);
-    if (currentDuration.compareTo(this.timeOutDuration) > 0) {
+    if (now - this.timeLast > this.timeOutNanos) {
       this.timeLast = now;
       return true;
     }
     return false;
   }
 
+  /**
+   * @return The time in nanoseconds until {@link #isTimedOut()} will
+   * return {@code true}
+   */
+
+  public long remainingNanos()
+  {
+    if (!this.started) {
+      return 0L;
+    }
+
+    final var elapsed = this.nanoTime.getAsLong() - this.timeLast;
+    final var remaining = this.timeOutNanos - elapsed;
+    if (remaining < 0L) {
+      return 0L;
+    }
+    return remaining + 1L;
+  }
+
   public Duration duration()
   {
-    return this.timeOutDuration;
+    return Duration.ofNanos(this.timeOutNanos);
   }
 }
@@ -26,7 +26,9 @@ module com.io7m.ironstrata.printer.vanilla
   requires com.io7m.ironstrata.serialport.api;
   requires com.io7m.ironstrata.printer.api;
   requires com.io7m.ironstrata.strings.api;
+  requires com.io7m.jfsm.core;
   requires com.io7m.junreachable.core;
+  requires it.unimi.dsi.fastutil;
   requires org.slf4j;
 
   uses com.io7m.ironstrata.serialport.api.ISSerialPortFactoryType;
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.api;
+
+/**
+ * A mutable view of a line received from a serial port. The contents of a
+ * view are only valid until the next line is read from the port that
+ * produced it; call {@link #toString()} to retain a line.
+ *
+ * Lines are treated as US-ASCII. Bytes outside of that range are presented
+ * as {@code U+FFFD}.
+ */
+
+public final class ISSerialLine implements CharSequence
+{
+  private byte[] data;
+  private int length;
+
+  ISSerialLine()
+  {
+    this.data = new byte[0];
+    this.length = 0;
+  }
+
+  void set(
+    final byte[] inData,
+    final int inLength)
+  {
+    this.data = inData;
+    this.length = inLength;
+  }
+
+  @Override
+  public int length()
+  {
+    return this.length;
+  }
+
+  @Override
+  public char charAt(
+    final int index)
+  {
+    if (index < 0 || index >= this.length) {
+      throw new IndexOutOfBoundsException(
+        String.format("Index %d out of bounds for length %d",
+                      Integer.valueOf(index),
+                      Integer.valueOf(this.length)));
+    }
+
+    final var b = this.data[index];
+    if (b < 0) {
+      return '\uFFFD';
+    }
+    return (char) b;
+  }
+
+  @Override
+  public CharSequence subSequence(
+    final int start,
+    final int end)
+  {
+    return this.toString().substring(start, end);
+  }
+
+  @Override
+  public String toString()
+  {
+    return new StringBuilder(this.length)
+      .append(this, 0, this.length)
+      .toString();
+  }
+}
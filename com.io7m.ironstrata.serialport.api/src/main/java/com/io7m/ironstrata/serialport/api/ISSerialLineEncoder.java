@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+import static com.io7m.jaffirm.core.Preconditions.checkPreconditionI;
+
+/**
+ * An encoder that writes batches of lines into a pool of reusable direct
+ * buffers, so that a whole batch can be sent with a single gathering write.
+ * Each line has trailing whitespace removed and is terminated with a
+ * newline. Characters outside of US-ASCII are encoded as {@code ?}.
+ */
+
+public final class ISSerialLineEncoder
+{
+  private final int bufferSize;
+  private ByteBuffer[] buffers;
+  private int bufferCount;
+
+  /**
+   * Construct an encoder.
+   *
+   * @param inBufferSize The size of each pooled buffer
+   */
+
+  public ISSerialLineEncoder(
+    final int inBufferSize)
+  {
+    this.bufferSize =
+      checkPreconditionI(
+        inBufferSize,
+        inBufferSize > 0,
+        x -> "Buffer size must be positive");
+
+    this.buffers = new ByteBuffer[]{ByteBuffer.allocateDirect(inBufferSize)};
+    this.bufferCount = 1;
+  }
+
+  /**
+   * Construct an encoder using 4096 byte buffers.
+   */
+
+  public ISSerialLineEncoder()
+  {
+    this(4096);
+  }
+
+  /**
+   * @param text The text
+   *
+   * @return The text without trailing whitespace
+   */
+
+  public static String trimmed(
+    final String text)
+  {
+    var length = text.length();
+    while (length > 0 && Character.isWhitespace(text.charAt(length - 1))) {
+      --length;
+    }
+    return text.substring(0, length);
+  }
+
+  /**
+   * Begin a new batch, discarding anything that was not written.
+   */
+
+  public void begin()
+  {
+    this.buffers[0].clear();
+    this.bufferCount = 1;
+  }
+
+  /**
+   * Encode a line into the current batch.
+   *
+   * @param text The line
+   *
+   * @return The line as it will be written, without the newline
+   */
+
+  public String encode(
+    final String text)
+  {
+    final var line = trimmed(text);
+    final var length = line.length();
+    for (int index = 0; index < length; ++index) {
+      final var c = line.charAt(index);
+      if (c < 0x80) {
+        this.put((byte) c);
+      } else {
+        this.put((byte) '?');
+      }
+    }
+    this.put((byte) '\n');
+    return line;
+  }
+
+  private void put(
+    final byte b)
+  {
+    var buffer = this.buffers[this.bufferCount - 1];
+    if (!buffer.hasRemaining()) {
+      buffer = this.next();
+    }
+    buffer.put(b);
+  }
+
+  private ByteBuffer next()
+  {
+    if (this.bufferCount == this.buffers.length) {
+      this.buffers = Arrays.copyOf(this.buffers, this.buffers.length * 2);
+    }
+
+    var buffer = this.buffers[this.bufferCount];
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(this.bufferSize);
+      this.buffers[this.bufferCount] = buffer;
+    }
+    buffer.clear();
+    ++this.bufferCount;
+    return buffer;
+  }
+
+  /**
+   * Write the current batch to the given channel. The write is repeated
+   * until the entire batch has been written.
+   *
+   * @param channel The channel
+   *
+   * @throws IOException On errors
+   */
+
+  public void writeTo(
+    final GatheringByteChannel channel)
+    throws IOException
+  {
+    for (int index = 0; index < this.bufferCount; ++index) {
+      this.buffers[index].flip();
+    }
+
+    final var lastIndex = this.bufferCount - 1;
+    final var last = this.buffers[lastIndex];
+    int first = 0;
+    while (last.hasRemaining()) {
+      channel.write(this.buffers, first, this.bufferCount - first);
+      while (first < lastIndex && !this.buffers[first].hasRemaining()) {
+        ++first;
+      }
+    }
+    this.begin();
+  }
+}
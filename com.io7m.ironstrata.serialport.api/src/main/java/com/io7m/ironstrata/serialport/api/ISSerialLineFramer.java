@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.api;
+
+import java.nio.ByteBuffer;
+
+import static com.io7m.jaffirm.core.Preconditions.checkPreconditionI;
+
+/**
+ * A framer that splits a stream of bytes into newline-terminated lines
+ * without allocating. Each completed line is exposed through a single
+ * reusable {@link ISSerialLine} view, with trailing whitespace (including
+ * any carriage return) removed.
+ *
+ * Lines longer than the maximum line length are truncated.
+ */
+
+public final class ISSerialLineFramer
+{
+  private final int lineLengthMaximum;
+  private final ISSerialLine line;
+  private byte[] lineBytes;
+  private int lineLength;
+  private boolean lineComplete;
+
+  /**
+   * Construct a framer.
+   *
+   * @param inLineLengthMaximum The maximum line length
+   */
+
+  public ISSerialLineFramer(
+    final int inLineLengthMaximum)
+  {
+    this.lineLengthMaximum =
+      checkPreconditionI(
+        inLineLengthMaximum,
+        inLineLengthMaximum > 0,
+        x -> "Maximum line length must be positive");
+
+    this.lineBytes = new byte[Math.min(128, inLineLengthMaximum)];
+    this.line = new ISSerialLine();
+  }
+
+  /**
+   * Construct a framer with a maximum line length of 4096 bytes.
+   */
+
+  public ISSerialLineFramer()
+  {
+    this(4096);
+  }
+
+  private static boolean isWhitespace(
+    final byte b)
+  {
+    return b >= 0 && Character.isWhitespace((char) b);
+  }
+
+  /**
+   * Consume bytes from the given buffer until either a line is completed or
+   * the buffer is exhausted. Bytes that do not complete a line are retained
+   * until the next call.
+   *
+   * @param buffer The input buffer
+   *
+   * @return {@code true} if {@link #line()} now holds a completed line
+   */
+
+  public boolean frame(
+    final ByteBuffer buffer)
+  {
+    if (this.lineComplete) {
+      this.lineComplete = false;
+      this.lineLength = 0;
+    }
+
+    while (buffer.hasRemaining()) {
+      final var b = buffer.get();
+      if (b == '\n') {
+        this.complete();
+        return true;
+      }
+      this.append(b);
+    }
+    return false;
+  }
+
+  private void append(
+    final byte b)
+  {
+    if (this.lineLength == this.lineBytes.length) {
+      if (this.lineLength == this.lineLengthMaximum) {
+        return;
+      }
+      final var size =
+        Math.min(this.lineLengthMaximum, this.lineBytes.length * 2);
+      final var resized = new byte[size];
+      System.arraycopy(this.lineBytes, 0, resized, 0, this.lineLength);
+      this.lineBytes = resized;
+    }
+    this.lineBytes[this.lineLength] = b;
+    ++this.lineLength;
+  }
+
+  private void complete()
+  {
+    var length = this.lineLength;
+    while (length > 0 && isWhitespace(this.lineBytes[length - 1])) {
+      --length;
+    }
+    this.line.set(this.lineBytes, length);
+    this.lineComplete = true;
+  }
+
+  /**
+   * @return The most recently completed line
+   */
+
+  public ISSerialLine line()
+  {
+    return this.line;
+  }
+
+  /**
+   * Discard any partially received line.
+   */
+
+  public void reset()
+  {
+    this.lineComplete = false;
+    this.lineLength = 0;
+    this.line.set(this.lineBytes, 0);
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded single-producer/single-consumer ring of lines. Every slot owns
+ * a preallocated line buffer, so neither adding nor taking a line allocates
+ * once the buffers have grown to the size of the longest line.
+ *
+ * A line taken by the consumer remains valid until the consumer next calls
+ * {@link #poll(long)}, at which point the slot is returned to the producer.
+ */
+
+final class ISSerialLineRing
+{
+  private final Slot[] slots;
+  private final int mask;
+  private final AtomicLong head;
+  private final AtomicLong tail;
+  private volatile Thread consumerWaiting;
+  private volatile Thread producerWaiting;
+  private volatile boolean closed;
+  private boolean consumerHolding;
+
+  ISSerialLineRing(
+    final int capacity)
+  {
+    final var size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    this.slots = new Slot[size];
+    for (int index = 0; index < size; ++index) {
+      this.slots[index] = new Slot();
+    }
+    this.mask = size - 1;
+    this.head = new AtomicLong(0L);
+    this.tail = new AtomicLong(0L);
+  }
+
+  int capacity()
+  {
+    return this.slots.length;
+  }
+
+  /**
+   * Add a line to the ring, waiting for at most {@code waitNanos} for a
+   * slot to become free. Must only be called by the producer.
+   *
+   * @return {@code true} if the line was added
+   */
+
+  boolean offer(
+    final CharSequence line,
+    final long waitNanos)
+  {
+    final var t = this.tail.get();
+    if (t - this.head.get() >= this.slots.length) {
+      this.producerWaiting = Thread.currentThread();
+      if (t - this.head.get() >= this.slots.length) {
+        LockSupport.parkNanos(this, waitNanos);
+      }
+      this.producerWaiting = null;
+      if (t - this.head.get() >= this.slots.length) {
+        return false;
+      }
+    }
+
+    this.slots[(int) (t & this.mask)].copyFrom(line);
+    this.tail.set(t + 1L);
+
+    final var consumer = this.consumerWaiting;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+    }
+    return true;
+  }
+
+  /**
+   * Take the next line from the ring, waiting for at most {@code waitNanos}
+   * for one to arrive. Must only be called by the consumer.
+   *
+   * @return The line, or {@code null} if the ring is empty
+   */
+
+  ISSerialLine poll(
+    final long waitNanos)
+  {
+    this.release();
+
+    final var h = this.head.get();
+    if (h == this.tail.get()) {
+      final var deadline = System.nanoTime() + waitNanos;
+      this.consumerWaiting = Thread.currentThread();
+      try {
+        while (h == this.tail.get()) {
+          final var remaining = deadline - System.nanoTime();
+          if (remaining <= 0L || this.closed) {
+            return null;
+          }
+          LockSupport.parkNanos(this, remaining);
+        }
+      } finally {
+        this.consumerWaiting = null;
+      }
+    }
+
+    this.consumerHolding = true;
+    return this.slots[(int) (h & this.mask)].line;
+  }
+
+  private void release()
+  {
+    if (this.consumerHolding) {
+      this.consumerHolding = false;
+      this.head.set(this.head.get() + 1L);
+
+      final var producer = this.producerWaiting;
+      if (producer != null) {
+        LockSupport.unpark(producer);
+      }
+    }
+  }
+
+  /**
+   * Indicate that the producer will not add any further lines.
+   */
+
+  void close()
+  {
+    this.closed = true;
+    final var consumer = this.consumerWaiting;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  private static final class Slot
+  {
+    private final ISSerialLine line;
+    private byte[] data;
+
+    Slot()
+    {
+      this.line = new ISSerialLine();
+      this.data = new byte[128];
+    }
+
+    void copyFrom(
+      final CharSequence text)
+    {
+      final var length = text.length();
+      if (length > this.data.length) {
+        this.data = new byte[Math.max(length, this.data.length * 2)];
+      }
+      for (int index = 0; index < length; ++index) {
+        final var c = text.charAt(index);
+        if (c < 0x80) {
+          this.data[index] = (byte) c;
+        } else {
+          this.data[index] = (byte) 0xff;
+        }
+      }
+      this.line.set(this.data, length);
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.api;
+
+/**
+ * Functions to classify received lines without allocating.
+ */
+
+public final class ISSerialLines
+{
+  private ISSerialLines()
+  {
+
+  }
+
+  /**
+   * @param line The line
+   * @param text The text
+   *
+   * @return {@code true} if the line is exactly equal to the given text
+   */
+
+  public static boolean isEqualTo(
+    final CharSequence line,
+    final CharSequence text)
+  {
+    return line.length() == text.length()
+      && startsWith(line, text);
+  }
+
+  /**
+   * Some firmware emits a lone NUL character when it resets. Such lines
+   * carry no information and are discarded by serial ports.
+   *
+   * @param line The line
+   *
+   * @return {@code true} if the line consists of a single NUL character
+   */
+
+  public static boolean isNUL(
+    final CharSequence line)
+  {
+    return line.length() == 1 && line.charAt(0) == '\0';
+  }
+
+  /**
+   * @param line   The line
+   * @param prefix The prefix
+   *
+   * @return {@code true} if the line starts with the given prefix
+   */
+
+  public static boolean startsWith(
+    final CharSequence line,
+    final CharSequence prefix)
+  {
+    final var length = prefix.length();
+    if (line.length() < length) {
+      return false;
+    }
+    for (int index = 0; index < length; ++index) {
+      if (line.charAt(index) != prefix.charAt(index)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param line   The line
+   * @param prefix The prefix
+   *
+   * @return {@code true} if the line starts with the given prefix, ignoring
+   * case
+   */
+
+  public static boolean startsWithIgnoreCase(
+    final CharSequence line,
+    final CharSequence prefix)
+  {
+    return startsWithIgnoreCase(line, 0, prefix);
+  }
+
+  /**
+   * @param line   The line
+   * @param offset The offset within the line
+   * @param prefix The prefix
+   *
+   * @return {@code true} if the line starts with the given prefix at
+   * {@code offset}, ignoring case
+   */
+
+  public static boolean startsWithIgnoreCase(
+    final CharSequence line,
+    final int offset,
+    final CharSequence prefix)
+  {
+    final var length = prefix.length();
+    if (line.length() - offset < length) {
+      return false;
+    }
+    for (int index = 0; index < length; ++index) {
+      final var c0 = Character.toUpperCase(line.charAt(offset + index));
+      final var c1 = Character.toUpperCase(prefix.charAt(index));
+      if (c0 != c1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param line The line
+   * @param c    The character
+   *
+   * @return The index of the first occurrence of {@code c}, or {@code -1}
+   */
+
+  public static int indexOf(
+    final CharSequence line,
+    final char c)
+  {
+    final var length = line.length();
+    for (int index = 0; index < length; ++index) {
+      if (line.charAt(index) == c) {
+        return index;
+      }
+    }
+    return -1;
+  }
+}
@@ -20,6 +20,8 @@ import com.io7m.immutables.styles.ImmutablesStyleType;
 import com.io7m.jaffirm.core.Preconditions;
 import org.immutables.value.Value;
 
+import java.time.Duration;
+
 /**
  * Configuration for a serial port.
  */
@@ -40,6 +42,34 @@ public interface ISSerialPortConfigurationType
 
   int baudRate();
 
+  /**
+   * The maximum amount of time that a call to
+   * {@link ISSerialPortType#readLine()} will wait for a line to arrive
+   * before returning {@code null}.
+   *
+   * @return The read timeout
+   */
+
+  @Value.Default
+  default Duration readTimeout()
+  {
+    return Duration.ofMillis(100L);
+  }
+
+  /**
+   * The maximum amount of time that a write may wait for the device to
+   * accept more data before failing. Ports that cannot tell whether the
+   * device is accepting data ignore this value.
+   *
+   * @return The write timeout
+   */
+
+  @Value.Default
+  default Duration writeTimeout()
+  {
+    return Duration.ofSeconds(10L);
+  }
+
   /**
    * Check preconditions for the type.
    */
@@ -58,5 +88,17 @@ public interface ISSerialPortConfigurationType
       this.baudRate() < 500_000,
       value -> "Baud rate must be < 500_000"
     );
+
+    Preconditions.checkPrecondition(
+      this.readTimeout(),
+      !this.readTimeout().isNegative() && !this.readTimeout().isZero(),
+      value -> "Read timeout must be positive"
+    );
+
+    Preconditions.checkPrecondition(
+      this.writeTimeout(),
+      !this.writeTimeout().isNegative() && !this.writeTimeout().isZero(),
+      value -> "Write timeout must be positive"
+    );
   }
 }
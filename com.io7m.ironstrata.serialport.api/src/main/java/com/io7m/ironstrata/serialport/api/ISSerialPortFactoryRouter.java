@@ -0,0 +1,127 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A serial port factory that delegates to whichever of a set of factories
+ * supports the requested device. Exactly one factory must support each
+ * device, so the choice never depends on the order in which the factories
+ * were discovered.
+ *
+ * @see ISSerialPortFactoryType#supports(String)
+ */
+
+public final class ISSerialPortFactoryRouter implements ISSerialPortFactoryType
+{
+  private final List<ISSerialPortFactoryType> factories;
+
+  /**
+   * Construct a router.
+   *
+   * @param inFactories The factories
+   */
+
+  public ISSerialPortFactoryRouter(
+    final List<? extends ISSerialPortFactoryType> inFactories)
+  {
+    this.factories =
+      List.copyOf(Objects.requireNonNull(inFactories, "factories"));
+  }
+
+  /**
+   * @return The factories to which this router delegates
+   */
+
+  public List<ISSerialPortFactoryType> factories()
+  {
+    return this.factories;
+  }
+
+  @Override
+  public boolean supports(
+    final String deviceName)
+  {
+    Objects.requireNonNull(deviceName, "deviceName");
+
+    for (final var factory : this.factories) {
+      if (factory.supports(deviceName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Find the factory that supports the given device.
+   *
+   * @param deviceName The device name
+   *
+   * @return The factory
+   *
+   * @throws IOException If no factory, or more than one factory, supports
+   *                     the device
+   */
+
+  public ISSerialPortFactoryType factoryFor(
+    final String deviceName)
+    throws IOException
+  {
+    Objects.requireNonNull(deviceName, "deviceName");
+
+    final var supporting = new ArrayList<ISSerialPortFactoryType>(1);
+    for (final var factory : this.factories) {
+      if (factory.supports(deviceName)) {
+        supporting.add(factory);
+      }
+    }
+
+    if (supporting.isEmpty()) {
+      throw new IOException(String.format(
+        "No serial port factory supports the device '%s'",
+        deviceName)
+      );
+    }
+
+    if (supporting.size() > 1) {
+      final var names = new ArrayList<String>(supporting.size());
+      for (final var factory : supporting) {
+        names.add(factory.getClass().getName());
+      }
+      throw new IOException(String.format(
+        "More than one serial port factory supports the device '%s': %s",
+        deviceName,
+        names)
+      );
+    }
+
+    return supporting.get(0);
+  }
+
+  @Override
+  public ISSerialPortType open(
+    final ISSerialPortConfiguration configuration)
+    throws IOException
+  {
+    Objects.requireNonNull(configuration, "configuration");
+    return this.factoryFor(configuration.deviceName()).open(configuration);
+  }
+}
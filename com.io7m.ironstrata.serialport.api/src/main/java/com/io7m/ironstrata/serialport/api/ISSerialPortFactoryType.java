@@ -24,6 +24,23 @@ import java.io.IOException;
 
 public interface ISSerialPortFactoryType
 {
+  /**
+   * Determine whether this factory can open the given device. Factories
+   * that only open particular kinds of devices, such as those named by a
+   * URI scheme, should override this so that
+   * {@link ISSerialPortFactoryRouter} can choose between them.
+   *
+   * @param deviceName The device name
+   *
+   * @return {@code true} if this factory can open the device
+   */
+
+  default boolean supports(
+    final String deviceName)
+  {
+    return true;
+  }
+
   /**
    * Open a serial port.
    *
@@ -0,0 +1,247 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.api;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.io7m.jaffirm.core.Preconditions.checkPreconditionI;
+
+/**
+ * A serial port that reads ahead from another port on a dedicated thread.
+ *
+ * The reader thread places each line received from the underlying port
+ * into a preallocated single-producer/single-consumer ring. Reading from
+ * this port takes lines from the ring, waiting for at most the given read
+ * timeout. Writes are passed directly to the underlying port, and so are
+ * never held up behind a read. The reader thread calls the function given
+ * to {@link #setReadableListener(Runnable)} after each line that it adds,
+ * so that a reader can wait for lines together with other events.
+ *
+ * Lines are published to {@link #reads()} when they are taken from the
+ * ring, on the thread that is reading from this port.
+ */
+
+public final class ISSerialPortReadAhead implements ISSerialPortType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(ISSerialPortReadAhead.class);
+
+  private static final long PRODUCER_WAIT =
+    TimeUnit.MILLISECONDS.toNanos(10L);
+
+  private final ISSerialPortType delegate;
+  private final ISSerialLineRing ring;
+  private final long readTimeoutNanos;
+  private final AtomicBoolean closed;
+  private final AtomicReference<IOException> readerError;
+  private final PublishSubject<String> reads;
+  private final Thread readerThread;
+  private volatile Runnable readable;
+
+  private ISSerialPortReadAhead(
+    final ISSerialPortType inDelegate,
+    final int inCapacity,
+    final Duration inReadTimeout)
+  {
+    this.delegate =
+      Objects.requireNonNull(inDelegate, "delegate");
+    this.readTimeoutNanos =
+      Objects.requireNonNull(inReadTimeout, "readTimeout").toNanos();
+
+    this.ring = new ISSerialLineRing(inCapacity);
+    this.closed = new AtomicBoolean(false);
+    this.readerError = new AtomicReference<>();
+    this.reads = PublishSubject.create();
+
+    this.readerThread = new Thread(this::readerLoop);
+    this.readerThread.setName(String.format(
+      "com.io7m.ironstrata.serialport.readahead.%d",
+      Long.valueOf(this.readerThread.getId()))
+    );
+    this.readerThread.setDaemon(true);
+  }
+
+  /**
+   * Start reading ahead from the given port.
+   *
+   * @param delegate    The underlying port
+   * @param capacity    The number of lines that may be read ahead
+   * @param readTimeout The maximum time a read will wait for a line
+   *
+   * @return A port that reads ahead
+   */
+
+  public static ISSerialPortReadAhead create(
+    final ISSerialPortType delegate,
+    final int capacity,
+    final Duration readTimeout)
+  {
+    checkPreconditionI(
+      capacity,
+      capacity > 0,
+      x -> "Capacity must be positive");
+
+    final var port =
+      new ISSerialPortReadAhead(delegate, capacity, readTimeout);
+    port.readerThread.start();
+    return port;
+  }
+
+  private void readerLoop()
+  {
+    try {
+      while (!this.closed.get()) {
+        final var line = this.delegate.readLineView();
+        if (line == null) {
+          continue;
+        }
+        while (!this.ring.offer(line, PRODUCER_WAIT)) {
+          if (this.closed.get()) {
+            return;
+          }
+        }
+        this.notifyReadable();
+      }
+    } catch (final IOException e) {
+      if (!this.closed.get()) {
+        LOG.debug("read: ", e);
+        this.readerError.set(e);
+      }
+    } finally {
+      this.ring.close();
+      this.notifyReadable();
+    }
+  }
+
+  private void notifyReadable()
+  {
+    final var listener = this.readable;
+    if (listener != null) {
+      listener.run();
+    }
+  }
+
+  @Override
+  public boolean setReadableListener(
+    final Runnable listener)
+  {
+    this.readable = Objects.requireNonNull(listener, "listener");
+    return true;
+  }
+
+  @Override
+  public Observable<String> reads()
+  {
+    return this.reads;
+  }
+
+  @Override
+  public Observable<String> writes()
+  {
+    return this.delegate.writes();
+  }
+
+  @Override
+  public String readLine()
+    throws IOException
+  {
+    final var line = this.readLineView();
+    if (line == null) {
+      return null;
+    }
+    return line.toString();
+  }
+
+  @Override
+  public ISSerialLine readLineView()
+    throws IOException
+  {
+    return this.take(this.readTimeoutNanos);
+  }
+
+  @Override
+  public ISSerialLine pollLineView()
+    throws IOException
+  {
+    return this.take(0L);
+  }
+
+  private ISSerialLine take(
+    final long waitNanos)
+    throws IOException
+  {
+    final var line = this.ring.poll(waitNanos);
+    if (line == null) {
+      final var error = this.readerError.get();
+      if (error != null) {
+        throw error;
+      }
+      return null;
+    }
+
+    if (this.reads.hasObservers()) {
+      this.reads.onNext(line.toString());
+    }
+    return line;
+  }
+
+  @Override
+  public void writeLine(
+    final String text)
+    throws IOException
+  {
+    this.delegate.writeLine(text);
+  }
+
+  @Override
+  public void writeLines(
+    final List<String> texts)
+    throws IOException
+  {
+    this.delegate.writeLines(texts);
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    if (this.closed.compareAndSet(false, true)) {
+      this.reads.onComplete();
+      this.delegate.close();
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format(
+      "[ISSerialPortReadAhead 0x%s]",
+      Long.toUnsignedString(System.identityHashCode(this), 16)
+    );
+  }
+}
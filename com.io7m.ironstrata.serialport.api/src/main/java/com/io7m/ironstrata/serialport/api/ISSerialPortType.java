@@ -20,6 +20,10 @@ import io.reactivex.rxjava3.core.Observable;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
 
 /**
  * A serial port.
@@ -40,9 +44,10 @@ public interface ISSerialPortType extends Closeable
   Observable<String> writes();
 
   /**
-   * Read a line of text from the port.
+   * Read a line of text from the port. The method blocks until a line is
+   * available, or until the port's read timeout elapses.
    *
-   * @return A line
+   * @return A line, or {@code null} if no line arrived in time
    *
    * @throws IOException On errors
    */
@@ -50,6 +55,79 @@ public interface ISSerialPortType extends Closeable
   String readLine()
     throws IOException;
 
+  /**
+   * Read a line of text from the port. The method behaves as
+   * {@link #readLine()}, but implementations may return a reusable view of
+   * the line that avoids allocation. The returned value is only valid until
+   * the next read from the port.
+   *
+   * @return A line, or {@code null} if no line arrived in time
+   *
+   * @throws IOException On errors
+   */
+
+  default CharSequence readLineView()
+    throws IOException
+  {
+    return this.readLine();
+  }
+
+  /**
+   * Read a line of text from the port if one has already arrived. The
+   * returned value is only valid until the next read from the port.
+   * Implementations that cannot check for a line without waiting behave
+   * as {@link #readLineView()}.
+   *
+   * @return A line, or {@code null} if no line is available
+   *
+   * @throws IOException On errors
+   */
+
+  default CharSequence pollLineView()
+    throws IOException
+  {
+    return this.readLineView();
+  }
+
+  /**
+   * Set a function that the port calls whenever a line becomes available
+   * to read. The function may be called on any thread, must not block, and
+   * may be called more than once for the same line. A reader that is told
+   * that the port will call the function can poll with
+   * {@link #pollLineView()} and wait elsewhere, rather than waiting in
+   * {@link #readLineView()}.
+   *
+   * @param listener The function
+   *
+   * @return {@code true} if the port will call the function, or
+   * {@code false} if the port cannot report when lines are available
+   */
+
+  default boolean setReadableListener(
+    final Runnable listener)
+  {
+    Objects.requireNonNull(listener, "listener");
+    return false;
+  }
+
+  /**
+   * Return a channel that becomes readable whenever data arrives at the
+   * port. A reader can register the channel with its own selector, and
+   * poll with {@link #pollLineView()} whenever the channel is selected, so
+   * that a single thread can wait for many ports at once. The channel must
+   * not be read directly. A port may replace its channel (for example, when
+   * a network connection is reestablished), and may close it once the port
+   * has nothing more to say, so readers should call this method again
+   * whenever their registration becomes invalid.
+   *
+   * @return The channel, if the port currently has one
+   */
+
+  default Optional<SelectableChannel> selectableChannel()
+  {
+    return Optional.empty();
+  }
+
   /**
    * Write a line of text to the port.
    *
@@ -60,4 +138,23 @@ public interface ISSerialPortType extends Closeable
 
   void writeLine(String text)
     throws IOException;
+
+  /**
+   * Write a batch of lines to the port. Implementations may send the
+   * entire batch at once, but each line is still published to
+   * {@link #writes()}.
+   *
+   * @param texts The lines
+   *
+   * @throws IOException On errors
+   */
+
+  default void writeLines(
+    final List<String> texts)
+    throws IOException
+  {
+    for (final var text : texts) {
+      this.writeLine(text);
+    }
+  }
 }
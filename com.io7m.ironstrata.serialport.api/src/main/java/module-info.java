@@ -27,6 +27,7 @@ module com.io7m.ironstrata.serialport.api
 
   requires transitive io.reactivex.rxjava3;
   requires com.io7m.jaffirm.core;
+  requires org.slf4j;
 
   exports com.io7m.ironstrata.serialport.api;
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.logging;
+
+/**
+ * A histogram of latencies with log-linear buckets. Values below 32 are
+ * counted exactly, and larger values are counted in buckets that are at most
+ * 1/16th of the bucket's lower bound wide. Recording a value never
+ * allocates.
+ */
+
+final class ISSerialPortLatencyHistogram
+{
+  private static final int EXACT = 32;
+  private static final int SUB_BITS = 4;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  private static final int EXACT_BITS = 5;
+
+  private final long[] counts;
+  private long count;
+  private long min;
+  private long max;
+  private long sum;
+
+  ISSerialPortLatencyHistogram()
+  {
+    this.counts = new long[EXACT + (64 - EXACT_BITS) * SUB_COUNT];
+    this.min = Long.MAX_VALUE;
+    this.max = 0L;
+  }
+
+  static int bucketOf(
+    final long value)
+  {
+    if (value < EXACT) {
+      return (int) Math.max(0L, value);
+    }
+    final var exponent = 63 - Long.numberOfLeadingZeros(value);
+    final var sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+    return EXACT + (exponent - EXACT_BITS) * SUB_COUNT + sub;
+  }
+
+  static long upperBoundOf(
+    final int bucket)
+  {
+    if (bucket < EXACT) {
+      return bucket;
+    }
+    final var index = bucket - EXACT;
+    final var shift = index / SUB_COUNT + EXACT_BITS - SUB_BITS;
+    final var sub = index % SUB_COUNT;
+    final var lower = (long) (SUB_COUNT + sub) << shift;
+    return lower + (1L << shift) - 1L;
+  }
+
+  void record(
+    final long value)
+  {
+    final var clamped = Math.max(0L, value);
+    ++this.counts[bucketOf(clamped)];
+    ++this.count;
+    this.sum += clamped;
+    this.min = Math.min(this.min, clamped);
+    this.max = Math.max(this.max, clamped);
+  }
+
+  long count()
+  {
+    return this.count;
+  }
+
+  long min()
+  {
+    return this.count == 0L ? 0L : this.min;
+  }
+
+  long max()
+  {
+    return this.max;
+  }
+
+  long mean()
+  {
+    return this.count == 0L ? 0L : this.sum / this.count;
+  }
+
+  long percentile(
+    final double percentile)
+  {
+    if (this.count == 0L) {
+      return 0L;
+    }
+
+    final var clamped = Math.min(100.0, Math.max(0.0, percentile));
+    final var rank =
+      Math.max(1L, (long) Math.ceil((clamped / 100.0) * (double) this.count));
+
+    long seen = 0L;
+    for (int bucket = 0; bucket < this.counts.length; ++bucket) {
+      seen += this.counts[bucket];
+      if (seen >= rank) {
+        return Math.max(this.min(), Math.min(this.max, upperBoundOf(bucket)));
+      }
+    }
+    return this.max;
+  }
+}
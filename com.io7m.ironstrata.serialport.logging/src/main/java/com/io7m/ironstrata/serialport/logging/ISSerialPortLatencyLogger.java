@@ -0,0 +1,685 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.logging;
+
+import com.io7m.ironstrata.serialport.api.ISSerialPortType;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import static com.io7m.ironstrata.serialport.api.ISSerialLines.startsWithIgnoreCase;
+
+/**
+ * A logger that pairs each line written to a serial port with the response
+ * lines that it produced, and records the time between sending the line
+ * and receiving the {@code ok} that completes it.
+ *
+ * Responses are paired with commands in the order that the commands were
+ * sent. If an {@code ok} response carries a line number (such as
+ * {@code ok N12 P15 B3}), any earlier commands that were never acknowledged
+ * are discarded first. Each completed command is written to the log as a
+ * single line containing the command's code (such as {@code G1} or
+ * {@code M105}), the latency in microseconds, the command, and its
+ * responses. Running latency percentiles are kept per code, and a summary
+ * is written to the log when the logger is closed.
+ *
+ * A request to resend from a line number (such as {@code Resend: 12})
+ * means that the commands from that line onwards will be written again,
+ * so they are discarded and counted in {@link #resentCommands()}, and the
+ * {@code ok} that follows the request is not paired with any command. The
+ * latency of a resent command is measured from the last time it was
+ * written.
+ *
+ * Commands are classified by integer kinds rather than by strings, and
+ * the entries for commands awaiting a response are reused, so that
+ * tracking a command does not allocate.
+ *
+ * Log lines are handed to a background writer, which writes and flushes
+ * them in batches, so that a slow disk cannot stall the thread that reads
+ * from the port. If the writer falls too far behind, lines are dropped,
+ * and the number of dropped lines is written to the log.
+ */
+
+public final class ISSerialPortLatencyLogger implements Closeable
+{
+  private static final int PENDING_MAX = 4096;
+  private static final int LOG_CAPACITY = 1024;
+  private static final int KIND_UNKNOWN = -1;
+
+  private final Clock clock;
+  private final LongSupplier nanoTime;
+  private final ISSerialPortType delegate;
+  private final ISSerialPortLogWriter log;
+  private final StringBuilder line;
+  private final CompositeDisposable subs;
+  private final ReentrantLock lock;
+  private final ArrayDeque<Pending> pending;
+  private final ArrayDeque<Pending> free;
+  private int[] kinds;
+  private ISSerialPortLatencyHistogram[] histograms;
+  private int kindCount;
+  private long unpaired;
+  private long resent;
+  private int ignoreOKs;
+
+  private ISSerialPortLatencyLogger(
+    final Clock inClock,
+    final LongSupplier inNanoTime,
+    final ISSerialPortType inDelegate,
+    final BufferedWriter inLog)
+  {
+    this.clock =
+      Objects.requireNonNull(inClock, "clock");
+    this.nanoTime =
+      Objects.requireNonNull(inNanoTime, "nanoTime");
+    this.delegate =
+      Objects.requireNonNull(inDelegate, "delegate");
+    this.log =
+      new ISSerialPortLogWriter(
+        this.clock,
+        "latencies",
+        Objects.requireNonNull(inLog, "log"),
+        LOG_CAPACITY
+      );
+    this.line = new StringBuilder(128);
+
+    this.subs = new CompositeDisposable();
+    this.lock = new ReentrantLock();
+    this.pending = new ArrayDeque<>();
+    this.free = new ArrayDeque<>();
+    this.kinds = new int[16];
+    this.histograms = new ISSerialPortLatencyHistogram[16];
+  }
+
+  /**
+   * Create a latency logger.
+   *
+   * @param clock    The clock used to timestamp log lines
+   * @param nanoTime The monotonic time source used to measure latencies
+   * @param delegate The serial port
+   * @param log      The log
+   *
+   * @return A latency logger
+   */
+
+  public static ISSerialPortLatencyLogger create(
+    final Clock clock,
+    final LongSupplier nanoTime,
+    final ISSerialPortType delegate,
+    final BufferedWriter log)
+  {
+    final var logger =
+      new ISSerialPortLatencyLogger(clock, nanoTime, delegate, log);
+    logger.subs.add(delegate.writes().subscribe(logger::onWrite));
+    logger.subs.add(delegate.reads().subscribe(logger::onRead));
+    return logger;
+  }
+
+  /**
+   * Create a latency logger using the system clocks.
+   *
+   * @param delegate The serial port
+   * @param log      The log
+   *
+   * @return A latency logger
+   */
+
+  public static ISSerialPortLatencyLogger create(
+    final ISSerialPortType delegate,
+    final BufferedWriter log)
+  {
+    return create(Clock.systemUTC(), System::nanoTime, delegate, log);
+  }
+
+  /**
+   * Determine the code of a command, such as {@code G1} or {@code M105}. A
+   * leading line number is skipped.
+   *
+   * @param text The command
+   *
+   * @return The command code, or {@code ?} if the command has no code
+   */
+
+  public static String commandCode(
+    final CharSequence text)
+  {
+    final var code = new StringBuilder(8);
+    appendCode(code, commandKind(text));
+    return code.toString();
+  }
+
+  /**
+   * Determine the kind of a command. The kind packs the command letter,
+   * number, and a single digit subcode into an integer, in the same manner
+   * as the printer's command timeouts.
+   *
+   * @return The kind, or {@link #KIND_UNKNOWN} if the command has no code
+   */
+
+  private static int commandKind(
+    final CharSequence text)
+  {
+    final var length = text.length();
+    int index = skipSpaces(text, 0);
+
+    if (index < length && Character.toUpperCase(text.charAt(index)) == 'N') {
+      final var digits = skipDigits(text, index + 1);
+      if (digits > index + 1) {
+        index = skipSpaces(text, digits);
+      }
+    }
+
+    if (index >= length) {
+      return KIND_UNKNOWN;
+    }
+
+    final var letter = Character.toUpperCase(text.charAt(index));
+    if (letter < 'A' || letter > 'Z') {
+      return KIND_UNKNOWN;
+    }
+
+    int number = 0;
+    int end = index + 1;
+    for (; end < length; ++end) {
+      final var c = text.charAt(end);
+      if (c < '0' || c > '9') {
+        break;
+      }
+      number = number * 10 + (c - '0');
+      if (number >= 0x10_0000) {
+        return KIND_UNKNOWN;
+      }
+    }
+
+    int subcode = 0;
+    if (end + 1 < length && text.charAt(end) == '.') {
+      final var c = text.charAt(end + 1);
+      if (c >= '0' && c <= '9') {
+        subcode = c - '0' + 1;
+      }
+    }
+
+    return (letter << 24) | (number << 4) | subcode;
+  }
+
+  private static void appendCode(
+    final StringBuilder text,
+    final int kind)
+  {
+    if (kind < 0) {
+      text.append('?');
+      return;
+    }
+
+    text.append((char) (kind >>> 24));
+    text.append((kind >>> 4) & 0xf_ffff);
+    final var subcode = kind & 0xf;
+    if (subcode > 0) {
+      text.append('.');
+      text.append(subcode - 1);
+    }
+  }
+
+  private static int skipSpaces(
+    final CharSequence text,
+    final int start)
+  {
+    int index = start;
+    while (index < text.length() && text.charAt(index) == ' ') {
+      ++index;
+    }
+    return index;
+  }
+
+  private static int skipDigits(
+    final CharSequence text,
+    final int start)
+  {
+    int index = start;
+    while (index < text.length() && Character.isDigit(text.charAt(index))) {
+      ++index;
+    }
+    return index;
+  }
+
+  /**
+   * @return The line number at the start of a command, or {@code -1}
+   */
+
+  private static long commandLineNumber(
+    final CharSequence text)
+  {
+    final var start = skipSpaces(text, 0);
+    if (start >= text.length()
+      || Character.toUpperCase(text.charAt(start)) != 'N') {
+      return -1L;
+    }
+    return parseNumber(text, start + 1);
+  }
+
+  /**
+   * @return The line number in a {@code Resend: N} or {@code rs: N}
+   * request, or {@code -1}
+   */
+
+  private static long resendLineNumber(
+    final CharSequence text)
+  {
+    final int start;
+    if (startsWithIgnoreCase(text, "RESEND:")) {
+      start = 7;
+    } else if (startsWithIgnoreCase(text, "RS:")) {
+      start = 3;
+    } else {
+      return -1L;
+    }
+    return parseNumber(text, skipSpaces(text, start));
+  }
+
+  /**
+   * @return The line number in an {@code ok N...} response, or {@code -1}
+   */
+
+  private static long responseLineNumber(
+    final CharSequence text)
+  {
+    final var length = text.length();
+    for (int index = 2; index + 1 < length; ++index) {
+      if (text.charAt(index) == 'N' && text.charAt(index - 1) == ' ') {
+        return parseNumber(text, index + 1);
+      }
+    }
+    return -1L;
+  }
+
+  private static long parseNumber(
+    final CharSequence text,
+    final int start)
+  {
+    final var end = skipDigits(text, start);
+    if (end == start || end - start > 18) {
+      return -1L;
+    }
+    long value = 0L;
+    for (int index = start; index < end; ++index) {
+      value = value * 10L + (long) (text.charAt(index) - '0');
+    }
+    return value;
+  }
+
+  private void onWrite(
+    final String text)
+  {
+    final var time = this.nanoTime.getAsLong();
+    final var kind = commandKind(text);
+    final var lineNumber = commandLineNumber(text);
+
+    this.lock.lock();
+    try {
+      if (this.pending.size() >= PENDING_MAX) {
+        this.recycle(this.pending.remove());
+        ++this.unpaired;
+      }
+
+      var command = this.free.poll();
+      if (command == null) {
+        command = new Pending();
+      }
+      command.set(time, text, kind, lineNumber);
+      this.pending.add(command);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void recycle(
+    final Pending command)
+  {
+    command.clear();
+    this.free.add(command);
+  }
+
+  private void onRead(
+    final String text)
+  {
+    final var time = this.nanoTime.getAsLong();
+
+    this.lock.lock();
+    try {
+      final var resendLine = resendLineNumber(text);
+      if (resendLine >= 0L) {
+        this.onResend(resendLine);
+        return;
+      }
+
+      if (!startsWithIgnoreCase(text, "OK")) {
+        final var head = this.pending.peek();
+        if (head != null) {
+          head.responses.add(text);
+        }
+        return;
+      }
+
+      if (this.ignoreOKs > 0) {
+        --this.ignoreOKs;
+        return;
+      }
+
+      final var lineNumber = responseLineNumber(text);
+      if (lineNumber >= 0L) {
+        while (!this.pending.isEmpty()) {
+          final var head = this.pending.peek();
+          if (head.lineNumber < 0L || head.lineNumber >= lineNumber) {
+            break;
+          }
+          this.recycle(this.pending.remove());
+          ++this.unpaired;
+        }
+      }
+
+      final var command = this.pending.poll();
+      if (command == null) {
+        return;
+      }
+
+      command.responses.add(text);
+      final var micros =
+        TimeUnit.NANOSECONDS.toMicros(time - command.timeSent);
+      this.histogram(command.kind).record(micros);
+      this.logCompleted(command, micros);
+      this.recycle(command);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * The commands from the given line onwards will be written again, and
+   * will be tracked again when they are. The {@code ok} that follows the
+   * request acknowledges the request rather than a command.
+   */
+
+  private void onResend(
+    final long lineNumber)
+  {
+    while (!this.pending.isEmpty()) {
+      final var last = this.pending.peekLast();
+      if (last.lineNumber < lineNumber) {
+        break;
+      }
+      this.recycle(this.pending.removeLast());
+      ++this.resent;
+    }
+    ++this.ignoreOKs;
+  }
+
+  private ISSerialPortLatencyHistogram histogram(
+    final int kind)
+  {
+    for (int index = 0; index < this.kindCount; ++index) {
+      if (this.kinds[index] == kind) {
+        return this.histograms[index];
+      }
+    }
+
+    if (this.kindCount == this.kinds.length) {
+      this.kinds = Arrays.copyOf(this.kinds, this.kindCount * 2);
+      this.histograms = Arrays.copyOf(this.histograms, this.kindCount * 2);
+    }
+
+    final var histogram = new ISSerialPortLatencyHistogram();
+    this.kinds[this.kindCount] = kind;
+    this.histograms[this.kindCount] = histogram;
+    ++this.kindCount;
+    return histogram;
+  }
+
+  private ISSerialPortLatencyHistogram histogramIfPresent(
+    final String code)
+  {
+    final var kind = commandKind(code);
+    for (int index = 0; index < this.kindCount; ++index) {
+      if (this.kinds[index] == kind) {
+        return this.histograms[index];
+      }
+    }
+    return null;
+  }
+
+  private TreeMap<String, ISSerialPortLatencyHistogram> histogramsByCode()
+  {
+    final var results = new TreeMap<String, ISSerialPortLatencyHistogram>();
+    for (int index = 0; index < this.kindCount; ++index) {
+      final var code = new StringBuilder(8);
+      appendCode(code, this.kinds[index]);
+      results.put(code.toString(), this.histograms[index]);
+    }
+    return results;
+  }
+
+  private void logCompleted(
+    final Pending command,
+    final long micros)
+  {
+    final var text = this.line;
+    text.setLength(0);
+    appendCode(text, command.kind);
+    text.append(' ');
+    text.append(micros);
+    text.append("us ");
+    text.append(command.text);
+    text.append(" =>");
+
+    final var responses = command.responses;
+    for (int index = 0; index < responses.size(); ++index) {
+      text.append(index == 0 ? " " : " | ");
+      text.append(responses.get(index));
+    }
+    this.log.offer(true, text);
+  }
+
+  /**
+   * @return The codes of all commands that have completed
+   */
+
+  public SortedSet<String> commandCodes()
+  {
+    this.lock.lock();
+    try {
+      return new TreeSet<>(this.histogramsByCode().keySet());
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * @param code The command code
+   *
+   * @return The number of completed commands with the given code
+   */
+
+  public long count(
+    final String code)
+  {
+    this.lock.lock();
+    try {
+      final var histogram = this.histogramIfPresent(code);
+      return histogram == null ? 0L : histogram.count();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Estimate a latency percentile. The estimate is within 1/16th of the
+   * true latency.
+   *
+   * @param code       The command code
+   * @param percentile The percentile in the range {@code [0, 100]}
+   *
+   * @return The latency in microseconds, or {@code 0} if no commands with
+   * the given code have completed
+   */
+
+  public long latencyPercentileMicros(
+    final String code,
+    final double percentile)
+  {
+    this.lock.lock();
+    try {
+      final var histogram = this.histogramIfPresent(code);
+      return histogram == null ? 0L : histogram.percentile(percentile);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of commands that were discarded without a response
+   */
+
+  public long unpairedCommands()
+  {
+    this.lock.lock();
+    try {
+      return this.unpaired;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of commands that were discarded because the printer
+   * requested that they be resent
+   */
+
+  public long resentCommands()
+  {
+    this.lock.lock();
+    try {
+      return this.resent;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void logSummary()
+  {
+    for (final var entry : this.histogramsByCode().entrySet()) {
+      final var code = entry.getKey();
+      final var histogram = entry.getValue();
+      this.log.offer(true, String.format(
+        "summary %s count=%d min=%dus mean=%dus p50=%dus p90=%dus p99=%dus max=%dus",
+        code,
+        Long.valueOf(histogram.count()),
+        Long.valueOf(histogram.min()),
+        Long.valueOf(histogram.mean()),
+        Long.valueOf(histogram.percentile(50.0)),
+        Long.valueOf(histogram.percentile(90.0)),
+        Long.valueOf(histogram.percentile(99.0)),
+        Long.valueOf(histogram.max()))
+      );
+    }
+  }
+
+  /**
+   * @return The number of log lines dropped because the background writer
+   * had fallen behind
+   */
+
+  public long droppedLines()
+  {
+    return this.log.dropped();
+  }
+
+  /**
+   * @return The number of log lines discarded because writing to the log
+   * failed
+   */
+
+  public long failedLines()
+  {
+    return this.log.failed();
+  }
+
+  /**
+   * Stop logging, write a summary of the latencies of each command code to
+   * the log, and wait for the log to be written. If writing to the log
+   * failed, the failure is logged and counted in {@link #failedLines()}.
+   */
+
+  @Override
+  public void close()
+  {
+    if (this.subs.isDisposed()) {
+      return;
+    }
+    this.subs.dispose();
+
+    this.lock.lock();
+    try {
+      this.logSummary();
+    } finally {
+      this.lock.unlock();
+    }
+    this.log.close();
+  }
+
+  private static final class Pending
+  {
+    private final ArrayList<String> responses;
+    private long timeSent;
+    private String text;
+    private int kind;
+    private long lineNumber;
+
+    Pending()
+    {
+      this.responses = new ArrayList<>(1);
+    }
+
+    void set(
+      final long inTimeSent,
+      final String inText,
+      final int inKind,
+      final long inLineNumber)
+    {
+      this.timeSent = inTimeSent;
+      this.text = inText;
+      this.kind = inKind;
+      this.lineNumber = inLineNumber;
+    }
+
+    void clear()
+    {
+      this.text = null;
+      this.responses.clear();
+    }
+  }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A background writer for serial port logs.
+ *
+ * Lines are copied into a bounded ring of preallocated slots by any number
+ * of threads, and a single background thread drains the ring in batches.
+ * The log files are flushed once per batch rather than once per line. When
+ * the ring is full, lines are dropped and counted rather than waiting; the
+ * number of dropped lines is written to the affected log at the next
+ * flush.
+ *
+ * If writing to a log fails, the failure is logged, and every later line
+ * destined for that log is counted and discarded. The number of discarded
+ * lines is logged again when the writer is closed.
+ */
+
+final class ISSerialPortLogWriter
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(ISSerialPortLogWriter.class);
+
+  private static final int BATCH_MAX = 256;
+  private static final long FLUSH_WAIT =
+    TimeUnit.MILLISECONDS.toNanos(10L);
+
+  private final Clock clock;
+  private final Log logRead;
+  private final Log logWrite;
+  private final Slot[] slots;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail;
+  private final Thread thread;
+  private final ISSerialPortTimestamps timestamps;
+  private volatile long head;
+  private volatile boolean closed;
+  private volatile boolean waiting;
+
+  ISSerialPortLogWriter(
+    final Clock inClock,
+    final BufferedWriter inLogRead,
+    final BufferedWriter inLogWrite,
+    final int capacity)
+  {
+    this(
+      inClock,
+      new Log("lines read", inLogRead),
+      new Log("lines written", inLogWrite),
+      capacity
+    );
+  }
+
+  /**
+   * Create a writer for a single log. Lines are written to the log
+   * regardless of the value of {@code read} passed to
+   * {@link #offer(boolean, CharSequence)}.
+   *
+   * @param inClock  The clock
+   * @param inName   The name of the log used in error messages
+   * @param inLog    The log
+   * @param capacity The maximum number of lines waiting to be written
+   */
+
+  ISSerialPortLogWriter(
+    final Clock inClock,
+    final String inName,
+    final BufferedWriter inLog,
+    final int capacity)
+  {
+    this(inClock, new Log(inName, inLog), null, capacity);
+  }
+
+  private ISSerialPortLogWriter(
+    final Clock inClock,
+    final Log inLogRead,
+    final Log inLogWrite,
+    final int capacity)
+  {
+    this.clock = inClock;
+    this.logRead = inLogRead;
+    this.logWrite = inLogWrite == null ? inLogRead : inLogWrite;
+
+    final var size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    this.slots = new Slot[size];
+    this.sequences = new AtomicLongArray(size);
+    for (int index = 0; index < size; ++index) {
+      this.slots[index] = new Slot();
+      this.sequences.set(index, index);
+    }
+    this.mask = size - 1;
+    this.tail = new AtomicLong(0L);
+    this.timestamps = new ISSerialPortTimestamps();
+
+    this.thread = new Thread(this::run);
+    this.thread.setName(String.format(
+      "com.io7m.ironstrata.serialport.logger.%d",
+      Long.valueOf(this.thread.getId()))
+    );
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  long dropped()
+  {
+    if (this.logRead == this.logWrite) {
+      return this.logRead.dropped.get();
+    }
+    return this.logRead.dropped.get() + this.logWrite.dropped.get();
+  }
+
+  long failed()
+  {
+    if (this.logRead == this.logWrite) {
+      return this.logRead.failed.get();
+    }
+    return this.logRead.failed.get() + this.logWrite.failed.get();
+  }
+
+  /**
+   * Add a line to the ring. This method never blocks.
+   *
+   * @param read {@code true} if the line was read from the port
+   * @param text The line
+   */
+
+  void offer(
+    final boolean read,
+    final CharSequence text)
+  {
+    final var time = this.clock.instant();
+
+    while (true) {
+      final var position = this.tail.get();
+      final var index = (int) (position & this.mask);
+      final var sequence = this.sequences.get(index);
+
+      if (sequence < position) {
+        if (read) {
+          this.logRead.dropped.incrementAndGet();
+        } else {
+          this.logWrite.dropped.incrementAndGet();
+        }
+        return;
+      }
+
+      if (sequence == position
+        && this.tail.compareAndSet(position, position + 1L)) {
+        this.slots[index].set(read, time, text);
+        this.sequences.set(index, position + 1L);
+
+        final var used = position + 1L - this.head;
+        if (this.waiting && used >= (this.slots.length >> 1)) {
+          LockSupport.unpark(this.thread);
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Write all remaining lines and stop the background thread.
+   */
+
+  void close()
+  {
+    this.closed = true;
+    LockSupport.unpark(this.thread);
+
+    try {
+      this.thread.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    this.logRead.reportFailure();
+    if (this.logWrite != this.logRead) {
+      this.logWrite.reportFailure();
+    }
+  }
+
+  private void run()
+  {
+    var pending = false;
+
+    while (true) {
+      final var closing = this.closed;
+      final var count = this.drain();
+
+      if (count > 0) {
+        pending = true;
+        if (count == BATCH_MAX) {
+          continue;
+        }
+      }
+
+      if (pending) {
+        this.flush();
+        pending = false;
+      }
+
+      if (closing) {
+        if (count == 0) {
+          this.flush();
+          return;
+        }
+        continue;
+      }
+
+      this.waiting = true;
+      LockSupport.parkNanos(this, FLUSH_WAIT);
+      this.waiting = false;
+    }
+  }
+
+  private int drain()
+  {
+    var count = 0;
+    while (count < BATCH_MAX) {
+      final var index = (int) (this.head & this.mask);
+      if (this.sequences.get(index) != this.head + 1L) {
+        break;
+      }
+
+      final var slot = this.slots[index];
+      final var log = slot.read ? this.logRead : this.logWrite;
+      if (log.failure == null) {
+        try {
+          slot.writeTo(log.writer, this.timestamps);
+        } catch (final IOException e) {
+          log.fail(e);
+          log.failed.incrementAndGet();
+        }
+      } else {
+        log.failed.incrementAndGet();
+      }
+
+      this.sequences.set(index, this.head + this.slots.length);
+      ++this.head;
+      ++count;
+    }
+    return count;
+  }
+
+  private void flush()
+  {
+    this.flush(this.logRead);
+    if (this.logWrite != this.logRead) {
+      this.flush(this.logWrite);
+    }
+  }
+
+  private void flush(
+    final Log log)
+  {
+    if (log.failure != null) {
+      return;
+    }
+
+    try {
+      this.reportDropped(log);
+      log.writer.flush();
+    } catch (final IOException e) {
+      log.fail(e);
+    }
+  }
+
+  private void reportDropped(
+    final Log log)
+    throws IOException
+  {
+    final var current = log.dropped.get();
+    if (current != log.reported) {
+      final var time = this.clock.instant();
+      this.timestamps.write(log.writer, time.getEpochSecond(), time.getNano());
+      log.writer.append(" [");
+      log.writer.append(Long.toString(current - log.reported));
+      log.writer.append(" lines dropped]\n");
+    }
+    log.reported = current;
+  }
+
+  private static final class Log
+  {
+    private final String name;
+    private final BufferedWriter writer;
+    private final AtomicLong dropped;
+    private final AtomicLong failed;
+    private long reported;
+    private volatile IOException failure;
+
+    Log(
+      final String inName,
+      final BufferedWriter inWriter)
+    {
+      this.name = inName;
+      this.writer = inWriter;
+      this.dropped = new AtomicLong(0L);
+      this.failed = new AtomicLong(0L);
+    }
+
+    void fail(
+      final IOException e)
+    {
+      LOG.error(
+        "failed to write the log of {}; discarding further lines: ",
+        this.name,
+        e
+      );
+      this.failure = e;
+    }
+
+    void reportFailure()
+    {
+      if (this.failure != null) {
+        LOG.error(
+          "failed to write the log of {}; {} lines were discarded",
+          this.name,
+          Long.valueOf(this.failed.get())
+        );
+      }
+    }
+  }
+
+  private static final class Slot
+  {
+    private final StringBuilder text;
+    private boolean read;
+    private long seconds;
+    private int nanos;
+
+    Slot()
+    {
+      this.text = new StringBuilder(128);
+    }
+
+    void set(
+      final boolean inRead,
+      final Instant time,
+      final CharSequence inText)
+    {
+      this.read = inRead;
+      this.seconds = time.getEpochSecond();
+      this.nanos = time.getNano();
+      this.text.setLength(0);
+      this.text.append(inText);
+    }
+
+    void writeTo(
+      final BufferedWriter log,
+      final ISSerialPortTimestamps timestamps)
+      throws IOException
+    {
+      timestamps.write(log, this.seconds, this.nanos);
+      log.append(' ');
+      log.append(this.text);
+      log.append('\n');
+    }
+  }
+}
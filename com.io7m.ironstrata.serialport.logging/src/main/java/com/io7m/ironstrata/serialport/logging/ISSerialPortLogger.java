@@ -23,10 +23,16 @@ import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.IOException;
 import java.time.Clock;
-import java.time.OffsetDateTime;
 import java.util.Objects;
+import java.util.Optional;
 
-import static java.time.format.DateTimeFormatter.ISO_INSTANT;
+/**
+ * A logger that records the lines read from and written to a serial port.
+ *
+ * By default, each line is written and flushed on the thread that read or
+ * wrote it. An asynchronous logger instead hands lines to a background
+ * writer, so that a slow disk cannot stall the port.
+ */
 
 public final class ISSerialPortLogger implements Closeable
 {
@@ -35,6 +41,9 @@ public final class ISSerialPortLogger implements Closeable
   private final BufferedWriter logRead;
   private final BufferedWriter logWrite;
   private final CompositeDisposable subs;
+  private final Optional<ISSerialPortLogWriter> writer;
+  private final ISSerialPortTimestamps timesRead;
+  private final ISSerialPortTimestamps timesWrite;
 
   public ISSerialPortLogger(
     final ISSerialPortType inDelegate,
@@ -49,6 +58,16 @@ public final class ISSerialPortLogger implements Closeable
     final ISSerialPortType inDelegate,
     final BufferedWriter inLogRead,
     final BufferedWriter inLogWrite)
+  {
+    this(inClock, inDelegate, inLogRead, inLogWrite, 0);
+  }
+
+  private ISSerialPortLogger(
+    final Clock inClock,
+    final ISSerialPortType inDelegate,
+    final BufferedWriter inLogRead,
+    final BufferedWriter inLogWrite,
+    final int capacity)
   {
     this.clock =
       Objects.requireNonNull(inClock, "inClock");
@@ -60,16 +79,83 @@ public final class ISSerialPortLogger implements Closeable
       Objects.requireNonNull(inLogWrite, "logWrite");
 
     this.subs = new CompositeDisposable();
-    this.subs.add(this.delegate.reads().subscribe(this::logReadLine));
-    this.subs.add(this.delegate.writes().subscribe(this::logWriteLine));
+    this.timesRead = new ISSerialPortTimestamps();
+    this.timesWrite = new ISSerialPortTimestamps();
+
+    if (capacity > 0) {
+      final var async =
+        new ISSerialPortLogWriter(
+          this.clock, this.logRead, this.logWrite, capacity);
+      this.writer = Optional.of(async);
+      this.subs.add(
+        this.delegate.reads().subscribe(text -> async.offer(true, text)));
+      this.subs.add(
+        this.delegate.writes().subscribe(text -> async.offer(false, text)));
+    } else {
+      this.writer = Optional.empty();
+      this.subs.add(this.delegate.reads().subscribe(this::logReadLine));
+      this.subs.add(this.delegate.writes().subscribe(this::logWriteLine));
+    }
+  }
+
+  /**
+   * Create an asynchronous logger. Lines are placed into a bounded ring and
+   * written by a background thread, which flushes the logs once per batch
+   * of lines. If the ring is full, lines are dropped rather than waiting.
+   * Closing the logger writes any lines remaining in the ring. If writing
+   * to either log fails, the failure is logged, and later lines for that
+   * log are discarded and counted in {@link #failedLines()}.
+   *
+   * @param clock    The clock
+   * @param delegate The serial port
+   * @param logRead  The log of lines read
+   * @param logWrite The log of lines written
+   * @param capacity The maximum number of lines waiting to be written
+   *
+   * @return A logger
+   */
+
+  public static ISSerialPortLogger createAsynchronous(
+    final Clock clock,
+    final ISSerialPortType delegate,
+    final BufferedWriter logRead,
+    final BufferedWriter logWrite,
+    final int capacity)
+  {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    return new ISSerialPortLogger(
+      clock, delegate, logRead, logWrite, capacity);
+  }
+
+  /**
+   * @return The number of lines that an asynchronous logger has dropped
+   */
+
+  public long droppedLines()
+  {
+    return this.writer.map(ISSerialPortLogWriter::dropped).orElse(0L)
+      .longValue();
+  }
+
+  /**
+   * @return The number of lines that an asynchronous logger has discarded
+   * because writing to a log failed
+   */
+
+  public long failedLines()
+  {
+    return this.writer.map(ISSerialPortLogWriter::failed).orElse(0L)
+      .longValue();
   }
 
   private void logReadLine(
     final CharSequence text)
     throws IOException
   {
-    final var time = OffsetDateTime.now(this.clock);
-    this.logRead.append(ISO_INSTANT.format(time));
+    final var time = this.clock.instant();
+    this.timesRead.write(this.logRead, time.getEpochSecond(), time.getNano());
     this.logRead.append(' ');
     this.logRead.append(text);
     this.logRead.append('\n');
@@ -80,8 +166,8 @@ public final class ISSerialPortLogger implements Closeable
     final CharSequence text)
     throws IOException
   {
-    final var time = OffsetDateTime.now(this.clock);
-    this.logWrite.append(ISO_INSTANT.format(time));
+    final var time = this.clock.instant();
+    this.timesWrite.write(this.logWrite, time.getEpochSecond(), time.getNano());
     this.logWrite.append(' ');
     this.logWrite.append(text);
     this.logWrite.append('\n');
@@ -92,5 +178,6 @@ public final class ISSerialPortLogger implements Closeable
   public void close()
   {
     this.subs.dispose();
+    this.writer.ifPresent(ISSerialPortLogWriter::close);
   }
 }
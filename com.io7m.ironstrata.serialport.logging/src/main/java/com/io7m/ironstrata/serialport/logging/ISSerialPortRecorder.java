@@ -0,0 +1,494 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.logging;
+
+import com.io7m.ironstrata.serialport.api.ISSerialPortType;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A recorder that writes the lines read from and written to a serial port
+ * into a compact binary recording.
+ *
+ * A recording consists of a data file and an index file. The data file
+ * begins with a header (see {@link ISSerialPortRecording}), followed by an
+ * interleaved stream of records. Each record holds the monotonic time in
+ * nanoseconds since the previous record as a variable-length integer, a
+ * direction byte, the length of the line in bytes as a variable-length
+ * integer, and the line encoded as UTF-8. The data file is appended through memory-mapped
+ * segments, and the unused remainder of the last segment is left zeroed,
+ * which a reader sees as the end of the recording.
+ *
+ * The index file holds a pair of 64-bit values for the first record after
+ * each index interval has elapsed: the time of the preceding record in
+ * nanoseconds since the start of the recording (which is the time that
+ * the indexed record's delta is relative to), and the offset of the
+ * indexed record in the data file. This
+ * allows a reader to seek to any point in a long recording without reading
+ * everything before it.
+ *
+ * Lines are timestamped and copied into a bounded pool of preallocated
+ * records on the thread that read or wrote them, and a background thread
+ * encodes the records and appends them to the files, so that remapping
+ * the data file or writing the index cannot stall the port. If every
+ * record in the pool is waiting to be written, lines are dropped and
+ * counted rather than waiting. If writing fails, the failure is logged,
+ * later lines are discarded, and the failure is raised when the recorder
+ * is closed.
+ */
+
+public final class ISSerialPortRecorder implements Closeable
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(ISSerialPortRecorder.class);
+
+  private static final int SEGMENT_SIZE = 1 << 20;
+  private static final int RECORD_OVERHEAD = 10 + 1 + 5;
+  private static final int CAPACITY = 1024;
+
+  private final ISSerialPortType delegate;
+  private final LongSupplier nanoTime;
+  private final long indexIntervalNanos;
+  private final FileChannel data;
+  private final FileChannel index;
+  private final ByteBuffer indexBuffer;
+  private final CompositeDisposable subs;
+  private final BlockingQueue<Record> free;
+  private final BlockingQueue<Record> filled;
+  private final Record stop;
+  private final AtomicLong dropped;
+  private final AtomicLong failed;
+  private final AtomicBoolean closed;
+  private final CharsetEncoder encoder;
+  private final Thread thread;
+  private ByteBuffer encoded;
+  private MappedByteBuffer segment;
+  private long segmentStart;
+  private long timeStart;
+  private long timeLast;
+  private long timeIndexNext;
+  private volatile IOException failure;
+
+  private ISSerialPortRecorder(
+    final ISSerialPortType inDelegate,
+    final LongSupplier inNanoTime,
+    final Duration inIndexInterval,
+    final FileChannel inData,
+    final FileChannel inIndex)
+  {
+    this.delegate =
+      Objects.requireNonNull(inDelegate, "delegate");
+    this.nanoTime =
+      Objects.requireNonNull(inNanoTime, "nanoTime");
+    this.indexIntervalNanos =
+      Objects.requireNonNull(inIndexInterval, "indexInterval").toNanos();
+    this.data =
+      Objects.requireNonNull(inData, "data");
+    this.index =
+      Objects.requireNonNull(inIndex, "index");
+
+    this.indexBuffer = ByteBuffer.allocate(16);
+    this.subs = new CompositeDisposable();
+    this.dropped = new AtomicLong(0L);
+    this.failed = new AtomicLong(0L);
+    this.closed = new AtomicBoolean(false);
+
+    this.free = new ArrayBlockingQueue<>(CAPACITY);
+    this.filled = new ArrayBlockingQueue<>(CAPACITY + 1);
+    for (int count = 0; count < CAPACITY; ++count) {
+      this.free.add(new Record());
+    }
+    this.stop = new Record();
+
+    this.encoder =
+      UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    this.encoded = ByteBuffer.allocate(256);
+
+    this.thread = new Thread(this::run);
+    this.thread.setName(String.format(
+      "com.io7m.ironstrata.serialport.recorder.%d",
+      Long.valueOf(this.thread.getId()))
+    );
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Start recording the traffic on a port.
+   *
+   * @param clock         The clock used to timestamp the start of the
+   *                      recording
+   * @param nanoTime      The monotonic time source (such as
+   *                      {@link System#nanoTime()})
+   * @param delegate      The serial port
+   * @param dataFile      The recording data file
+   * @param indexFile     The recording index file
+   * @param indexInterval The minimum time between index entries
+   *
+   * @return A recorder
+   *
+   * @throws IOException On errors
+   */
+
+  public static ISSerialPortRecorder create(
+    final Clock clock,
+    final LongSupplier nanoTime,
+    final ISSerialPortType delegate,
+    final Path dataFile,
+    final Path indexFile,
+    final Duration indexInterval)
+    throws IOException
+  {
+    Objects.requireNonNull(clock, "clock");
+    Objects.requireNonNull(dataFile, "dataFile");
+    Objects.requireNonNull(indexFile, "indexFile");
+
+    if (indexInterval.isNegative() || indexInterval.isZero()) {
+      throw new IllegalArgumentException("Index interval must be positive");
+    }
+
+    final var data =
+      FileChannel.open(dataFile, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+
+    try {
+      final var index =
+        FileChannel.open(indexFile, CREATE, TRUNCATE_EXISTING, WRITE);
+
+      try {
+        final var recorder =
+          new ISSerialPortRecorder(
+            delegate, nanoTime, indexInterval, data, index);
+        recorder.start(clock);
+        return recorder;
+      } catch (final IOException e) {
+        index.close();
+        throw e;
+      }
+    } catch (final IOException e) {
+      data.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Start recording the traffic on a port, using the system clock and
+   * an index entry for every second of traffic.
+   *
+   * @param delegate  The serial port
+   * @param dataFile  The recording data file
+   * @param indexFile The recording index file
+   *
+   * @return A recorder
+   *
+   * @throws IOException On errors
+   */
+
+  public static ISSerialPortRecorder create(
+    final ISSerialPortType delegate,
+    final Path dataFile,
+    final Path indexFile)
+    throws IOException
+  {
+    return create(
+      Clock.systemUTC(),
+      System::nanoTime,
+      delegate,
+      dataFile,
+      indexFile,
+      Duration.ofSeconds(1L)
+    );
+  }
+
+  private void start(
+    final Clock clock)
+    throws IOException
+  {
+    final var timeWall = clock.instant();
+    this.timeStart = this.nanoTime.getAsLong();
+    this.timeLast = this.timeStart;
+    this.timeIndexNext = this.timeStart;
+
+    this.segmentStart = 0L;
+    this.segment = this.data.map(READ_WRITE, 0L, SEGMENT_SIZE);
+    this.segment.putLong(ISSerialPortRecording.MAGIC);
+    this.segment.putInt(ISSerialPortRecording.VERSION);
+    this.segment.putInt(0);
+    this.segment.putLong(timeWall.getEpochSecond());
+    this.segment.putInt(timeWall.getNano());
+    this.segment.putInt(0);
+
+    this.thread.start();
+    this.subs.add(this.delegate.reads().subscribe(this::recordRead));
+    this.subs.add(this.delegate.writes().subscribe(this::recordWrite));
+  }
+
+  /**
+   * @return The number of lines that were dropped because the recorder
+   * could not keep up
+   */
+
+  public long droppedLines()
+  {
+    return this.dropped.get();
+  }
+
+  /**
+   * @return The number of lines that were discarded because writing the
+   * recording failed
+   */
+
+  public long failedLines()
+  {
+    return this.failed.get();
+  }
+
+  private void recordRead(
+    final CharSequence text)
+  {
+    this.offer(ISSerialPortRecording.DIRECTION_READ, text);
+  }
+
+  private void recordWrite(
+    final CharSequence text)
+  {
+    this.offer(ISSerialPortRecording.DIRECTION_WRITE, text);
+  }
+
+  /**
+   * Queue a line for the background thread. This method never blocks.
+   */
+
+  private void offer(
+    final byte direction,
+    final CharSequence text)
+  {
+    final var record = this.free.poll();
+    if (record == null) {
+      this.dropped.incrementAndGet();
+      return;
+    }
+
+    record.set(direction, this.nanoTime.getAsLong(), text);
+    this.filled.add(record);
+  }
+
+  private void run()
+  {
+    while (true) {
+      final Record record;
+      try {
+        record = this.filled.take();
+      } catch (final InterruptedException e) {
+        continue;
+      }
+      if (record == this.stop) {
+        return;
+      }
+
+      if (this.failure == null) {
+        try {
+          this.record(record);
+        } catch (final IOException e) {
+          LOG.error(
+            "failed to write the recording; discarding further lines: ",
+            e
+          );
+          this.failure = e;
+          this.failed.incrementAndGet();
+        }
+      } else {
+        this.failed.incrementAndGet();
+      }
+      this.free.add(record);
+    }
+  }
+
+  private void record(
+    final Record record)
+    throws IOException
+  {
+    final var text = this.encode(record.text);
+    final var length = text.remaining();
+    this.ensureSpace(RECORD_OVERHEAD + length);
+
+    final var time = record.time;
+    if (time - this.timeIndexNext >= 0L) {
+      this.writeIndex(time);
+    }
+
+    putVarLong(this.segment, Math.max(0L, time - this.timeLast));
+    this.segment.put(record.direction);
+    putVarLong(this.segment, length);
+    this.segment.put(text);
+    this.timeLast = Math.max(this.timeLast, time);
+  }
+
+  private ByteBuffer encode(
+    final CharSequence text)
+  {
+    final var size =
+      (int) Math.ceil(text.length() * this.encoder.maxBytesPerChar());
+    if (this.encoded.capacity() < size) {
+      this.encoded = ByteBuffer.allocate(Math.max(size, 2 * this.encoded.capacity()));
+    }
+
+    this.encoded.clear();
+    this.encoder.reset();
+    this.encoder.encode(CharBuffer.wrap(text), this.encoded, true);
+    this.encoder.flush(this.encoded);
+    this.encoded.flip();
+    return this.encoded;
+  }
+
+  private void writeIndex(
+    final long time)
+    throws IOException
+  {
+    this.indexBuffer.clear();
+    this.indexBuffer.putLong(this.timeLast - this.timeStart);
+    this.indexBuffer.putLong(this.segmentStart + this.segment.position());
+    this.indexBuffer.flip();
+    while (this.indexBuffer.hasRemaining()) {
+      this.index.write(this.indexBuffer);
+    }
+    this.timeIndexNext = time + this.indexIntervalNanos;
+  }
+
+  private void ensureSpace(
+    final int size)
+    throws IOException
+  {
+    if (this.segment.remaining() >= size) {
+      return;
+    }
+
+    final var position = this.segmentStart + this.segment.position();
+    this.segmentStart = position;
+    this.segment =
+      this.data.map(READ_WRITE, position, Math.max(SEGMENT_SIZE, size));
+  }
+
+  private static void putVarLong(
+    final ByteBuffer buffer,
+    final long value)
+  {
+    var v = value;
+    while ((v & ~0x7fL) != 0L) {
+      buffer.put((byte) ((v & 0x7fL) | 0x80L));
+      v >>>= 7;
+    }
+    buffer.put((byte) v);
+  }
+
+  /**
+   * Stop recording, write any lines that are still queued, and close the
+   * recording.
+   *
+   * @throws IOException If writing the recording failed at any point
+   */
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    this.subs.dispose();
+
+    if (!this.closed.compareAndSet(false, true)) {
+      return;
+    }
+
+    this.filled.add(this.stop);
+    try {
+      this.thread.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    this.segment.force();
+    this.segment = null;
+
+    try {
+      this.index.force(true);
+    } finally {
+      try {
+        this.data.close();
+      } finally {
+        this.index.close();
+      }
+    }
+
+    final var error = this.failure;
+    if (error != null) {
+      throw new IOException(
+        String.format(
+          "Failed to write the recording; %d lines were discarded",
+          Long.valueOf(this.failed.get())),
+        error
+      );
+    }
+  }
+
+  private static final class Record
+  {
+    private final StringBuilder text;
+    private byte direction;
+    private long time;
+
+    Record()
+    {
+      this.text = new StringBuilder(128);
+    }
+
+    void set(
+      final byte inDirection,
+      final long inTime,
+      final CharSequence inText)
+    {
+      this.direction = inDirection;
+      this.time = inTime;
+      this.text.setLength(0);
+      this.text.append(inText);
+    }
+  }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.logging;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * A reader for recordings produced by {@link ISSerialPortRecorder}.
+ *
+ * The data file begins with a 32 byte header: the magic number
+ * {@code ISREC001}, a 32-bit version, four reserved bytes, the wall clock
+ * time at which the recording started as 64-bit epoch seconds and 32-bit
+ * nanoseconds, and four reserved bytes. All values are big-endian.
+ */
+
+public final class ISSerialPortRecording implements Closeable
+{
+  static final long MAGIC = 0x4953_5245_4330_3031L;
+  static final int VERSION = 1;
+  static final byte DIRECTION_END = 0;
+  static final byte DIRECTION_READ = 1;
+  static final byte DIRECTION_WRITE = 2;
+  static final int HEADER_SIZE = 32;
+
+  private final FileChannel data;
+  private final LongBuffer index;
+  private final Instant timeStart;
+  private ByteBuffer buffer;
+  private long bufferStart;
+  private long time;
+  private byte direction;
+  private byte[] text;
+  private int textLength;
+  private boolean pending;
+  private boolean ended;
+
+  private ISSerialPortRecording(
+    final FileChannel inData,
+    final LongBuffer inIndex,
+    final Instant inTimeStart)
+  {
+    this.data = Objects.requireNonNull(inData, "data");
+    this.index = Objects.requireNonNull(inIndex, "index");
+    this.timeStart = Objects.requireNonNull(inTimeStart, "timeStart");
+    this.buffer = ByteBuffer.allocate(65536);
+    this.buffer.limit(0);
+    this.bufferStart = HEADER_SIZE;
+    this.text = new byte[128];
+  }
+
+  /**
+   * Open a recording.
+   *
+   * @param dataFile  The recording data file
+   * @param indexFile The recording index file
+   *
+   * @return A recording positioned at the start
+   *
+   * @throws IOException On errors
+   */
+
+  public static ISSerialPortRecording open(
+    final Path dataFile,
+    final Path indexFile)
+    throws IOException
+  {
+    Objects.requireNonNull(dataFile, "dataFile");
+    Objects.requireNonNull(indexFile, "indexFile");
+
+    final var data = FileChannel.open(dataFile, READ);
+    try {
+      final var header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining()) {
+        if (data.read(header, header.position()) < 0) {
+          throw new IOException("Recording header is truncated");
+        }
+      }
+      header.flip();
+
+      if (header.getLong() != MAGIC) {
+        throw new IOException("Not a serial port recording");
+      }
+      final var version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException(String.format(
+          "Unsupported recording version %d", Integer.valueOf(version)));
+      }
+      header.getInt();
+      final var seconds = header.getLong();
+      final var nanos = header.getInt();
+
+      final LongBuffer index;
+      try (var indexChannel = FileChannel.open(indexFile, READ)) {
+        final var size = indexChannel.size() & ~15L;
+        index = indexChannel.map(READ_ONLY, 0L, size).asLongBuffer();
+      }
+
+      return new ISSerialPortRecording(
+        data, index, Instant.ofEpochSecond(seconds, nanos));
+    } catch (final IOException e) {
+      data.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return The wall clock time at which the recording started
+   */
+
+  public Instant timeStart()
+  {
+    return this.timeStart;
+  }
+
+  /**
+   * Position the recording such that the next call to {@link #next()}
+   * yields the first record at or after the given time.
+   *
+   * @param target The time since the start of the recording
+   *
+   * @throws IOException On errors
+   */
+
+  public void seek(
+    final Duration target)
+    throws IOException
+  {
+    final var targetNanos = target.toNanos();
+
+    var low = 0;
+    var high = (this.index.limit() / 2) - 1;
+    var found = -1;
+    while (low <= high) {
+      final var middle = (low + high) >>> 1;
+      if (this.index.get(middle * 2) < targetNanos) {
+        found = middle;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+
+    if (found >= 0) {
+      this.reposition(
+        this.index.get(found * 2 + 1),
+        this.index.get(found * 2));
+    } else {
+      this.reposition(HEADER_SIZE, 0L);
+    }
+
+    while (this.readRecord()) {
+      if (this.time >= targetNanos) {
+        this.pending = true;
+        return;
+      }
+    }
+  }
+
+  private void reposition(
+    final long offset,
+    final long timeBase)
+  {
+    this.bufferStart = offset;
+    this.buffer.clear();
+    this.buffer.limit(0);
+    this.time = timeBase;
+    this.pending = false;
+    this.ended = false;
+  }
+
+  /**
+   * Advance to the next record.
+   *
+   * @return {@code false} if there are no more records
+   *
+   * @throws IOException On errors
+   */
+
+  public boolean next()
+    throws IOException
+  {
+    if (this.pending) {
+      this.pending = false;
+      return true;
+    }
+    return this.readRecord();
+  }
+
+  /**
+   * @return The time of the current record since the start of the recording
+   */
+
+  public Duration time()
+  {
+    return Duration.ofNanos(this.time);
+  }
+
+  /**
+   * @return {@code true} if the current record was read from the port
+   */
+
+  public boolean isRead()
+  {
+    return this.direction == DIRECTION_READ;
+  }
+
+  /**
+   * @return The text of the current record
+   */
+
+  public String text()
+  {
+    return new String(this.text, 0, this.textLength, UTF_8);
+  }
+
+  private boolean readRecord()
+    throws IOException
+  {
+    if (this.ended) {
+      return false;
+    }
+
+    if (!this.fill(11)) {
+      this.ended = true;
+      return false;
+    }
+
+    final var delta = this.getVarLong();
+    final var recordDirection = this.buffer.get();
+    if (recordDirection == DIRECTION_END) {
+      this.ended = true;
+      return false;
+    }
+
+    if (!this.fill(5)) {
+      throw new IOException("Recording record is truncated");
+    }
+    final var length = (int) this.getVarLong();
+    if (!this.fill(length)) {
+      throw new IOException("Recording record is truncated");
+    }
+
+    if (length > this.text.length) {
+      this.text = new byte[Math.max(length, this.text.length * 2)];
+    }
+    this.buffer.get(this.text, 0, length);
+    this.textLength = length;
+    this.direction = recordDirection;
+    this.time += delta;
+    return true;
+  }
+
+  /**
+   * Ensure that at least {@code size} bytes are buffered, unless the end of
+   * the file is reached first.
+   *
+   * @return {@code false} if no bytes at all remain
+   */
+
+  private boolean fill(
+    final int size)
+    throws IOException
+  {
+    if (this.buffer.remaining() >= size) {
+      return true;
+    }
+
+    this.bufferStart += this.buffer.position();
+    if (size > this.buffer.capacity()) {
+      final var larger = ByteBuffer.allocate(size);
+      larger.put(this.buffer);
+      this.buffer = larger;
+    } else {
+      this.buffer.compact();
+    }
+
+    while (this.buffer.hasRemaining()) {
+      final var count =
+        this.data.read(
+          this.buffer, this.bufferStart + this.buffer.position());
+      if (count < 0) {
+        break;
+      }
+    }
+    this.buffer.flip();
+    return this.buffer.hasRemaining();
+  }
+
+  private long getVarLong()
+    throws IOException
+  {
+    long value = 0L;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (!this.buffer.hasRemaining()) {
+        throw new IOException("Recording record is truncated");
+      }
+      final var b = this.buffer.get();
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable-length integer");
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    this.data.close();
+  }
+}
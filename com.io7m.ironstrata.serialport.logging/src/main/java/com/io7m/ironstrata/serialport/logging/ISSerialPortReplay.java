@@ -0,0 +1,240 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.logging;
+
+import com.io7m.ironstrata.serialport.api.ISSerialLineEncoder;
+import com.io7m.ironstrata.serialport.api.ISSerialPortType;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A serial port that replays the printer side of a recording produced by
+ * {@link ISSerialPortRecorder}.
+ *
+ * Lines that the printer sent are returned from {@link #readLine()} at
+ * their recorded times, divided by a speed factor. Lines that the host
+ * sent are not replayed; instead, when the next recorded line is one that
+ * the host sent, reads wait until something is written to this port. Each
+ * write is matched with one recorded host line; writes that arrive before
+ * their recorded line has been reached (because the host sends several
+ * commands ahead of the responses, or because the replay is accelerated)
+ * are counted, and are matched as the replay reaches each recorded host
+ * line. Matching a write re-anchors the replay clock, so that responses
+ * are timed relative to the command that provoked them rather than
+ * drifting with the speed of the host. The contents of written lines are
+ * not compared against the recording.
+ */
+
+public final class ISSerialPortReplay implements ISSerialPortType
+{
+  private final ISSerialPortRecording recording;
+  private final double speed;
+  private final long readTimeoutNanos;
+  private final ReentrantLock lock;
+  private final Condition written;
+  private final PublishSubject<String> reads;
+  private final PublishSubject<String> writes;
+  private boolean haveRecord;
+  private boolean ended;
+  private long anchorReal;
+  private long anchorRecorded;
+  private long unmatchedWrites;
+
+  private ISSerialPortReplay(
+    final ISSerialPortRecording inRecording,
+    final double inSpeed,
+    final Duration inReadTimeout)
+  {
+    this.recording =
+      Objects.requireNonNull(inRecording, "recording");
+    this.readTimeoutNanos =
+      Objects.requireNonNull(inReadTimeout, "readTimeout").toNanos();
+    this.speed = inSpeed;
+
+    this.lock = new ReentrantLock();
+    this.written = this.lock.newCondition();
+    this.reads = PublishSubject.create();
+    this.writes = PublishSubject.create();
+    this.anchorReal = System.nanoTime();
+    this.anchorRecorded = 0L;
+  }
+
+  /**
+   * Open a recording for replay.
+   *
+   * @param dataFile    The recording data file
+   * @param indexFile   The recording index file
+   * @param speed       The speed factor (such as {@code 1.0} for the original
+   *                    timing, or {@code 10.0} for ten times faster); use
+   *                    {@link Double#POSITIVE_INFINITY} to replay as fast as
+   *                    possible
+   * @param readTimeout The maximum time a read will wait for a line
+   *
+   * @return A replaying port
+   *
+   * @throws IOException On errors
+   */
+
+  public static ISSerialPortReplay open(
+    final Path dataFile,
+    final Path indexFile,
+    final double speed,
+    final Duration readTimeout)
+    throws IOException
+  {
+    if (!(speed > 0.0)) {
+      throw new IllegalArgumentException("Speed must be positive");
+    }
+
+    return new ISSerialPortReplay(
+      ISSerialPortRecording.open(dataFile, indexFile),
+      speed,
+      readTimeout
+    );
+  }
+
+  @Override
+  public Observable<String> reads()
+  {
+    return this.reads;
+  }
+
+  @Override
+  public Observable<String> writes()
+  {
+    return this.writes;
+  }
+
+  private boolean advance()
+    throws IOException
+  {
+    if (this.haveRecord) {
+      return true;
+    }
+    if (this.ended) {
+      return false;
+    }
+    if (this.recording.next()) {
+      this.haveRecord = true;
+      return true;
+    }
+    this.ended = true;
+    return false;
+  }
+
+  /**
+   * Match any outstanding writes with the recorded host lines at the
+   * current position in the recording.
+   */
+
+  private void matchWrites()
+    throws IOException
+  {
+    while (this.unmatchedWrites > 0L
+      && this.advance()
+      && !this.recording.isRead()) {
+      --this.unmatchedWrites;
+      this.haveRecord = false;
+      this.anchorReal = System.nanoTime();
+      this.anchorRecorded = this.recording.time().toNanos();
+    }
+  }
+
+  private long dueTime()
+  {
+    if (Double.isInfinite(this.speed)) {
+      return this.anchorReal;
+    }
+
+    final var elapsed = this.recording.time().toNanos() - this.anchorRecorded;
+    return this.anchorReal + (long) (elapsed / this.speed);
+  }
+
+  @Override
+  public String readLine()
+    throws IOException
+  {
+    this.lock.lock();
+    try {
+      final var deadline = System.nanoTime() + this.readTimeoutNanos;
+
+      while (true) {
+        final var now = System.nanoTime();
+        final var remaining = deadline - now;
+
+        this.matchWrites();
+        if (this.advance() && this.recording.isRead()) {
+          final var wait = this.dueTime() - now;
+          if (wait <= 0L) {
+            this.haveRecord = false;
+            final var text = this.recording.text();
+            this.reads.onNext(text);
+            return text;
+          }
+          if (remaining <= 0L) {
+            return null;
+          }
+          this.written.awaitNanos(Math.min(wait, remaining));
+          continue;
+        }
+
+        if (remaining <= 0L) {
+          return null;
+        }
+        this.written.awaitNanos(remaining);
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public void writeLine(
+    final String text)
+    throws IOException
+  {
+    this.lock.lock();
+    try {
+      this.writes.onNext(ISSerialLineEncoder.trimmed(text));
+
+      ++this.unmatchedWrites;
+      this.matchWrites();
+      this.written.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    this.reads.onComplete();
+    this.writes.onComplete();
+    this.recording.close();
+  }
+}
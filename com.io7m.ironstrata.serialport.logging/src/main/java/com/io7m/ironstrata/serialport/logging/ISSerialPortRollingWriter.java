@@ -0,0 +1,539 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A writer that writes to a sequence of log segments in a directory.
+ *
+ * A new segment is started once the current segment has reached the size
+ * limit, or has been open for longer than the time limit. Segments are
+ * only ever rotated in {@link #flush()}, so that a segment always ends on a
+ * line boundary when used with {@link ISSerialPortLogger}. Closed segments
+ * are compressed with gzip on a low-priority background thread, and the
+ * oldest compressed segments are deleted once there are more than the
+ * retention limit. Segments left in the directory by earlier writers of
+ * the same name count towards the limit.
+ *
+ * A second background thread opens each segment before it is needed, and
+ * the compression thread closes each segment after it has been replaced,
+ * so rotating in {@link #flush()} only renames the waiting segment and
+ * swaps one open file for another. Segments are opened under a temporary
+ * name and are given their timestamped name when they are started, so
+ * the time in a name is always the time that the segment began to receive
+ * lines. A flush waits only if segments are being rotated faster than
+ * the background thread can open them; it never waits for compression.
+ *
+ * The size limit is measured in bytes of UTF-8 written to the segment,
+ * and is checked at each flush.
+ */
+
+public final class ISSerialPortRollingWriter extends Writer
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(ISSerialPortRollingWriter.class);
+
+  private static final DateTimeFormatter SEGMENT_TIME =
+    DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'")
+      .withZone(ZoneOffset.UTC);
+
+  private final Clock clock;
+  private final Path directory;
+  private final String name;
+  private final long sizeLimit;
+  private final Duration timeLimit;
+  private final int retainCount;
+  private final ExecutorService background;
+  private final ExecutorService opener;
+  private final ArrayDeque<Path> compressed;
+  private Segment current;
+  private Future<Segment> next;
+  private int sequence;
+
+  private ISSerialPortRollingWriter(
+    final Clock inClock,
+    final Path inDirectory,
+    final String inName,
+    final long inSizeLimit,
+    final Duration inTimeLimit,
+    final int inRetainCount)
+  {
+    this.clock =
+      Objects.requireNonNull(inClock, "clock");
+    this.directory =
+      Objects.requireNonNull(inDirectory, "directory");
+    this.name =
+      Objects.requireNonNull(inName, "name");
+    this.timeLimit =
+      Objects.requireNonNull(inTimeLimit, "timeLimit");
+    this.sizeLimit = inSizeLimit;
+    this.retainCount = inRetainCount;
+
+    this.compressed = new ArrayDeque<>();
+    this.background = Executors.newSingleThreadExecutor(runnable -> {
+      final var thread = new Thread(runnable);
+      thread.setName(String.format(
+        "com.io7m.ironstrata.serialport.logger.compress.%d",
+        Long.valueOf(thread.getId()))
+      );
+      thread.setPriority(Thread.MIN_PRIORITY);
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.opener = Executors.newSingleThreadExecutor(runnable -> {
+      final var thread = new Thread(runnable);
+      thread.setName(String.format(
+        "com.io7m.ironstrata.serialport.logger.open.%d",
+        Long.valueOf(thread.getId()))
+      );
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Create a rolling writer. Segments are named
+   * {@code NAME-TIME-SEQUENCE.log}, and compressed segments have an
+   * additional {@code .gz} suffix. Any segments of the same name that are
+   * already in the directory are counted towards the retention limit, and
+   * any that were never compressed are compressed.
+   *
+   * @param clock       The clock used to name and age segments
+   * @param directory   The directory that will hold the segments
+   * @param name        The name prefix of the segments
+   * @param sizeLimit   The size in bytes at which a segment is rotated
+   * @param timeLimit   The maximum time that a segment is open
+   * @param retainCount The number of compressed segments to keep
+   *
+   * @return A rolling writer
+   *
+   * @throws IOException On errors
+   */
+
+  public static ISSerialPortRollingWriter create(
+    final Clock clock,
+    final Path directory,
+    final String name,
+    final long sizeLimit,
+    final Duration timeLimit,
+    final int retainCount)
+    throws IOException
+  {
+    if (sizeLimit <= 0L) {
+      throw new IllegalArgumentException("Size limit must be positive");
+    }
+    if (timeLimit.isNegative() || timeLimit.isZero()) {
+      throw new IllegalArgumentException("Time limit must be positive");
+    }
+    if (retainCount <= 0) {
+      throw new IllegalArgumentException("Retention count must be positive");
+    }
+
+    Files.createDirectories(directory);
+    final var writer =
+      new ISSerialPortRollingWriter(
+        clock, directory, name, sizeLimit, timeLimit, retainCount);
+    try {
+      writer.recover();
+      final var segment = writer.openSegment();
+      writer.promote(segment);
+      writer.current = segment;
+    } catch (final IOException e) {
+      writer.background.shutdown();
+      writer.opener.shutdown();
+      throw e;
+    }
+    writer.next = writer.opener.submit(writer::openSegment);
+    return writer;
+  }
+
+  /**
+   * Find the segments left by earlier writers. Compressed segments are
+   * queued for deletion in name order, which is also the order in which
+   * they were written, and uncompressed segments are compressed. Segments
+   * that were opened but never started are always empty, and are deleted.
+   */
+
+  private void recover()
+    throws IOException
+  {
+    final var pattern =
+      Pattern.compile(
+        Pattern.quote(this.name)
+        + "-[0-9]{8}T[0-9]{6}Z-([0-9]{1,9})\\.log(\\.gz)?");
+    final var waiting =
+      Pattern.compile(
+        Pattern.quote(this.name) + "-[0-9]{1,9}\\.log\\.next");
+
+    final var files = new ArrayList<Path>();
+    try (var paths = Files.list(this.directory)) {
+      files.addAll(paths.sorted().collect(Collectors.toList()));
+    }
+
+    final var uncompressed = new ArrayList<Path>();
+    for (final var file : files) {
+      final var fileName = file.getFileName().toString();
+      if (waiting.matcher(fileName).matches()) {
+        Files.deleteIfExists(file);
+        continue;
+      }
+
+      final var matcher = pattern.matcher(fileName);
+      if (!matcher.matches()) {
+        continue;
+      }
+
+      this.sequence = Math.max(
+        this.sequence, Integer.parseInt(matcher.group(1)) + 1);
+
+      if (matcher.group(2) != null) {
+        this.compressed.add(file);
+      } else {
+        uncompressed.add(file);
+      }
+    }
+
+    for (final var file : uncompressed) {
+      this.background.execute(() -> this.archive(file));
+    }
+    this.background.execute(this::prune);
+  }
+
+  /**
+   * Open a segment under a temporary name. The segment is given its real
+   * name by {@link #promote(Segment)} when it is started.
+   */
+
+  private Segment openSegment()
+    throws IOException
+  {
+    final var segmentSequence = this.sequence;
+    ++this.sequence;
+
+    final var file = this.directory.resolve(String.format(
+      "%s-%06d.log.next", this.name, Integer.valueOf(segmentSequence))
+    );
+    final var output =
+      new CountingOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(file)));
+
+    return new Segment(
+      file,
+      segmentSequence,
+      output,
+      new OutputStreamWriter(output, UTF_8)
+    );
+  }
+
+  /**
+   * Name the given segment with the current time, and start its age.
+   */
+
+  private void promote(
+    final Segment segment)
+    throws IOException
+  {
+    final var time = this.clock.instant();
+    final var target = this.directory.resolve(String.format(
+      "%s-%s-%06d.log",
+      this.name,
+      SEGMENT_TIME.format(time),
+      Integer.valueOf(segment.sequence))
+    );
+    Files.move(segment.file, target);
+    segment.file = target;
+    segment.opened = time;
+  }
+
+  private void rotate()
+    throws IOException
+  {
+    final Segment segment;
+    try {
+      segment = this.next.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    } catch (final ExecutionException e) {
+      this.next = this.opener.submit(this::openSegment);
+      throw new IOException("Failed to open a new segment", e.getCause());
+    }
+
+    /*
+     * If the segment cannot be renamed, it stays waiting and the rename is
+     * tried again at the next flush.
+     */
+
+    this.promote(segment);
+
+    final var previous = this.current;
+    this.current = segment;
+    this.next = this.opener.submit(this::openSegment);
+    this.background.execute(() -> this.retire(previous));
+  }
+
+  private void retire(
+    final Segment segment)
+  {
+    try {
+      segment.writer.close();
+    } catch (final IOException e) {
+      LOG.error("failed to close segment {}: ", segment.file, e);
+    }
+    this.archive(segment.file);
+  }
+
+  private void discard(
+    final Future<Segment> pending)
+  {
+    try {
+      this.retire(pending.get());
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (final ExecutionException e) {
+      // The segment was never opened.
+    }
+  }
+
+  /**
+   * Compress the given closed segment, or delete it if it is empty.
+   */
+
+  private void archive(
+    final Path file)
+  {
+    try {
+      if (Files.size(file) == 0L) {
+        Files.deleteIfExists(file);
+        return;
+      }
+    } catch (final IOException e) {
+      LOG.error("failed to examine segment {}: ", file, e);
+      return;
+    }
+    this.compress(file);
+  }
+
+  private void compress(
+    final Path file)
+  {
+    final var target =
+      file.resolveSibling(file.getFileName() + ".gz");
+
+    try {
+      try (var output =
+             new GZIPOutputStream(Files.newOutputStream(target))) {
+        Files.copy(file, output);
+      }
+      Files.delete(file);
+    } catch (final IOException e) {
+      LOG.error("failed to compress segment {}: ", file, e);
+      try {
+        Files.deleteIfExists(target);
+      } catch (final IOException ex) {
+        e.addSuppressed(ex);
+      }
+      return;
+    }
+
+    this.compressed.add(target);
+    this.prune();
+  }
+
+  private void prune()
+  {
+    while (this.compressed.size() > this.retainCount) {
+      final var oldest = this.compressed.peek();
+      try {
+        Files.deleteIfExists(oldest);
+      } catch (final IOException e) {
+        // Try again at the next rotation.
+        LOG.warn("failed to delete segment {}: ", oldest, e);
+        return;
+      }
+      this.compressed.remove();
+    }
+  }
+
+  private boolean isRotationDue()
+  {
+    if (this.current.output.size >= this.sizeLimit) {
+      return true;
+    }
+    final var age =
+      Duration.between(this.current.opened, this.clock.instant());
+    return age.compareTo(this.timeLimit) >= 0;
+  }
+
+  /**
+   * @return The segment currently being written
+   */
+
+  public Path currentSegment()
+  {
+    return this.current.file;
+  }
+
+  @Override
+  public void write(
+    final char[] buffer,
+    final int offset,
+    final int length)
+    throws IOException
+  {
+    this.current.writer.write(buffer, offset, length);
+  }
+
+  @Override
+  public void write(
+    final String text,
+    final int offset,
+    final int length)
+    throws IOException
+  {
+    this.current.writer.write(text, offset, length);
+  }
+
+  @Override
+  public void write(
+    final int c)
+    throws IOException
+  {
+    this.current.writer.write(c);
+  }
+
+  @Override
+  public void flush()
+    throws IOException
+  {
+    this.current.writer.flush();
+    if (this.current.output.size > 0L && this.isRotationDue()) {
+      this.rotate();
+    }
+  }
+
+  /**
+   * Close the current segment, and wait for all segments to be compressed.
+   */
+
+  @Override
+  public void close()
+  {
+    if (this.background.isShutdown()) {
+      return;
+    }
+
+    final var last = this.current;
+    final var pending = this.next;
+    this.background.execute(() -> this.retire(last));
+    this.background.execute(() -> this.discard(pending));
+    this.opener.shutdown();
+    this.background.shutdown();
+
+    try {
+      this.background.awaitTermination(60L, TimeUnit.SECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static final class Segment
+  {
+    private final int sequence;
+    private final CountingOutputStream output;
+    private final Writer writer;
+    private Path file;
+    private Instant opened;
+
+    Segment(
+      final Path inFile,
+      final int inSequence,
+      final CountingOutputStream inOutput,
+      final Writer inWriter)
+    {
+      this.file = inFile;
+      this.sequence = inSequence;
+      this.output = inOutput;
+      this.writer = inWriter;
+    }
+  }
+
+  /**
+   * A stream that counts the encoded bytes written to a segment. The
+   * count is exact after the segment writer has been flushed.
+   */
+
+  private static final class CountingOutputStream extends FilterOutputStream
+  {
+    private long size;
+
+    CountingOutputStream(
+      final OutputStream output)
+    {
+      super(output);
+    }
+
+    @Override
+    public void write(
+      final int b)
+      throws IOException
+    {
+      this.out.write(b);
+      ++this.size;
+    }
+
+    @Override
+    public void write(
+      final byte[] buffer,
+      final int offset,
+      final int length)
+      throws IOException
+    {
+      this.out.write(buffer, offset, length);
+      this.size += length;
+    }
+  }
+}
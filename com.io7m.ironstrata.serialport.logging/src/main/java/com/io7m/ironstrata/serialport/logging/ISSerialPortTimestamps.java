@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.logging;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+
+import static java.time.format.DateTimeFormatter.ISO_INSTANT;
+
+/**
+ * A timestamp formatter that produces exactly the same text as
+ * {@link java.time.format.DateTimeFormatter#ISO_INSTANT}, but avoids
+ * allocation for the common case. The date and time up to the second are
+ * formatted once per second and cached; the fraction is formatted directly
+ * into the output. Instances are not thread-safe.
+ */
+
+final class ISSerialPortTimestamps
+{
+  private static final int PREFIX_LENGTH = 19;
+  private static final long YEAR_10000 = 253402300800L;
+
+  private final char[] prefix;
+  private final char[] fraction;
+  private long prefixSecond;
+
+  ISSerialPortTimestamps()
+  {
+    this.prefix = new char[PREFIX_LENGTH];
+    this.fraction = new char[11];
+    this.prefixSecond = Long.MIN_VALUE;
+  }
+
+  /**
+   * Write the given time to the output.
+   *
+   * @param output  The output
+   * @param seconds The epoch seconds
+   * @param nanos   The nanoseconds within the second
+   *
+   * @throws IOException On errors
+   */
+
+  void write(
+    final Writer output,
+    final long seconds,
+    final int nanos)
+    throws IOException
+  {
+    /*
+     * Years outside of [0000, 9999] are formatted with signs and extra
+     * digits, and are left to the standard formatter.
+     */
+
+    if (seconds < 0L || seconds >= YEAR_10000) {
+      ISO_INSTANT.formatTo(Instant.ofEpochSecond(seconds, nanos), output);
+      return;
+    }
+
+    if (seconds != this.prefixSecond) {
+      ISO_INSTANT.format(Instant.ofEpochSecond(seconds))
+        .getChars(0, PREFIX_LENGTH, this.prefix, 0);
+      this.prefixSecond = seconds;
+    }
+
+    output.write(this.prefix, 0, PREFIX_LENGTH);
+    output.write(this.fraction, 0, this.formatFraction(nanos));
+  }
+
+  /**
+   * Format the fraction of a second in the same way as ISO_INSTANT: no
+   * fraction for whole seconds, and otherwise three, six, or nine digits,
+   * whichever is the fewest that represent the value exactly.
+   */
+
+  private int formatFraction(
+    final int nanos)
+  {
+    final int digits;
+    int value;
+    if (nanos == 0) {
+      digits = 0;
+      value = 0;
+    } else if (nanos % 1_000_000 == 0) {
+      digits = 3;
+      value = nanos / 1_000_000;
+    } else if (nanos % 1_000 == 0) {
+      digits = 6;
+      value = nanos / 1_000;
+    } else {
+      digits = 9;
+      value = nanos;
+    }
+
+    var length = 0;
+    if (digits > 0) {
+      this.fraction[0] = '.';
+      for (int index = digits; index > 0; --index) {
+        this.fraction[index] = (char) ('0' + (value % 10));
+        value /= 10;
+      }
+      length = digits + 1;
+    }
+    this.fraction[length] = 'Z';
+    return length + 1;
+  }
+}
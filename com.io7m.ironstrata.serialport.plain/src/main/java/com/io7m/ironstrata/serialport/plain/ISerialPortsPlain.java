@@ -20,6 +20,7 @@ import com.io7m.ironstrata.serialport.api.ISSerialPortConfiguration;
 import com.io7m.ironstrata.serialport.api.ISSerialPortFactoryType;
 import com.io7m.ironstrata.serialport.api.ISSerialPortType;
 import com.io7m.ironstrata.serialport.plain.internal.ISSerialPort;
+import com.io7m.ironstrata.serialport.plain.internal.ISSerialPortTermios;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,7 +34,9 @@ import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
- * A plain file-based implementation of a serial port.
+ * A plain file-based implementation of a serial port. If the device is a
+ * character device, its terminal settings (raw mode and baud rate) are
+ * configured before it is opened.
  */
 
 public final class ISerialPortsPlain implements ISSerialPortFactoryType
@@ -64,6 +67,20 @@ public final class ISerialPortsPlain implements ISSerialPortFactoryType
     this(FileSystems.getDefault());
   }
 
+  /**
+   * Plain serial ports are named by filesystem paths. Device names that
+   * carry a URI scheme, such as {@code tcp://host:port}, belong to other
+   * factories.
+   */
+
+  @Override
+  public boolean supports(
+    final String deviceName)
+  {
+    Objects.requireNonNull(deviceName, "deviceName");
+    return !deviceName.contains("://");
+  }
+
   @Override
   public ISSerialPortType open(
     final ISSerialPortConfiguration configuration)
@@ -73,8 +90,31 @@ public final class ISerialPortsPlain implements ISSerialPortFactoryType
 
     final var path =
       this.fileSystem.getPath(configuration.deviceName());
-    final var channel =
+
+    if (ISSerialPortTermios.isCharacterDevice(path)) {
+      ISSerialPortTermios.configure(path, configuration.baudRate());
+    }
+
+    final var readChannel =
       FileChannel.open(path, READ, WRITE);
-    return new ISSerialPort(channel);
+
+    try {
+      final var writeChannel =
+        FileChannel.open(path, READ, WRITE);
+
+      try {
+        return new ISSerialPort(
+          readChannel,
+          writeChannel,
+          configuration.readTimeout()
+        );
+      } catch (final IOException e) {
+        writeChannel.close();
+        throw e;
+      }
+    } catch (final IOException e) {
+      readChannel.close();
+      throw e;
+    }
   }
 }
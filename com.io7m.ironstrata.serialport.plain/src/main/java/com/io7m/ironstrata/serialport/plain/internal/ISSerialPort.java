@@ -16,38 +16,104 @@
 
 package com.io7m.ironstrata.serialport.plain.internal;
 
+import com.io7m.ironstrata.serialport.api.ISSerialLine;
+import com.io7m.ironstrata.serialport.api.ISSerialLineEncoder;
+import com.io7m.ironstrata.serialport.api.ISSerialLineFramer;
+import com.io7m.ironstrata.serialport.api.ISSerialLines;
 import com.io7m.ironstrata.serialport.api.ISSerialPortType;
 import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.subjects.PublishSubject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.time.Duration;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
-import static java.nio.charset.StandardCharsets.US_ASCII;
+/**
+ * A serial port backed by a plain file channel.
+ *
+ * File channels are not selectable, and a read on a silent device can block
+ * indefinitely. A dedicated thread therefore performs the blocking reads and
+ * copies the received bytes into a pipe. The pipe is selectable, which
+ * allows {@link #readLine()} to wait for real data with a bounded timeout,
+ * and allows a printer event loop to wait for this port together with many
+ * others.
+ * Lines are framed directly from the received bytes, and are exposed through
+ * a reusable view by {@link #readLineView()}.
+ *
+ * A file channel serializes reads and writes, so a write would wait behind
+ * the blocked read. Separate channels are therefore used for each direction.
+ */
 
 public final class ISSerialPort implements ISSerialPortType
 {
   private static final Logger LOG =
     LoggerFactory.getLogger(ISSerialPort.class);
 
-  private final FileChannel channel;
-  private final BufferedReader reader;
+  private final FileChannel readChannel;
+  private final FileChannel writeChannel;
+  private final long readTimeoutNanos;
+  private final Pipe pipe;
+  private final Selector selector;
+  private final ByteBuffer readBuffer;
+  private final ISSerialLineFramer framer;
+  private final ISSerialLineEncoder encoder;
+  private final AtomicReference<IOException> pumpError;
+  private final Thread pumpThread;
   private final PublishSubject<String> reads;
   private final PublishSubject<String> writes;
 
   public ISSerialPort(
-    final FileChannel inChannel)
+    final FileChannel inReadChannel,
+    final FileChannel inWriteChannel,
+    final Duration inReadTimeout)
+    throws IOException
   {
-    this.channel = Objects.requireNonNull(inChannel, "channel");
-    this.reader = new BufferedReader(Channels.newReader(inChannel, US_ASCII));
+    this.readChannel =
+      Objects.requireNonNull(inReadChannel, "readChannel");
+    this.writeChannel =
+      Objects.requireNonNull(inWriteChannel, "writeChannel");
+    this.readTimeoutNanos =
+      Objects.requireNonNull(inReadTimeout, "readTimeout").toNanos();
+
+    this.pipe = Pipe.open();
+    this.pipe.source().configureBlocking(false);
+    this.selector = Selector.open();
+    this.pipe.source().register(this.selector, SelectionKey.OP_READ);
+
+    this.readBuffer = ByteBuffer.allocateDirect(4096);
+    this.readBuffer.limit(0);
+    this.framer = new ISSerialLineFramer();
+    this.encoder = new ISSerialLineEncoder();
+    this.pumpError = new AtomicReference<>();
     this.reads = PublishSubject.create();
     this.writes = PublishSubject.create();
+
+    this.pumpThread = new Thread(this::pump);
+    this.pumpThread.setName(String.format(
+      "com.io7m.ironstrata.serialport.plain.reader.%d",
+      Long.valueOf(this.pumpThread.getId()))
+    );
+    this.pumpThread.setDaemon(true);
+    this.pumpThread.start();
+  }
+
+  @Override
+  public Optional<SelectableChannel> selectableChannel()
+  {
+    return Optional.of(this.pipe.source());
   }
 
   @Override
@@ -62,32 +128,154 @@ public final class ISSerialPort implements ISSerialPortType
     return this.writes;
   }
 
+  /**
+   * Copy bytes from the device to the pipe until the device is closed.
+   */
+
+  private void pump()
+  {
+    final var buffer = ByteBuffer.allocateDirect(4096);
+    final var sink = this.pipe.sink();
+
+    try {
+      while (this.readChannel.isOpen()) {
+        buffer.clear();
+        if (this.readChannel.read(buffer) < 0) {
+          LOG.debug("end of stream");
+          break;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          sink.write(buffer);
+        }
+      }
+    } catch (final ClosedChannelException e) {
+      // The port was closed.
+    } catch (final IOException e) {
+      LOG.error("read: ", e);
+      this.pumpError.set(e);
+    } finally {
+      try {
+        sink.close();
+      } catch (final IOException e) {
+        LOG.error("close: ", e);
+      }
+    }
+  }
+
   @Override
   public String readLine()
     throws IOException
   {
-    pause();
-
-    final var line = this.reader.readLine();
-    if ("\0".equals(line)) {
-      return null;
-    }
+    final var line = this.readLineView();
     if (line == null) {
       return null;
     }
+    return line.toString();
+  }
+
+  @Override
+  public ISSerialLine readLineView()
+    throws IOException
+  {
+    final var timeStart = System.nanoTime();
+
+    while (true) {
+      if (this.framer.frame(this.readBuffer)) {
+        if (this.isNUL()) {
+          continue;
+        }
+        return this.onFramedLine();
+      }
+
+      final var timeElapsed = System.nanoTime() - timeStart;
+      final var timeRemaining = this.readTimeoutNanos - timeElapsed;
+      if (timeRemaining <= 0L) {
+        return null;
+      }
+
+      final var waitMillis =
+        Math.max(1L, TimeUnit.NANOSECONDS.toMillis(timeRemaining));
+      if (this.selector.select(waitMillis) == 0) {
+        continue;
+      }
+      this.selector.selectedKeys().clear();
+      this.readAvailable();
+    }
+  }
 
-    final var trimmed = line.stripTrailing();
-    LOG.trace("<<< {}", trimmed);
-    this.reads.onNext(trimmed);
+  @Override
+  public ISSerialLine pollLineView()
+    throws IOException
+  {
+    while (true) {
+      if (this.framer.frame(this.readBuffer)) {
+        if (this.isNUL()) {
+          continue;
+        }
+        return this.onFramedLine();
+      }
+      if (this.selector.selectNow() == 0) {
+        return null;
+      }
+      this.selector.selectedKeys().clear();
+      this.readAvailable();
+    }
+  }
+
+  private boolean isNUL()
+  {
+    return ISSerialLines.isNUL(this.framer.line());
+  }
+
+  private ISSerialLine onFramedLine()
+  {
+    final var line = this.framer.line();
+    this.onReadLine(line);
     return line;
   }
 
-  private static void pause()
+  private void onReadLine(
+    final ISSerialLine line)
   {
-    try {
-      Thread.sleep(30L);
-    } catch (final InterruptedException e) {
-      Thread.currentThread().interrupt();
+    LOG.trace("<<< {}", line);
+    if (this.reads.hasObservers()) {
+      this.reads.onNext(line.toString());
+    }
+  }
+
+  private void readAvailable()
+    throws IOException
+  {
+    this.readBuffer.clear();
+    final var count = this.pipe.source().read(this.readBuffer);
+    this.readBuffer.flip();
+    if (count < 0) {
+      this.onEndOfStream();
+    }
+  }
+
+  /**
+   * The reader thread has stopped. If it stopped because the device failed,
+   * the failure is raised by every subsequent read. Otherwise, the device
+   * simply has nothing more to say, and reads return nothing, as they did
+   * at the end of the stream before the reader thread existed. The pipe is
+   * closed, so that it is no longer selected by this port or by an event
+   * loop, and waiting reads still observe the read timeout.
+   */
+
+  private void onEndOfStream()
+    throws IOException
+  {
+    final var error = this.pumpError.get();
+    if (error != null) {
+      throw error;
+    }
+
+    final var source = this.pipe.source();
+    if (source.isOpen()) {
+      LOG.debug("end of stream");
+      source.close();
     }
   }
 
@@ -96,14 +284,29 @@ public final class ISSerialPort implements ISSerialPortType
     final String text)
     throws IOException
   {
-    pause();
+    this.encoder.begin();
+    final var line = this.encoder.encode(text);
+    LOG.trace(">>> {}", line);
+    this.encoder.writeTo(this.writeChannel);
+    this.writes.onNext(line);
+  }
+
+  @Override
+  public void writeLines(
+    final List<String> texts)
+    throws IOException
+  {
+    this.encoder.begin();
+    for (final var text : texts) {
+      LOG.trace(">>> {}", this.encoder.encode(text));
+    }
+    this.encoder.writeTo(this.writeChannel);
 
-    final var trimmed = text.stripTrailing();
-    LOG.trace(">>> {}", trimmed);
-    final var data = (trimmed + '\n').getBytes(US_ASCII);
-    final var buffer = ByteBuffer.wrap(data);
-    this.channel.write(buffer);
-    this.writes.onNext(trimmed);
+    if (this.writes.hasObservers()) {
+      for (final var text : texts) {
+        this.writes.onNext(ISSerialLineEncoder.trimmed(text));
+      }
+    }
   }
 
   @Override
@@ -112,6 +315,13 @@ public final class ISSerialPort implements ISSerialPortType
   {
     this.reads.onComplete();
     this.writes.onComplete();
-    this.channel.close();
+
+    try {
+      this.writeChannel.close();
+      this.readChannel.close();
+    } finally {
+      this.selector.close();
+      this.pipe.source().close();
+    }
   }
 }
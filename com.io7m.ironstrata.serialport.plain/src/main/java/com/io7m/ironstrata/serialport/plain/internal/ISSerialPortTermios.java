@@ -0,0 +1,252 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.plain.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Functions to configure the terminal settings of a serial device.
+ *
+ * The device is placed into raw mode at the configured baud rate, with
+ * {@code VMIN} set to one and {@code VTIME} set to zero, so a read blocks
+ * until at least one byte has arrived. A read that returned zero bytes
+ * would be indistinguishable from the end of the stream, so the read
+ * timeout is instead enforced by the port's selectable pipe. The settings
+ * are applied with the system {@code stty} command, so no native library
+ * needs to be shipped.
+ *
+ * Many versions of {@code stty} only accept the standard baud rates.
+ * Setting a non-standard rate (such as the 250000 baud commonly used by
+ * Marlin) requires the {@code BOTHER} flag of the Linux {@code termios2}
+ * interface, which cannot be reached without a native library; if
+ * {@code stty} rejects such a rate, configuration fails rather than
+ * leaving the device at whatever rate it already has.
+ */
+
+public final class ISSerialPortTermios
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(ISSerialPortTermios.class);
+
+  private static final int S_IFMT = 0170000;
+  private static final int S_IFCHR = 0020000;
+
+  private static final Set<Integer> STANDARD_BAUD_RATES =
+    Set.of(
+      Integer.valueOf(50),
+      Integer.valueOf(75),
+      Integer.valueOf(110),
+      Integer.valueOf(134),
+      Integer.valueOf(150),
+      Integer.valueOf(200),
+      Integer.valueOf(300),
+      Integer.valueOf(600),
+      Integer.valueOf(1200),
+      Integer.valueOf(1800),
+      Integer.valueOf(2400),
+      Integer.valueOf(4800),
+      Integer.valueOf(9600),
+      Integer.valueOf(19200),
+      Integer.valueOf(38400),
+      Integer.valueOf(57600),
+      Integer.valueOf(115200),
+      Integer.valueOf(230400),
+      Integer.valueOf(460800),
+      Integer.valueOf(500000),
+      Integer.valueOf(576000),
+      Integer.valueOf(921600),
+      Integer.valueOf(1000000),
+      Integer.valueOf(1152000),
+      Integer.valueOf(1500000),
+      Integer.valueOf(2000000),
+      Integer.valueOf(2500000),
+      Integer.valueOf(3000000),
+      Integer.valueOf(3500000),
+      Integer.valueOf(4000000)
+    );
+
+  private ISSerialPortTermios()
+  {
+
+  }
+
+  /**
+   * Determine if the given path refers to a character device. Paths on
+   * filesystems that do not expose UNIX file modes are assumed not to
+   * be character devices.
+   *
+   * @param path The path
+   *
+   * @return {@code true} if the path is a character device
+   *
+   * @throws IOException On errors
+   */
+
+  public static boolean isCharacterDevice(
+    final Path path)
+    throws IOException
+  {
+    Objects.requireNonNull(path, "path");
+
+    try {
+      final var mode = (Integer) Files.getAttribute(path, "unix:mode");
+      return (mode.intValue() & S_IFMT) == S_IFCHR;
+    } catch (final UnsupportedOperationException
+      | IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @param baudRate The baud rate
+   *
+   * @return {@code true} if the baud rate has a standard termios constant
+   */
+
+  public static boolean isStandardBaudRate(
+    final int baudRate)
+  {
+    return STANDARD_BAUD_RATES.contains(Integer.valueOf(baudRate));
+  }
+
+  /**
+   * Produce the {@code stty} command that configures the given device.
+   *
+   * @param path     The device
+   * @param baudRate The baud rate
+   *
+   * @return The command and its arguments
+   */
+
+  public static List<String> command(
+    final Path path,
+    final int baudRate)
+  {
+    Objects.requireNonNull(path, "path");
+
+    return List.of(
+      "stty",
+      deviceFlag(),
+      path.toString(),
+      Integer.toString(baudRate),
+      "raw",
+      "-echo",
+      "min",
+      "1",
+      "time",
+      "0"
+    );
+  }
+
+  private static String deviceFlag()
+  {
+    final var osName =
+      System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+    return osName.contains("linux") ? "-F" : "-f";
+  }
+
+  /**
+   * Configure the given device.
+   *
+   * @param path     The device
+   * @param baudRate The baud rate
+   *
+   * @throws IOException On errors, including if the baud rate could not be
+   *                     applied
+   */
+
+  public static void configure(
+    final Path path,
+    final int baudRate)
+    throws IOException
+  {
+    try {
+      run(path, command(path, baudRate));
+    } catch (final IOException e) {
+      if (isStandardBaudRate(baudRate)) {
+        throw e;
+      }
+      throw new IOException(String.format(
+        "Serial port %s could not be set to the non-standard baud rate %d",
+        path,
+        Integer.valueOf(baudRate)),
+        e
+      );
+    }
+  }
+
+  private static void run(
+    final Path path,
+    final List<String> command)
+    throws IOException
+  {
+    LOG.debug("configure: {}", command);
+
+    /*
+     * The output is collected in a file rather than read from a pipe, so
+     * that a command that never exits cannot block the caller beyond the
+     * timeout.
+     */
+
+    final var outputFile =
+      Files.createTempFile("ironstrata-stty", ".txt");
+
+    try {
+      final var process =
+        new ProcessBuilder(command)
+          .redirectErrorStream(true)
+          .redirectOutput(outputFile.toFile())
+          .start();
+
+      try {
+        if (!process.waitFor(10L, TimeUnit.SECONDS)) {
+          process.destroyForcibly();
+          throw new IOException(String.format(
+            "Timed out configuring serial port %s", path));
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        process.destroyForcibly();
+        throw new IOException(e);
+      }
+
+      final var exitCode = process.exitValue();
+      if (exitCode != 0) {
+        throw new IOException(String.format(
+          "Failed to configure serial port %s (stty exited with %d): %s",
+          path,
+          Integer.valueOf(exitCode),
+          Files.readString(outputFile, UTF_8).trim())
+        );
+      }
+    } finally {
+      Files.deleteIfExists(outputFile);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.socket;
+
+import com.io7m.ironstrata.serialport.api.ISSerialPortConfiguration;
+import com.io7m.ironstrata.serialport.api.ISSerialPortFactoryType;
+import com.io7m.ironstrata.serialport.api.ISSerialPortType;
+import com.io7m.ironstrata.serialport.socket.internal.ISSerialPortSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Objects;
+
+/**
+ * A socket-based implementation of a serial port. This is useful for
+ * printers behind network serial bridges, and for in-process simulators.
+ *
+ * Device names are URIs of the form {@code tcp://host:port}. The
+ * configured baud rate is ignored. A write fails if the peer accepts no
+ * data within the configured write timeout. If the peer closes the
+ * connection, the port reconnects on the next write.
+ */
+
+public final class ISerialPortsSocket implements ISSerialPortFactoryType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(ISerialPortsSocket.class);
+
+  /**
+   * Construct a serial port factory.
+   */
+
+  public ISerialPortsSocket()
+  {
+
+  }
+
+  /**
+   * Parse a device name.
+   *
+   * @param deviceName The device name
+   *
+   * @return The socket address
+   *
+   * @throws IOException If the device name is not a valid socket URI
+   */
+
+  public static InetSocketAddress parseAddress(
+    final String deviceName)
+    throws IOException
+  {
+    final URI uri;
+    try {
+      uri = new URI(deviceName);
+    } catch (final URISyntaxException e) {
+      throw new IOException(e);
+    }
+
+    if (!"tcp".equals(uri.getScheme())
+      || uri.getHost() == null
+      || uri.getPort() < 0) {
+      throw new IOException(String.format(
+        "Unsupported socket device name '%s' (expected tcp://host:port)",
+        deviceName)
+      );
+    }
+
+    return new InetSocketAddress(uri.getHost(), uri.getPort());
+  }
+
+  @Override
+  public boolean supports(
+    final String deviceName)
+  {
+    Objects.requireNonNull(deviceName, "deviceName");
+    return deviceName.startsWith("tcp://");
+  }
+
+  @Override
+  public ISSerialPortType open(
+    final ISSerialPortConfiguration configuration)
+    throws IOException
+  {
+    LOG.debug("opening serial port {}", configuration.deviceName());
+
+    return ISSerialPortSocket.open(
+      parseAddress(configuration.deviceName()),
+      configuration.readTimeout(),
+      configuration.writeTimeout()
+    );
+  }
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.serialport.socket.internal;
+
+import com.io7m.ironstrata.serialport.api.ISSerialLine;
+import com.io7m.ironstrata.serialport.api.ISSerialLineEncoder;
+import com.io7m.ironstrata.serialport.api.ISSerialLineFramer;
+import com.io7m.ironstrata.serialport.api.ISSerialLines;
+import com.io7m.ironstrata.serialport.api.ISSerialPortType;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A serial port backed by a non-blocking socket channel.
+ *
+ * Socket channels are selectable, so {@link #readLine()} waits for data on
+ * a selector with a bounded timeout and no extra thread is required. Lines
+ * are framed directly from the received bytes, and are exposed through a
+ * reusable view by {@link #readLineView()}. Writes wait on a separate
+ * selector whenever the socket send buffer is full, and fail if the peer
+ * accepts nothing within the write timeout.
+ *
+ * If the peer closes the connection (for example, because a network serial
+ * bridge was restarted), the port behaves like a serial device that has
+ * been unplugged: reads return nothing, and writes are discarded. Each
+ * write made while disconnected first tries to reconnect, so a printer
+ * that periodically polls an offline device reconnects on its own once
+ * the peer returns.
+ */
+
+public final class ISSerialPortSocket implements ISSerialPortType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(ISSerialPortSocket.class);
+
+  private final InetSocketAddress address;
+  private final long readTimeoutNanos;
+  private final long writeTimeoutNanos;
+  private final Selector readSelector;
+  private final Selector writeSelector;
+  private final WaitingWriter writer;
+  private final ByteBuffer readBuffer;
+  private final ISSerialLineFramer framer;
+  private final ISSerialLineEncoder encoder;
+  private final PublishSubject<String> reads;
+  private final PublishSubject<String> writes;
+  private SocketChannel channel;
+
+  private ISSerialPortSocket(
+    final InetSocketAddress inAddress,
+    final Duration inReadTimeout,
+    final Duration inWriteTimeout)
+    throws IOException
+  {
+    this.address =
+      Objects.requireNonNull(inAddress, "address");
+    this.readTimeoutNanos =
+      Objects.requireNonNull(inReadTimeout, "readTimeout").toNanos();
+    this.writeTimeoutNanos =
+      Objects.requireNonNull(inWriteTimeout, "writeTimeout").toNanos();
+
+    this.readSelector = Selector.open();
+    this.writeSelector = Selector.open();
+    this.writer = new WaitingWriter();
+
+    this.readBuffer = ByteBuffer.allocateDirect(4096);
+    this.readBuffer.limit(0);
+    this.framer = new ISSerialLineFramer();
+    this.encoder = new ISSerialLineEncoder();
+    this.reads = PublishSubject.create();
+    this.writes = PublishSubject.create();
+  }
+
+  /**
+   * Connect to the given address.
+   *
+   * @param address      The address
+   * @param readTimeout  The read timeout
+   * @param writeTimeout The write timeout, which also bounds the time taken
+   *                     to connect
+   *
+   * @return A connected port
+   *
+   * @throws IOException On errors
+   */
+
+  public static ISSerialPortSocket open(
+    final InetSocketAddress address,
+    final Duration readTimeout,
+    final Duration writeTimeout)
+    throws IOException
+  {
+    final var port =
+      new ISSerialPortSocket(address, readTimeout, writeTimeout);
+
+    try {
+      port.connect();
+      return port;
+    } catch (final IOException e) {
+      port.close();
+      throw e;
+    }
+  }
+
+  private void connect()
+    throws IOException
+  {
+    final var newChannel = SocketChannel.open();
+    try {
+      newChannel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+      final var timeoutMillis =
+        Math.max(1L, TimeUnit.NANOSECONDS.toMillis(this.writeTimeoutNanos));
+      newChannel.socket().connect(
+        this.address,
+        (int) Math.min(timeoutMillis, Integer.MAX_VALUE)
+      );
+      newChannel.configureBlocking(false);
+      newChannel.register(this.readSelector, SelectionKey.OP_READ);
+      newChannel.register(this.writeSelector, SelectionKey.OP_WRITE);
+    } catch (final IOException e) {
+      newChannel.close();
+      throw e;
+    }
+
+    this.readBuffer.limit(0);
+    this.channel = newChannel;
+  }
+
+  /**
+   * The peer closed the connection. Any partially received line is
+   * discarded along with the channel.
+   */
+
+  private void disconnect()
+    throws IOException
+  {
+    LOG.info("connection to {} closed by peer", this.address);
+    this.readBuffer.limit(0);
+    this.framer.reset();
+
+    final var oldChannel = this.channel;
+    this.channel = null;
+    oldChannel.close();
+  }
+
+  /**
+   * @return {@code true} if the port is connected, reconnecting first if
+   * necessary
+   */
+
+  private boolean isConnected()
+  {
+    if (this.channel != null) {
+      return true;
+    }
+
+    try {
+      this.connect();
+      LOG.info("reconnected to {}", this.address);
+      return true;
+    } catch (final IOException e) {
+      LOG.debug("reconnecting to {}: {}", this.address, e.getMessage());
+      return false;
+    }
+  }
+
+  @Override
+  public Optional<SelectableChannel> selectableChannel()
+  {
+    return Optional.ofNullable(this.channel);
+  }
+
+  @Override
+  public Observable<String> reads()
+  {
+    return this.reads;
+  }
+
+  @Override
+  public Observable<String> writes()
+  {
+    return this.writes;
+  }
+
+  @Override
+  public String readLine()
+    throws IOException
+  {
+    final var line = this.readLineView();
+    if (line == null) {
+      return null;
+    }
+    return line.toString();
+  }
+
+  @Override
+  public ISSerialLine readLineView()
+    throws IOException
+  {
+    final var timeStart = System.nanoTime();
+
+    while (true) {
+      if (this.framer.frame(this.readBuffer)) {
+        if (this.isNUL()) {
+          continue;
+        }
+        return this.onFramedLine();
+      }
+
+      if (this.readAvailable()) {
+        continue;
+      }
+
+      final var timeElapsed = System.nanoTime() - timeStart;
+      final var timeRemaining = this.readTimeoutNanos - timeElapsed;
+      if (timeRemaining <= 0L) {
+        return null;
+      }
+
+      final var waitMillis =
+        Math.max(1L, TimeUnit.NANOSECONDS.toMillis(timeRemaining));
+      this.readSelector.select(waitMillis);
+      this.readSelector.selectedKeys().clear();
+    }
+  }
+
+  @Override
+  public ISSerialLine pollLineView()
+    throws IOException
+  {
+    while (true) {
+      if (this.framer.frame(this.readBuffer)) {
+        if (this.isNUL()) {
+          continue;
+        }
+        return this.onFramedLine();
+      }
+      if (!this.readAvailable()) {
+        return null;
+      }
+    }
+  }
+
+  private boolean isNUL()
+  {
+    return ISSerialLines.isNUL(this.framer.line());
+  }
+
+  private ISSerialLine onFramedLine()
+  {
+    final var line = this.framer.line();
+    LOG.trace("<<< {}", line);
+    if (this.reads.hasObservers()) {
+      this.reads.onNext(line.toString());
+    }
+    return line;
+  }
+
+  private boolean readAvailable()
+    throws IOException
+  {
+    if (this.channel == null) {
+      return false;
+    }
+
+    this.readBuffer.clear();
+    final var count = this.channel.read(this.readBuffer);
+    if (count < 0) {
+      this.disconnect();
+      return false;
+    }
+    this.readBuffer.flip();
+    return count > 0;
+  }
+
+  @Override
+  public void writeLine(
+    final String text)
+    throws IOException
+  {
+    if (!this.isConnected()) {
+      return;
+    }
+
+    this.encoder.begin();
+    final var line = this.encoder.encode(text);
+    LOG.trace(">>> {}", line);
+    this.encoder.writeTo(this.writer);
+    this.writes.onNext(line);
+  }
+
+  @Override
+  public void writeLines(
+    final List<String> texts)
+    throws IOException
+  {
+    if (!this.isConnected()) {
+      return;
+    }
+
+    this.encoder.begin();
+    for (final var text : texts) {
+      LOG.trace(">>> {}", this.encoder.encode(text));
+    }
+    this.encoder.writeTo(this.writer);
+
+    if (this.writes.hasObservers()) {
+      for (final var text : texts) {
+        this.writes.onNext(ISSerialLineEncoder.trimmed(text));
+      }
+    }
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    this.reads.onComplete();
+    this.writes.onComplete();
+
+    try {
+      if (this.channel != null) {
+        this.channel.close();
+      }
+    } finally {
+      try {
+        this.readSelector.close();
+      } finally {
+        this.writeSelector.close();
+      }
+    }
+  }
+
+  /**
+   * The connection was lost part way through a write. The rest of the
+   * data is dropped, as it would be on an unplugged serial cable.
+   */
+
+  private static long discard(
+    final ByteBuffer[] sources,
+    final int offset,
+    final int length)
+  {
+    long count = 0L;
+    for (int index = offset; index < offset + length; ++index) {
+      final var source = sources[index];
+      count += source.remaining();
+      source.position(source.limit());
+    }
+    return count;
+  }
+
+  /**
+   * A gathering channel that waits for the socket to become writable
+   * rather than returning zero. A write that makes no progress within the
+   * write timeout fails.
+   */
+
+  private final class WaitingWriter implements GatheringByteChannel
+  {
+    WaitingWriter()
+    {
+
+    }
+
+    @Override
+    public long write(
+      final ByteBuffer[] sources,
+      final int offset,
+      final int length)
+      throws IOException
+    {
+      final var socket = ISSerialPortSocket.this.channel;
+      final var selector = ISSerialPortSocket.this.writeSelector;
+      final var timeout = ISSerialPortSocket.this.writeTimeoutNanos;
+      final var timeStart = System.nanoTime();
+
+      while (true) {
+        final long count;
+        try {
+          count = socket.write(sources, offset, length);
+        } catch (final IOException e) {
+          LOG.debug("write to {}: {}", ISSerialPortSocket.this.address, e);
+          ISSerialPortSocket.this.disconnect();
+          return discard(sources, offset, length);
+        }
+        if (count > 0L) {
+          return count;
+        }
+
+        final var timeElapsed = System.nanoTime() - timeStart;
+        final var timeRemaining = timeout - timeElapsed;
+        if (timeRemaining <= 0L) {
+          throw new IOException(String.format(
+            "Timed out after %s waiting for the serial port to accept data",
+            Duration.ofNanos(timeout))
+          );
+        }
+
+        final var waitMillis =
+          Math.max(1L, TimeUnit.NANOSECONDS.toMillis(timeRemaining));
+        selector.select(waitMillis);
+        selector.selectedKeys().clear();
+      }
+    }
+
+    @Override
+    public long write(
+      final ByteBuffer[] sources)
+      throws IOException
+    {
+      return this.write(sources, 0, sources.length);
+    }
+
+    @Override
+    public int write(
+      final ByteBuffer source)
+      throws IOException
+    {
+      return (int) this.write(new ByteBuffer[]{source}, 0, 1);
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+      final var socket = ISSerialPortSocket.this.channel;
+      return socket != null && socket.isOpen();
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      ISSerialPortSocket.this.close();
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.printer.vanilla.internal.ISAdvancedOKParser;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public final class ISAdvancedOKParserTest
+{
+  @Test
+  public void testParseLineNumber()
+  {
+    final var report =
+      new ISAdvancedOKParser()
+        .parse("ok N123 P15 B3")
+        .orElseThrow();
+
+    assertEquals(123, report.lineNumber().getAsInt());
+    assertEquals(15, report.plannerFree());
+    assertEquals(3, report.bufferFree());
+  }
+
+  @Test
+  public void testParseNoLineNumber()
+  {
+    final var report =
+      new ISAdvancedOKParser()
+        .parse("ok P0 B1")
+        .orElseThrow();
+
+    assertFalse(report.lineNumber().isPresent());
+    assertEquals(0, report.plannerFree());
+    assertEquals(1, report.bufferFree());
+  }
+
+  @Test
+  public void testParseTemperatures()
+  {
+    final var report =
+      new ISAdvancedOKParser()
+        .parse("ok T:23.8 /210.0 B:23.0 /60 P14 B2")
+        .orElseThrow();
+
+    assertEquals(14, report.plannerFree());
+    assertEquals(2, report.bufferFree());
+  }
+
+  @Test
+  public void testParsePlain()
+  {
+    assertFalse(new ISAdvancedOKParser().parse("ok").isPresent());
+  }
+
+  @Test
+  public void testParseIncomplete()
+  {
+    assertFalse(new ISAdvancedOKParser().parse("ok N1 P15").isPresent());
+  }
+
+  @Test
+  public void testParseNotOK()
+  {
+    assertFalse(new ISAdvancedOKParser().parse("echo:P15 B3").isPresent());
+  }
+
+  @Test
+  public void testParseOverflow()
+  {
+    assertFalse(
+      new ISAdvancedOKParser()
+        .parse("ok P99999999999999999999 B3")
+        .isPresent()
+    );
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.printer.vanilla.internal.ISCommandTimeouts;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static com.io7m.ironstrata.printer.vanilla.internal.ISCommandTimeouts.kindOf;
+
+public final class ISCommandTimeoutsTest
+{
+  private static final long SECOND = 1_000_000_000L;
+
+  private static ISCommandTimeouts create()
+  {
+    return new ISCommandTimeouts(
+      Duration.ofSeconds(10L),
+      Duration.ofHours(1L)
+    );
+  }
+
+  @Test
+  public void testKinds()
+  {
+    Assertions.assertEquals(kindOf("G28"), kindOf("N10 G28 X Y*33"));
+    Assertions.assertEquals(kindOf("G1"), kindOf("g1 X10"));
+    Assertions.assertNotEquals(kindOf("G1"), kindOf("G10"));
+    Assertions.assertNotEquals(kindOf("G1"), kindOf("M1"));
+    Assertions.assertNotEquals(kindOf("G29"), kindOf("G29.1"));
+    Assertions.assertTrue(kindOf("G29.1") >= 0);
+    Assertions.assertTrue(kindOf("") < 0);
+    Assertions.assertTrue(kindOf("N10") < 0);
+    Assertions.assertTrue(kindOf("*12") < 0);
+  }
+
+  @Test
+  public void testDefaults()
+  {
+    final var timeouts = create();
+    Assertions.assertEquals(10L * SECOND, timeouts.minimumNanos());
+    Assertions.assertEquals(10L * SECOND, timeouts.timeoutNanos(kindOf("G1")));
+    Assertions.assertEquals(120L * SECOND, timeouts.timeoutNanos(kindOf("G28")));
+    Assertions.assertEquals(900L * SECOND, timeouts.timeoutNanos(kindOf("M109")));
+    Assertions.assertEquals(10L * SECOND, timeouts.timeoutNanos(-1));
+    Assertions.assertEquals(-1L, timeouts.smoothedNanos(kindOf("G1")));
+  }
+
+  @Test
+  public void testFastCommandsStayAtMinimum()
+  {
+    final var timeouts = create();
+    final var kind = kindOf("G1");
+    for (int index = 0; index < 100; ++index) {
+      timeouts.record(kind, SECOND / 10L);
+    }
+    Assertions.assertEquals(SECOND / 10L, timeouts.smoothedNanos(kind));
+    Assertions.assertEquals(10L * SECOND, timeouts.timeoutNanos(kind));
+  }
+
+  @Test
+  public void testSlowCommandsAdapt()
+  {
+    final var timeouts = create();
+    final var kind = kindOf("M810");
+
+    timeouts.record(kind, 30L * SECOND);
+    Assertions.assertEquals(30L * SECOND, timeouts.smoothedNanos(kind));
+    Assertions.assertEquals(90L * SECOND, timeouts.timeoutNanos(kind));
+
+    timeouts.record(kind, 30L * SECOND);
+    Assertions.assertEquals(30L * SECOND, timeouts.smoothedNanos(kind));
+    Assertions.assertEquals(75L * SECOND, timeouts.timeoutNanos(kind));
+  }
+
+  @Test
+  public void testAllowanceIsFloor()
+  {
+    final var timeouts = create();
+    final var kind = kindOf("M109");
+    timeouts.record(kind, SECOND);
+    Assertions.assertEquals(900L * SECOND, timeouts.timeoutNanos(kind));
+  }
+
+  @Test
+  public void testMaximum()
+  {
+    final var timeouts = create();
+    final var kind = kindOf("M810");
+    timeouts.record(kind, 7200L * SECOND);
+    Assertions.assertEquals(3600L * SECOND, timeouts.timeoutNanos(kind));
+  }
+
+  @Test
+  public void testInvalid()
+  {
+    Assertions.assertThrows(IllegalArgumentException.class, () -> {
+      new ISCommandTimeouts(Duration.ZERO, Duration.ofHours(1L));
+    });
+    Assertions.assertThrows(IllegalArgumentException.class, () -> {
+      new ISCommandTimeouts(Duration.ofHours(2L), Duration.ofHours(1L));
+    });
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.printer.api.ISPrinterCommandQueueGCodeType;
+import com.io7m.ironstrata.printer.api.ISSerialPrinterConfiguration;
+import com.io7m.ironstrata.printer.vanilla.ISSerialPrinterFactory;
+import com.io7m.ironstrata.printer.vanilla.ISSerialPrinterMessages;
+import com.io7m.ironstrata.serialport.api.ISSerialPortConfiguration;
+import com.io7m.ironstrata.serialport.api.ISSerialPortType;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measure the time from submitting a command to the command being written
+ * to the port, for emergency commands and for ordinary commands, while the
+ * command queue is full. The simulated printer acknowledges each command a
+ * fixed time after receiving it.
+ */
+
+public final class ISEmergencyLaneBenchmark
+{
+  private static final int ITERATIONS = 50;
+  private static final int QUEUED = 90;
+  private static final long RESPONSE_MICROS = 500L;
+
+  private ISEmergencyLaneBenchmark()
+  {
+
+  }
+
+  public static void main(
+    final String[] args)
+    throws Exception
+  {
+    final var dedicatedReader =
+      args.length > 0 && Boolean.parseBoolean(args[0]);
+
+    final var portConfiguration =
+      ISSerialPortConfiguration.builder()
+        .setDeviceName("/dev/null")
+        .setBaudRate(115_200)
+        .build();
+
+    final var configuration =
+      ISSerialPrinterConfiguration.builder()
+        .setPort(portConfiguration)
+        .setDedicatedReader(dedicatedReader)
+        .build();
+
+    final var emergency = new long[ITERATIONS];
+    final var ordinary = new long[ITERATIONS];
+
+    try (var port = new SimulatedPort()) {
+      final var factory =
+        ISSerialPrinterFactory.builder()
+          .setMessages(ISSerialPrinterMessages.create())
+          .setSerialPorts(portConfiguration0 -> port)
+          .setClock(Clock.systemUTC())
+          .setNanoTime(System::nanoTime)
+          .build();
+
+      try (var printer = factory.open(configuration)) {
+        while (!printer.isOnline()) {
+          Thread.sleep(10L);
+        }
+
+        final var commands =
+          printer.commandQueue(ISPrinterCommandQueueGCodeType.class);
+
+        for (int index = 0; index < ITERATIONS; ++index) {
+          for (int queued = 0; queued < QUEUED - 1; ++queued) {
+            commands.enqueueCompile("G1 X" + queued);
+          }
+
+          final var last = "G1 X" + index + " Y0";
+          port.watch(last);
+          final var timeOrdinary = System.nanoTime();
+          commands.enqueueCompile(last);
+
+          port.watch("M108");
+          final var timeEmergency = System.nanoTime();
+          commands.enqueueEmergency("M108");
+          emergency[index] = port.awaitWritten("M108") - timeEmergency;
+          ordinary[index] = port.awaitWritten(last) - timeOrdinary;
+        }
+      }
+    }
+
+    report("emergency", emergency);
+    report("ordinary", ordinary);
+  }
+
+  private static void report(
+    final String name,
+    final long[] samples)
+  {
+    Arrays.sort(samples);
+    System.out.printf(
+      "%-10s p50 %8.1fus  p90 %8.1fus  p99 %8.1fus  max %8.1fus%n",
+      name,
+      micros(samples, 0.50),
+      micros(samples, 0.90),
+      micros(samples, 0.99),
+      micros(samples, 1.00)
+    );
+  }
+
+  private static double micros(
+    final long[] samples,
+    final double percentile)
+  {
+    final var index =
+      Math.min(
+        samples.length - 1,
+        (int) Math.ceil(percentile * samples.length) - 1);
+    return (double) samples[Math.max(0, index)] / 1_000.0;
+  }
+
+  /**
+   * A port that acknowledges each written line after a fixed delay, and
+   * records the time at which an expected line is written.
+   */
+
+  private static final class SimulatedPort implements ISSerialPortType
+  {
+    private final PublishSubject<String> reads;
+    private final PublishSubject<String> writes;
+    private final LinkedBlockingQueue<String> lines;
+    private final ScheduledExecutorService printer;
+    private final ConcurrentHashMap<String, AtomicLong> watched;
+
+    SimulatedPort()
+    {
+      this.reads = PublishSubject.create();
+      this.writes = PublishSubject.create();
+      this.lines = new LinkedBlockingQueue<>();
+      this.printer = Executors.newSingleThreadScheduledExecutor(r -> {
+        final var thread = new Thread(r);
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.watched = new ConcurrentHashMap<>();
+      this.lines.add("start");
+    }
+
+    /**
+     * Record the time at which the given line is next written.
+     */
+
+    void watch(
+      final String text)
+    {
+      this.watched.put(text, new AtomicLong(-1L));
+    }
+
+    long awaitWritten(
+      final String text)
+      throws InterruptedException
+    {
+      final var time = this.watched.get(text);
+      while (time.get() < 0L) {
+        Thread.sleep(1L);
+      }
+      this.watched.remove(text);
+      return time.get();
+    }
+
+    @Override
+    public Observable<String> reads()
+    {
+      return this.reads;
+    }
+
+    @Override
+    public Observable<String> writes()
+    {
+      return this.writes;
+    }
+
+    @Override
+    public String readLine()
+    {
+      try {
+        return this.lines.poll(10L, TimeUnit.MILLISECONDS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+    }
+
+    @Override
+    public void writeLine(
+      final String text)
+    {
+      final var time = this.watched.get(text);
+      if (time != null) {
+        time.compareAndSet(-1L, System.nanoTime());
+      }
+      this.printer.schedule(
+        () -> this.lines.add("ok"),
+        RESPONSE_MICROS,
+        TimeUnit.MICROSECONDS
+      );
+    }
+
+    @Override
+    public void close()
+    {
+      this.printer.shutdown();
+    }
+  }
+}
@@ -46,6 +46,16 @@ public final class ISFakeClock extends Clock
     this.timeNow = next;
   }
 
+  /**
+   * @return The current time as a monotonic nanosecond value
+   */
+
+  public long nanoTime()
+  {
+    final var time = this.timeNow;
+    return time.getEpochSecond() * 1_000_000_000L + (long) time.getNano();
+  }
+
   @Override
   public ZoneId getZone()
   {
@@ -23,8 +23,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public final class ISFakeSerialPort implements ISSerialPortType
 {
@@ -33,7 +33,7 @@ public final class ISFakeSerialPort implements ISSerialPortType
 
   private final PublishSubject<String> writes;
   private final PublishSubject<String> reads;
-  private Queue<String> lines = new LinkedList<>();
+  private final Queue<String> lines = new ConcurrentLinkedQueue<>();
 
   public ISFakeSerialPort()
   {
@@ -0,0 +1,88 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.printer.api.ISPrinterFirmwareCapabilities;
+import com.io7m.ironstrata.printer.vanilla.internal.ISFirmwareCapabilitiesParser;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class ISFirmwareCapabilitiesParserTest
+{
+  @Test
+  public void testParseMarlin()
+  {
+    final var parser = new ISFirmwareCapabilitiesParser();
+    assertFalse(parser.isPending());
+
+    assertTrue(parser.accept(
+      "FIRMWARE_NAME:Marlin 2.0.9 (Sep 1 2021) "
+        + "SOURCE_CODE_URL:https://github.com/MarlinFirmware/Marlin "
+        + "PROTOCOL_VERSION:1.0 MACHINE_TYPE:Ender-3 V2 EXTRUDER_COUNT:1"));
+    assertTrue(parser.accept("Cap:AUTOREPORT_TEMP:1"));
+    assertTrue(parser.accept("Cap:ADVANCED_OK:1"));
+    assertTrue(parser.accept("Cap:BINARY_FILE_TRANSFER:0"));
+    assertFalse(parser.accept("ok"));
+    assertTrue(parser.isPending());
+
+    final var capabilities = parser.finish();
+    assertFalse(parser.isPending());
+
+    assertEquals("Marlin 2.0.9 (Sep 1 2021)", capabilities.firmwareName().get());
+    assertEquals(
+      "https://github.com/MarlinFirmware/Marlin",
+      capabilities.properties().get("SOURCE_CODE_URL"));
+    assertEquals("1.0", capabilities.properties().get("PROTOCOL_VERSION"));
+    assertEquals("Ender-3 V2", capabilities.properties().get("MACHINE_TYPE"));
+    assertEquals("1", capabilities.properties().get("EXTRUDER_COUNT"));
+
+    assertTrue(capabilities.supports(ISPrinterFirmwareCapabilities.AUTOREPORT_TEMP));
+    assertTrue(capabilities.supports(ISPrinterFirmwareCapabilities.ADVANCED_OK));
+    assertFalse(capabilities.supports(ISPrinterFirmwareCapabilities.BINARY_FILE_TRANSFER));
+    assertFalse(capabilities.supports(ISPrinterFirmwareCapabilities.EMERGENCY_PARSER));
+    assertEquals(3, capabilities.capabilities().size());
+  }
+
+  @Test
+  public void testParseMalformedCapability()
+  {
+    final var parser = new ISFirmwareCapabilitiesParser();
+    assertTrue(parser.accept("Cap:"));
+    assertTrue(parser.accept("Cap::1"));
+
+    final var capabilities = parser.finish();
+    assertFalse(capabilities.firmwareName().isPresent());
+    assertTrue(capabilities.capabilities().isEmpty());
+  }
+
+  @Test
+  public void testReset()
+  {
+    final var parser = new ISFirmwareCapabilitiesParser();
+    assertTrue(parser.accept("FIRMWARE_NAME:Marlin"));
+    assertTrue(parser.accept("Cap:EEPROM:1"));
+    parser.reset();
+    assertFalse(parser.isPending());
+
+    final var capabilities = parser.finish();
+    assertFalse(capabilities.firmwareName().isPresent());
+    assertTrue(capabilities.capabilities().isEmpty());
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.printer.api.ISPrinterEventBufferPolicy;
+import com.io7m.ironstrata.printer.api.ISPrinterEventOnlineStateChanged;
+import com.io7m.ironstrata.printer.api.ISPrinterEventType;
+import com.io7m.ironstrata.printer.vanilla.internal.ISPrinterEventBuffer;
+import com.io7m.ironstrata.printer.vanilla.internal.ISPrinterEventDispatcher;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public final class ISPrinterEventDispatcherTest
+{
+  private static ISPrinterEventType event(
+    final int index)
+  {
+    return ISPrinterEventOnlineStateChanged.of(
+      OffsetDateTime.ofInstant(Instant.ofEpochSecond(index), ZoneOffset.UTC),
+      true
+    );
+  }
+
+  private static long indexOf(
+    final ISPrinterEventType event)
+  {
+    return event.time().toEpochSecond();
+  }
+
+  private static void awaitDelivered(
+    final CopyOnWriteArrayList<ISPrinterEventType> received,
+    final long wanted)
+    throws InterruptedException
+  {
+    final var timeEnd = System.nanoTime() + 10_000_000_000L;
+    while (received.size() < wanted && System.nanoTime() < timeEnd) {
+      Thread.sleep(10L);
+    }
+  }
+
+  /**
+   * Events are delivered on the dispatch thread.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testDeliveredOffThread()
+    throws Exception
+  {
+    final var dispatcher = new ISPrinterEventDispatcher(16);
+    final var threads = new CopyOnWriteArrayList<String>();
+    final var completed = new CountDownLatch(1);
+
+    dispatcher.events()
+      .subscribe(
+        e -> threads.add(Thread.currentThread().getName()),
+        e -> { },
+        completed::countDown);
+
+    dispatcher.publish(event(0));
+    dispatcher.publish(event(1));
+    dispatcher.complete();
+
+    Assertions.assertTrue(completed.await(10L, TimeUnit.SECONDS));
+    Assertions.assertEquals(2, threads.size());
+    for (final var name : threads) {
+      Assertions.assertNotEquals(Thread.currentThread().getName(), name);
+      Assertions.assertTrue(name.startsWith("com.io7m.ironstrata.printer.events"));
+    }
+  }
+
+  /**
+   * Dispatchers share their threads, and an idle dispatcher does not
+   * occupy a thread.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testDispatchersShareThreads()
+    throws Exception
+  {
+    final var threads = new ConcurrentSkipListSet<String>();
+    final var received = new CopyOnWriteArrayList<ISPrinterEventType>();
+
+    for (int index = 0; index < 100; ++index) {
+      final var dispatcher = new ISPrinterEventDispatcher(16);
+      dispatcher.events()
+        .subscribe(e -> {
+          threads.add(Thread.currentThread().getName());
+          received.add(e);
+        });
+      dispatcher.publish(event(index));
+      awaitDelivered(received, index + 1L);
+      Thread.sleep(1L);
+      dispatcher.complete();
+    }
+
+    Assertions.assertEquals(100, received.size());
+    Assertions.assertTrue(threads.size() < 50);
+  }
+
+  /**
+   * A blocked subscriber causes events to be dropped rather than blocking
+   * the publisher.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testBlockedSubscriberDrops()
+    throws Exception
+  {
+    final var dispatcher = new ISPrinterEventDispatcher(8);
+    final var release = new CountDownLatch(1);
+    final var received = new CopyOnWriteArrayList<ISPrinterEventType>();
+
+    dispatcher.events()
+      .subscribe(e -> {
+        release.await();
+        received.add(e);
+      });
+
+    for (int index = 0; index < 100; ++index) {
+      dispatcher.publish(event(index));
+    }
+    release.countDown();
+    awaitDelivered(received, 100L - dispatcher.dropped());
+
+    Assertions.assertTrue(dispatcher.dropped() > 0L);
+    Assertions.assertEquals(100L, received.size() + dispatcher.dropped());
+    dispatcher.complete();
+  }
+
+  /**
+   * A subscriber with a drop-oldest buffer receives the newest events, and
+   * does not hold up other subscribers.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testBufferDropOldest()
+    throws Exception
+  {
+    final var dispatcher = new ISPrinterEventDispatcher(1024);
+    final var buffer =
+      ISPrinterEventBuffer.create(
+        dispatcher.events(), ISPrinterEventBufferPolicy.DROP_OLDEST, 4);
+
+    final var release = new CountDownLatch(1);
+    final var slow = new CopyOnWriteArrayList<ISPrinterEventType>();
+    final var fast = new CopyOnWriteArrayList<ISPrinterEventType>();
+
+    buffer.events()
+      .subscribe(e -> {
+        release.await();
+        slow.add(e);
+      });
+    dispatcher.events().subscribe(fast::add);
+
+    for (int index = 0; index < 100; ++index) {
+      dispatcher.publish(event(index));
+    }
+    awaitDelivered(fast, 100L);
+    Assertions.assertEquals(100, fast.size());
+
+    release.countDown();
+    awaitDelivered(slow, 100L - buffer.dropped());
+
+    Assertions.assertTrue(buffer.dropped() > 0L);
+    Assertions.assertEquals(100L, slow.size() + buffer.dropped());
+    Assertions.assertEquals(99L, indexOf(slow.get(slow.size() - 1)));
+    dispatcher.complete();
+  }
+
+  /**
+   * A subscriber with a latest-only buffer always receives the most recent
+   * event, and holds no more than one event while it is busy.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testBufferLatestOnly()
+    throws Exception
+  {
+    final var dispatcher = new ISPrinterEventDispatcher(1024);
+    final var buffer =
+      ISPrinterEventBuffer.create(
+        dispatcher.events(), ISPrinterEventBufferPolicy.LATEST_ONLY, 100);
+
+    final var release = new CountDownLatch(1);
+    final var slow = new CopyOnWriteArrayList<ISPrinterEventType>();
+
+    buffer.events()
+      .subscribe(e -> {
+        release.await();
+        slow.add(e);
+      });
+
+    for (int index = 0; index < 100; ++index) {
+      dispatcher.publish(event(index));
+    }
+    Thread.sleep(250L);
+    release.countDown();
+    awaitDelivered(slow, 100L - buffer.dropped());
+
+    Assertions.assertTrue(slow.size() <= 2);
+    Assertions.assertEquals(100L, slow.size() + buffer.dropped());
+    Assertions.assertEquals(99L, indexOf(slow.get(slow.size() - 1)));
+    dispatcher.complete();
+  }
+
+  /**
+   * A subscriber with an unbounded buffer receives every event, and does
+   * not hold up other subscribers or cause the dispatcher to drop events.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testBufferUnbounded()
+    throws Exception
+  {
+    final var dispatcher = new ISPrinterEventDispatcher(16);
+    final var unbounded =
+      ISPrinterEventBuffer.create(
+        dispatcher.events(), ISPrinterEventBufferPolicy.UNBOUNDED, 4);
+    final var dropping =
+      ISPrinterEventBuffer.create(
+        dispatcher.events(), ISPrinterEventBufferPolicy.DROP_OLDEST, 100);
+
+    final var release = new CountDownLatch(1);
+    final var slow = new CopyOnWriteArrayList<ISPrinterEventType>();
+    final var fast = new CopyOnWriteArrayList<ISPrinterEventType>();
+
+    unbounded.events()
+      .subscribe(e -> {
+        release.await();
+        slow.add(e);
+      });
+    dropping.events().subscribe(fast::add);
+
+    final var timeEnd = System.nanoTime() + 10_000_000_000L;
+    for (int index = 0; index < 100; ++index) {
+      while (fast.size() + 8 < index && System.nanoTime() < timeEnd) {
+        Thread.sleep(1L);
+      }
+      dispatcher.publish(event(index));
+    }
+    awaitDelivered(fast, 100L);
+    Assertions.assertEquals(100, fast.size());
+    Assertions.assertEquals(0L, dispatcher.dropped());
+    Assertions.assertEquals(0L, dropping.dropped());
+
+    release.countDown();
+    awaitDelivered(slow, 100L);
+
+    Assertions.assertEquals(100, slow.size());
+    Assertions.assertEquals(0L, unbounded.dropped());
+    for (int index = 0; index < 100; ++index) {
+      Assertions.assertEquals((long) index, indexOf(slow.get(index)));
+    }
+    dispatcher.complete();
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.serialport.api.ISSerialLineFramer;
+import com.io7m.ironstrata.serialport.api.ISSerialLines;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+public final class ISSerialLineFramerTest
+{
+  private static ByteBuffer bytes(
+    final String text)
+  {
+    final var data = text.getBytes(US_ASCII);
+    final var buffer = ByteBuffer.allocateDirect(data.length);
+    buffer.put(data);
+    buffer.flip();
+    return buffer;
+  }
+
+  @Test
+  public void testFrameLines()
+  {
+    final var framer = new ISSerialLineFramer();
+    final var buffer = bytes("ok\r\nT:20.0 B:30.0  \nok");
+
+    Assertions.assertTrue(framer.frame(buffer));
+    Assertions.assertEquals("ok", framer.line().toString());
+    Assertions.assertTrue(framer.frame(buffer));
+    Assertions.assertEquals("T:20.0 B:30.0", framer.line().toString());
+    Assertions.assertFalse(framer.frame(buffer));
+    Assertions.assertFalse(buffer.hasRemaining());
+  }
+
+  @Test
+  public void testFrameSplit()
+  {
+    final var framer = new ISSerialLineFramer();
+    final var line = framer.line();
+
+    Assertions.assertFalse(framer.frame(bytes("Resend")));
+    Assertions.assertFalse(framer.frame(bytes(": ")));
+    Assertions.assertTrue(framer.frame(bytes("23\nok\n")));
+    Assertions.assertSame(line, framer.line());
+    Assertions.assertEquals("Resend: 23", line.toString());
+  }
+
+  @Test
+  public void testFrameTruncated()
+  {
+    final var framer = new ISSerialLineFramer(4);
+    Assertions.assertTrue(framer.frame(bytes("abcdefgh\n")));
+    Assertions.assertEquals("abcd", framer.line().toString());
+    Assertions.assertTrue(framer.frame(bytes("xy\n")));
+    Assertions.assertEquals("xy", framer.line().toString());
+  }
+
+  @Test
+  public void testFrameNonASCII()
+  {
+    final var framer = new ISSerialLineFramer();
+    final var buffer = ByteBuffer.wrap(new byte[]{'o', (byte) 0xff, '\n'});
+    Assertions.assertTrue(framer.frame(buffer));
+    Assertions.assertEquals('\uFFFD', framer.line().charAt(1));
+    Assertions.assertEquals("o\uFFFD", framer.line().toString());
+  }
+
+  @Test
+  public void testClassify()
+  {
+    final var framer = new ISSerialLineFramer();
+    Assertions.assertTrue(framer.frame(bytes("ok T:20.0\n")));
+
+    final var line = framer.line();
+    Assertions.assertTrue(ISSerialLines.startsWith(line, "ok"));
+    Assertions.assertTrue(ISSerialLines.startsWithIgnoreCase(line, "OK"));
+    Assertions.assertTrue(ISSerialLines.startsWithIgnoreCase(line, 3, "t:"));
+    Assertions.assertFalse(ISSerialLines.isEqualTo(line, "ok"));
+    Assertions.assertFalse(ISSerialLines.startsWith(line, "ok T:20.0 B"));
+    Assertions.assertEquals(4, ISSerialLines.indexOf(line, ':'));
+    Assertions.assertEquals(-1, ISSerialLines.indexOf(line, '/'));
+  }
+}
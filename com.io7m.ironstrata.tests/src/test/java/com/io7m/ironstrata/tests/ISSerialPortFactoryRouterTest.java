@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.serialport.api.ISSerialPortFactoryRouter;
+import com.io7m.ironstrata.serialport.plain.ISerialPortsPlain;
+import com.io7m.ironstrata.serialport.socket.ISerialPortsSocket;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class ISSerialPortFactoryRouterTest
+{
+  /**
+   * Devices are routed to the factory that supports them, regardless of
+   * the order of the factories.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRouting()
+    throws Exception
+  {
+    final var plain = new ISerialPortsPlain();
+    final var socket = new ISerialPortsSocket();
+
+    for (final var factories : List.of(
+      List.of(plain, socket),
+      List.of(socket, plain))) {
+      final var router = new ISSerialPortFactoryRouter(factories);
+      assertTrue(
+        router.factoryFor("/dev/ttyACM0") instanceof ISerialPortsPlain);
+      assertTrue(
+        router.factoryFor("tcp://localhost:2000")
+          instanceof ISerialPortsSocket);
+      assertTrue(router.supports("/dev/ttyACM0"));
+      assertFalse(router.supports("udp://localhost:2000"));
+    }
+  }
+
+  /**
+   * Devices that no factory supports are rejected.
+   */
+
+  @Test
+  public void testUnsupported()
+  {
+    final var router =
+      new ISSerialPortFactoryRouter(List.of(new ISerialPortsSocket()));
+
+    assertThrows(IOException.class, () -> router.factoryFor("/dev/ttyACM0"));
+  }
+
+  /**
+   * Devices that more than one factory supports are rejected.
+   */
+
+  @Test
+  public void testAmbiguous()
+  {
+    final var router =
+      new ISSerialPortFactoryRouter(
+        List.of(new ISerialPortsPlain(), new ISerialPortsPlain()));
+
+    assertThrows(IOException.class, () -> router.factoryFor("/dev/ttyACM0"));
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.serialport.logging.ISSerialPortLatencyLogger;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class ISSerialPortLatencyLoggerTest
+{
+  @Test
+  public void testCommandCodes()
+  {
+    assertEquals("G1", ISSerialPortLatencyLogger.commandCode("G1 X10"));
+    assertEquals("G1", ISSerialPortLatencyLogger.commandCode("N12 g1 X10*34"));
+    assertEquals("M105", ISSerialPortLatencyLogger.commandCode("M105"));
+    assertEquals("G28.1", ISSerialPortLatencyLogger.commandCode("G28.1"));
+    assertEquals("?", ISSerialPortLatencyLogger.commandCode("N12"));
+    assertEquals("?", ISSerialPortLatencyLogger.commandCode(""));
+  }
+
+  @Test
+  public void testPairing()
+    throws IOException
+  {
+    final var clock = new ISFakeClock();
+    clock.timeNow = Instant.parse("2000-01-01T00:00:00Z");
+
+    final var nanos = new AtomicLong();
+    final var port = new ISFakeSerialPort();
+    final var logW = new StringWriter();
+
+    try (var logger = ISSerialPortLatencyLogger.create(
+      clock, nanos::get, port, new BufferedWriter(logW))) {
+
+      port.writeLine("N1 M105*1");
+      nanos.addAndGet(1_500_000L);
+      port.addLine("T:200 B:60");
+      port.addLine("ok");
+      port.readLine();
+      port.readLine();
+
+      port.writeLine("N2 G1 X1*2");
+      port.writeLine("N3 G1 X2*3");
+      nanos.addAndGet(2_000_000L);
+      port.addLine("ok N3 P15 B3");
+      port.readLine();
+
+      assertEquals(Set.of("G1", "M105"), logger.commandCodes());
+      assertEquals(1L, logger.count("G1"));
+      assertEquals(1L, logger.count("M105"));
+      assertEquals(1L, logger.unpairedCommands());
+      assertEquals(1500L, logger.latencyPercentileMicros("M105", 50.0));
+      assertEquals(2000L, logger.latencyPercentileMicros("G1", 99.0));
+      assertEquals(0L, logger.droppedLines());
+    }
+
+    final var lines = List.of(logW.toString().split("\n"));
+    assertEquals(
+      "2000-01-01T00:00:00Z M105 1500us N1 M105*1 => T:200 B:60 | ok",
+      lines.get(0));
+    assertEquals(
+      "2000-01-01T00:00:00Z G1 2000us N3 G1 X2*3 => ok N3 P15 B3",
+      lines.get(1));
+    assertTrue(lines.get(2).contains(" summary G1 count=1 "));
+    assertTrue(lines.get(3).contains(" summary M105 count=1 "));
+  }
+
+  @Test
+  public void testResend()
+    throws IOException
+  {
+    final var clock = new ISFakeClock();
+    clock.timeNow = Instant.parse("2000-01-01T00:00:00Z");
+
+    final var nanos = new AtomicLong();
+    final var port = new ISFakeSerialPort();
+    final var logW = new StringWriter();
+
+    try (var logger = ISSerialPortLatencyLogger.create(
+      clock, nanos::get, port, new BufferedWriter(logW))) {
+
+      port.writeLine("N1 G1 X1");
+      port.writeLine("N2 G1 X2");
+      port.writeLine("N3 G1 X3");
+      nanos.addAndGet(500_000L);
+      port.addLine("ok");
+      port.addLine("Error:Line Number is not Last Line Number+1, Last Line: 1");
+      port.addLine("Resend: 2");
+      port.addLine("ok");
+      for (int index = 0; index < 4; ++index) {
+        port.readLine();
+      }
+
+      nanos.addAndGet(10_000_000L);
+      port.writeLine("N2 G1 X2");
+      port.writeLine("N3 G1 X3");
+      nanos.addAndGet(1_000_000L);
+      port.addLine("ok");
+      port.addLine("ok");
+      port.readLine();
+      port.readLine();
+
+      assertEquals(3L, logger.count("G1"));
+      assertEquals(2L, logger.resentCommands());
+      assertEquals(0L, logger.unpairedCommands());
+      assertEquals(1000L, logger.latencyPercentileMicros("G1", 100.0));
+    }
+
+    final var lines = List.of(logW.toString().split("\n"));
+    assertEquals(
+      "2000-01-01T00:00:00Z G1 500us N1 G1 X1 => ok",
+      lines.get(0));
+    assertEquals(
+      "2000-01-01T00:00:00Z G1 1000us N2 G1 X2 => ok",
+      lines.get(1));
+    assertEquals(
+      "2000-01-01T00:00:00Z G1 1000us N3 G1 X3 => ok",
+      lines.get(2));
+  }
+
+  @Test
+  public void testPercentiles()
+    throws IOException
+  {
+    final var nanos = new AtomicLong();
+    final var port = new ISFakeSerialPort();
+
+    try (var logger = ISSerialPortLatencyLogger.create(
+      new ISFakeClock(), nanos::get, port, new BufferedWriter(new StringWriter()))) {
+      for (int index = 1; index <= 100; ++index) {
+        port.addLine("ok");
+      }
+      for (int index = 1; index <= 100; ++index) {
+        port.writeLine("G0 X" + index);
+        nanos.addAndGet(index * 1000L);
+        port.readLine();
+      }
+
+      assertEquals(100L, logger.count("G0"));
+      final var p50 = logger.latencyPercentileMicros("G0", 50.0);
+      assertTrue(p50 >= 50L && p50 <= 54L, "p50 " + p50);
+      assertEquals(100L, logger.latencyPercentileMicros("G0", 100.0));
+      assertEquals(1L, logger.latencyPercentileMicros("G0", 0.0));
+    }
+  }
+}
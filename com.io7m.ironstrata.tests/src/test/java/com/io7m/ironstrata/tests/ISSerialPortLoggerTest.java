@@ -22,6 +22,7 @@ import org.junit.jupiter.api.Test;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.time.Instant;
 import java.util.List;
 
@@ -79,4 +80,115 @@ public final class ISSerialPortLoggerTest
     assertEquals("2000-01-01T00:00:20.000000200Z Beta", logWriteLines.get(1));
     assertEquals("2000-01-01T00:00:40.000000400Z Delta", logWriteLines.get(2));
   }
+
+  @Test
+  public void testLoggerAsynchronous()
+    throws IOException
+  {
+    final var fakeClock = new ISFakeClock();
+    fakeClock.timeNow = Instant.parse("2000-01-01T00:00:00Z");
+
+    final var portBase = new ISFakeSerialPort();
+    final var logReadW = new StringWriter();
+    final var logRead = new BufferedWriter(logReadW);
+    final var logWriteW = new StringWriter();
+    final var logWrite = new BufferedWriter(logWriteW);
+
+    try (var ignored = ISSerialPortLogger.createAsynchronous(
+      fakeClock, portBase, logRead, logWrite, 16)) {
+      portBase.addLine("Read 0");
+      portBase.addLine("Read 1");
+      portBase.addLine("Read 2");
+
+      portBase.writeLine("Alpha");
+      fakeClock.tick(10L);
+
+      portBase.readLine();
+      fakeClock.tick(10L);
+
+      portBase.writeLine("Beta");
+      fakeClock.tick(10L);
+
+      portBase.readLine();
+      fakeClock.tick(10L);
+
+      portBase.writeLine("Delta");
+      fakeClock.tick(10L);
+
+      portBase.readLine();
+      fakeClock.tick(10L);
+    }
+
+    final var logReadLines =
+      List.of(logReadW.toString().split("\n"));
+    final var logWriteLines =
+      List.of(logWriteW.toString().split("\n"));
+
+    assertEquals("2000-01-01T00:00:10.000000100Z Read 0", logReadLines.get(0));
+    assertEquals("2000-01-01T00:00:30.000000300Z Read 1", logReadLines.get(1));
+    assertEquals("2000-01-01T00:00:50.000000500Z Read 2", logReadLines.get(2));
+
+    assertEquals("2000-01-01T00:00:00Z Alpha", logWriteLines.get(0));
+    assertEquals("2000-01-01T00:00:20.000000200Z Beta", logWriteLines.get(1));
+    assertEquals("2000-01-01T00:00:40.000000400Z Delta", logWriteLines.get(2));
+  }
+
+  @Test
+  public void testLoggerAsynchronousFailure()
+    throws IOException
+  {
+    final var fakeClock = new ISFakeClock();
+    fakeClock.timeNow = Instant.parse("2000-01-01T00:00:00Z");
+
+    final var portBase = new ISFakeSerialPort();
+    final var logReadW = new StringWriter();
+    final var logRead = new BufferedWriter(logReadW);
+    final var logWrite = new BufferedWriter(new FailingWriter(), 1);
+
+    final var logger =
+      ISSerialPortLogger.createAsynchronous(
+        fakeClock, portBase, logRead, logWrite, 16);
+
+    portBase.addLine("Read 0");
+    portBase.writeLine("Alpha");
+    portBase.writeLine("Beta");
+    portBase.readLine();
+
+    logger.close();
+    assertEquals(2L, logger.failedLines());
+
+    final var logReadLines =
+      List.of(logReadW.toString().split("\n"));
+    assertEquals("2000-01-01T00:00:00Z Read 0", logReadLines.get(0));
+  }
+
+  private static final class FailingWriter extends Writer
+  {
+    FailingWriter()
+    {
+
+    }
+
+    @Override
+    public void write(
+      final char[] buffer,
+      final int offset,
+      final int length)
+      throws IOException
+    {
+      throw new IOException("Disk full");
+    }
+
+    @Override
+    public void flush()
+    {
+
+    }
+
+    @Override
+    public void close()
+    {
+
+    }
+  }
 }
@@ -0,0 +1,306 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.serialport.api.ISSerialPortConfiguration;
+import com.io7m.ironstrata.serialport.api.ISSerialPortType;
+import com.io7m.ironstrata.serialport.plain.ISerialPortsPlain;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class ISSerialPortPlainTest
+{
+  /**
+   * A program that opens a pseudo-terminal pair, prints the name of the
+   * terminal side, and then relays its standard input and output to and
+   * from the controlling side.
+   */
+
+  private static final String PTY_RELAY = String.join(
+    "\n",
+    "import os, pty, select, sys",
+    "m, s = pty.openpty()",
+    "sys.stdout.write(os.ttyname(s) + '\\n')",
+    "sys.stdout.flush()",
+    "while True:",
+    "  r, _, _ = select.select([m, 0], [], [])",
+    "  if 0 in r:",
+    "    d = os.read(0, 4096)",
+    "    if not d:",
+    "      break",
+    "    os.write(m, d)",
+    "  if m in r:",
+    "    try:",
+    "      d = os.read(m, 4096)",
+    "    except OSError:",
+    "      break",
+    "    sys.stdout.buffer.write(d)",
+    "    sys.stdout.flush()",
+    ""
+  );
+
+  private Path directory;
+  private Process relay;
+  private BufferedReader relayOutput;
+
+  private static ISSerialPortConfiguration configuration(
+    final Path file)
+  {
+    return ISSerialPortConfiguration.builder()
+      .setDeviceName(file.toString())
+      .setBaudRate(115_200)
+      .setReadTimeout(Duration.ofMillis(250L))
+      .build();
+  }
+
+  @BeforeEach
+  public void setup()
+    throws IOException
+  {
+    this.directory = Files.createTempDirectory("ironstrata");
+  }
+
+  @AfterEach
+  public void tearDown()
+    throws IOException
+  {
+    if (this.relay != null) {
+      this.relay.destroyForcibly();
+    }
+
+    try (var stream = Files.list(this.directory)) {
+      for (final var file : (Iterable<Path>) stream::iterator) {
+        Files.deleteIfExists(file);
+      }
+    }
+    Files.deleteIfExists(this.directory);
+  }
+
+  /**
+   * Lines are framed from the device, and nothing is read at the end of the
+   * stream.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testReadLines()
+    throws Exception
+  {
+    final var file = this.directory.resolve("tty");
+    Files.write(file, "start\r\nok T:20.0\nok\n".getBytes(US_ASCII));
+
+    final var ports = new ISerialPortsPlain();
+    try (var port = ports.open(configuration(file))) {
+      final var reads = port.reads().test();
+
+      assertEquals("start", port.readLine());
+      assertEquals("ok T:20.0", port.readLine());
+      assertEquals("ok", port.readLine());
+      assertNull(port.readLine());
+      assertNull(port.pollLineView());
+
+      reads.assertValues("start", "ok T:20.0", "ok");
+    }
+  }
+
+  /**
+   * Reading from a silent device returns nothing after the read timeout,
+   * and returns data as soon as it is available.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testReadTimeout()
+    throws Exception
+  {
+    final var fifo = this.directory.resolve("fifo");
+    final Process process;
+    try {
+      process = new ProcessBuilder("mkfifo", fifo.toString()).start();
+    } catch (final IOException e) {
+      Assumptions.assumeTrue(false, "mkfifo is unavailable");
+      return;
+    }
+    Assumptions.assumeTrue(process.waitFor(10L, TimeUnit.SECONDS));
+    Assumptions.assumeTrue(process.exitValue() == 0);
+
+    final var ports = new ISerialPortsPlain();
+    try (var port = ports.open(configuration(fifo))) {
+      final var timeThen = System.nanoTime();
+      assertNull(port.readLine());
+      final var timeElapsed = System.nanoTime() - timeThen;
+      assertTrue(timeElapsed >= Duration.ofMillis(200L).toNanos());
+
+      port.writeLine("ok");
+      assertEquals("ok", port.readLine());
+    }
+  }
+
+  /**
+   * A batch of lines is written in order, and each line is published.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testWriteLines()
+    throws Exception
+  {
+    final var file = this.directory.resolve("tty");
+    Files.write(file, new byte[0]);
+
+    final var lines = new ArrayList<String>();
+    final var expected = new StringBuilder();
+    for (int index = 0; index < 1000; ++index) {
+      final var line = String.format("N%d G1 X%d Y%d", index, index, index);
+      lines.add(line + "  ");
+      expected.append(line);
+      expected.append('\n');
+    }
+
+    final var ports = new ISerialPortsPlain();
+    try (var port = ports.open(configuration(file))) {
+      final var writes = port.writes().test();
+      port.writeLines(List.of("G28", "M105 \r"));
+      port.writeLines(lines);
+      writes.assertValueCount(1002);
+      writes.assertValueAt(0, "G28");
+      writes.assertValueAt(1, "M105");
+      writes.assertValueAt(2, "N0 G1 X0 Y0");
+    }
+
+    assertEquals(
+      "G28\nM105\n" + expected,
+      Files.readString(file, US_ASCII)
+    );
+  }
+
+  private String openPseudoTerminal()
+    throws IOException
+  {
+    try {
+      this.relay = new ProcessBuilder("python3", "-c", PTY_RELAY).start();
+    } catch (final IOException e) {
+      Assumptions.assumeTrue(false, "python3 is unavailable");
+    }
+
+    this.relayOutput =
+      new BufferedReader(
+        new InputStreamReader(this.relay.getInputStream(), US_ASCII));
+    final var name = this.relayOutput.readLine();
+    Assumptions.assumeTrue(name != null, "a pseudo-terminal is unavailable");
+    return name;
+  }
+
+  private void runPseudoTerminal(
+    final int baudRate)
+    throws Exception
+  {
+    final var name = this.openPseudoTerminal();
+
+    final var ports = new ISerialPortsPlain();
+    try (var port = ports.open(
+      ISSerialPortConfiguration.builder()
+        .setDeviceName(name)
+        .setBaudRate(baudRate)
+        .setReadTimeout(Duration.ofMillis(100L))
+        .build())) {
+
+      for (int index = 0; index < 5; ++index) {
+        assertNull(port.readLine());
+      }
+
+      final var input = this.relay.getOutputStream();
+      input.write("ok T:20.0\n".getBytes(US_ASCII));
+      input.flush();
+      assertEquals("ok T:20.0", port.readLine());
+
+      port.writeLine("M105");
+      assertEquals("M105", this.relayOutput.readLine());
+    }
+  }
+
+  /**
+   * A terminal that stays silent for several read timeouts is not mistaken
+   * for the end of the stream.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPseudoTerminalSilence()
+    throws Exception
+  {
+    this.runPseudoTerminal(115_200);
+  }
+
+  /**
+   * A non-standard baud rate is either applied, or opening the terminal
+   * fails; the rate is never silently ignored.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPseudoTerminalNonStandardBaudRate()
+    throws Exception
+  {
+    final var name = this.openPseudoTerminal();
+
+    final var ports = new ISerialPortsPlain();
+    final ISSerialPortType port;
+    try {
+      port = ports.open(
+        ISSerialPortConfiguration.builder()
+          .setDeviceName(name)
+          .setBaudRate(250_000)
+          .build());
+    } catch (final IOException e) {
+      assertTrue(e.getMessage().contains("250000"), e.getMessage());
+      return;
+    }
+
+    try (port) {
+      final var stty =
+        new ProcessBuilder("stty", "-F", name, "speed")
+          .redirectErrorStream(true)
+          .start();
+      final var speed =
+        new String(stty.getInputStream().readAllBytes(), US_ASCII).trim();
+      assertEquals("250000", speed);
+    }
+  }
+}
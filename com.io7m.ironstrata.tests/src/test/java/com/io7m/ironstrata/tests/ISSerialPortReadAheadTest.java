@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.serialport.api.ISSerialPortReadAhead;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public final class ISSerialPortReadAheadTest
+{
+  @Test
+  public void testReadsInOrder()
+    throws IOException
+  {
+    final var fake = new ISFakeSerialPort();
+    fake.addLine("ok");
+    fake.addLine("T:20.0 B:30.0");
+    fake.addLine("ok");
+
+    final var received = new CopyOnWriteArrayList<String>();
+    try (var port =
+           ISSerialPortReadAhead.create(fake, 2, Duration.ofSeconds(1L))) {
+      port.reads().subscribe(received::add);
+      Assertions.assertEquals("ok", port.readLine());
+      Assertions.assertEquals("T:20.0 B:30.0", port.readLineView().toString());
+      Assertions.assertEquals("ok", port.readLine());
+    }
+
+    Assertions.assertEquals(List.of("ok", "T:20.0 B:30.0", "ok"), received);
+  }
+
+  @Test
+  public void testReadTimeout()
+    throws IOException
+  {
+    final var fake = new ISFakeSerialPort();
+    try (var port =
+           ISSerialPortReadAhead.create(fake, 4, Duration.ofMillis(100L))) {
+      Assertions.assertNull(port.readLine());
+    }
+  }
+
+  @Test
+  public void testWriteWhileReading()
+    throws IOException
+  {
+    final var fake = new ISFakeSerialPort();
+    final var written = new CopyOnWriteArrayList<String>();
+    fake.writes().subscribe(written::add);
+
+    try (var port =
+           ISSerialPortReadAhead.create(fake, 4, Duration.ofSeconds(1L))) {
+      port.writeLine("G28");
+      fake.addLine("ok");
+      Assertions.assertEquals("ok", port.readLine());
+    }
+
+    Assertions.assertEquals(List.of("G28"), written);
+  }
+
+  @Test
+  public void testReadError()
+    throws IOException
+  {
+    final var fake = new ISFakeSerialPort();
+    fake.addLine("ok");
+    fake.addLine("X");
+
+    try (var port =
+           ISSerialPortReadAhead.create(fake, 4, Duration.ofSeconds(1L))) {
+      Assertions.assertEquals("ok", port.readLine());
+      Assertions.assertThrows(IOException.class, port::readLine);
+    }
+  }
+
+  @Test
+  public void testReadableListener()
+    throws Exception
+  {
+    final var fake = new ISFakeSerialPort();
+    Assertions.assertFalse(fake.setReadableListener(() -> { }));
+
+    final var readable = new Semaphore(0);
+    try (var port =
+           ISSerialPortReadAhead.create(fake, 4, Duration.ofSeconds(1L))) {
+      Assertions.assertTrue(port.setReadableListener(readable::release));
+      Assertions.assertNull(port.pollLineView());
+
+      fake.addLine("ok");
+      Assertions.assertTrue(readable.tryAcquire(5L, TimeUnit.SECONDS));
+      Assertions.assertEquals("ok", port.pollLineView().toString());
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.serialport.logging.ISSerialPortRecorder;
+import com.io7m.ironstrata.serialport.logging.ISSerialPortRecording;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class ISSerialPortRecorderTest
+{
+  private Path directory;
+  private Path dataFile;
+  private Path indexFile;
+
+  @BeforeEach
+  public void setup()
+    throws IOException
+  {
+    this.directory = Files.createTempDirectory("ironstrata");
+    this.dataFile = this.directory.resolve("recording.dat");
+    this.indexFile = this.directory.resolve("recording.idx");
+  }
+
+  @AfterEach
+  public void tearDown()
+    throws IOException
+  {
+    Files.deleteIfExists(this.dataFile);
+    Files.deleteIfExists(this.indexFile);
+    Files.deleteIfExists(this.directory);
+  }
+
+  /**
+   * Recorded traffic is read back in order with its direction and time.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRecordAndRead()
+    throws Exception
+  {
+    final var clock = new ISFakeClock();
+    clock.timeNow = Instant.parse("2000-01-01T00:00:00Z");
+    final var time = new AtomicLong(0L);
+    final var port = new ISFakeSerialPort();
+
+    try (var ignored = ISSerialPortRecorder.create(
+      clock, time::get, port, this.dataFile, this.indexFile,
+      Duration.ofSeconds(60L))) {
+      port.addLine("start");
+      time.addAndGet(1_000L);
+      port.readLine();
+      time.addAndGet(2_000L);
+      port.writeLine("M105");
+      time.addAndGet(3_000L);
+      port.addLine("ok T:20.0");
+      port.readLine();
+    }
+
+    try (var recording =
+           ISSerialPortRecording.open(this.dataFile, this.indexFile)) {
+      assertEquals(clock.timeNow, recording.timeStart());
+
+      assertTrue(recording.next());
+      assertTrue(recording.isRead());
+      assertEquals("start", recording.text());
+      assertEquals(Duration.ofNanos(1_000L), recording.time());
+
+      assertTrue(recording.next());
+      assertFalse(recording.isRead());
+      assertEquals("M105", recording.text());
+      assertEquals(Duration.ofNanos(3_000L), recording.time());
+
+      assertTrue(recording.next());
+      assertTrue(recording.isRead());
+      assertEquals("ok T:20.0", recording.text());
+      assertEquals(Duration.ofNanos(6_000L), recording.time());
+
+      assertFalse(recording.next());
+    }
+  }
+
+  /**
+   * Lines that are not ASCII are recorded as UTF-8.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRecordUnicode()
+    throws Exception
+  {
+    final var time = new AtomicLong(0L);
+    final var port = new ISFakeSerialPort();
+
+    try (var ignored = ISSerialPortRecorder.create(
+      new ISFakeClock(), time::get, port, this.dataFile, this.indexFile,
+      Duration.ofSeconds(60L))) {
+      port.writeLine("M117 Temp\u00e9rature \u00b0C \ud83d\udd25");
+      port.writeLine("M117 Done");
+    }
+
+    try (var recording =
+           ISSerialPortRecording.open(this.dataFile, this.indexFile)) {
+      assertTrue(recording.next());
+      assertEquals(
+        "M117 Temp\u00e9rature \u00b0C \ud83d\udd25",
+        recording.text());
+      assertTrue(recording.next());
+      assertEquals("M117 Done", recording.text());
+      assertFalse(recording.next());
+    }
+  }
+
+  /**
+   * Seeking finds the first record at or after the requested time.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testSeek()
+    throws Exception
+  {
+    final var time = new AtomicLong(0L);
+    final var port = new ISFakeSerialPort();
+
+    try (var ignored = ISSerialPortRecorder.create(
+      new ISFakeClock(), time::get, port, this.dataFile, this.indexFile,
+      Duration.ofSeconds(10L))) {
+      for (int index = 0; index < 120; ++index) {
+        time.addAndGet(Duration.ofSeconds(1L).toNanos());
+        port.writeLine(String.format("N%d G1 X%d", index, index));
+      }
+    }
+
+    assertTrue(Files.size(this.indexFile) > 16L);
+
+    try (var recording =
+           ISSerialPortRecording.open(this.dataFile, this.indexFile)) {
+      recording.seek(Duration.ofMinutes(1L));
+      assertTrue(recording.next());
+      assertEquals(Duration.ofMinutes(1L), recording.time());
+      assertEquals("N59 G1 X59", recording.text());
+
+      recording.seek(Duration.ofMinutes(1L).plusMillis(1L));
+      assertTrue(recording.next());
+      assertEquals("N60 G1 X60", recording.text());
+
+      recording.seek(Duration.ZERO);
+      assertTrue(recording.next());
+      assertEquals("N0 G1 X0", recording.text());
+
+      recording.seek(Duration.ofHours(1L));
+      assertFalse(recording.next());
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.serialport.logging.ISSerialPortRecorder;
+import com.io7m.ironstrata.serialport.logging.ISSerialPortReplay;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class ISSerialPortReplayTest
+{
+  private Path directory;
+  private Path dataFile;
+  private Path indexFile;
+
+  @BeforeEach
+  public void setup()
+    throws Exception
+  {
+    this.directory = Files.createTempDirectory("ironstrata");
+    this.dataFile = this.directory.resolve("recording.dat");
+    this.indexFile = this.directory.resolve("recording.idx");
+
+    final var time = new AtomicLong(0L);
+    final var port = new ISFakeSerialPort();
+
+    try (var ignored = ISSerialPortRecorder.create(
+      new ISFakeClock(), time::get, port, this.dataFile, this.indexFile,
+      Duration.ofSeconds(1L))) {
+      time.set(Duration.ofMillis(1L).toNanos());
+      port.addLine("start");
+      port.readLine();
+      time.set(Duration.ofMillis(2L).toNanos());
+      port.writeLine("M115");
+      time.set(Duration.ofMillis(302L).toNanos());
+      port.addLine("ok");
+      port.readLine();
+    }
+  }
+
+  @AfterEach
+  public void tearDown()
+    throws IOException
+  {
+    Files.deleteIfExists(this.dataFile);
+    Files.deleteIfExists(this.indexFile);
+    Files.deleteIfExists(this.directory);
+  }
+
+  /**
+   * Responses wait for the host to write, and are then replayed with the
+   * recorded timing.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testReplayRealTime()
+    throws Exception
+  {
+    try (var port = ISSerialPortReplay.open(
+      this.dataFile, this.indexFile, 1.0, Duration.ofSeconds(2L))) {
+      final var reads = port.reads().test();
+
+      assertEquals("start", port.readLine());
+
+      port.writeLine("M115");
+      final var timeThen = System.nanoTime();
+      assertEquals("ok", port.readLine());
+      final var timeElapsed = System.nanoTime() - timeThen;
+      assertTrue(timeElapsed >= Duration.ofMillis(250L).toNanos());
+
+      reads.assertValues("start", "ok");
+    }
+  }
+
+  /**
+   * Replaying as fast as possible does not wait, but still waits for the
+   * host to write.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testReplayFast()
+    throws Exception
+  {
+    try (var port = ISSerialPortReplay.open(
+      this.dataFile,
+      this.indexFile,
+      Double.POSITIVE_INFINITY,
+      Duration.ofMillis(100L))) {
+
+      assertEquals("start", port.readLine());
+      assertNull(port.readLine());
+
+      port.writeLine("M115");
+      final var timeThen = System.nanoTime();
+      assertEquals("ok", port.readLine());
+      final var timeElapsed = System.nanoTime() - timeThen;
+      assertTrue(timeElapsed < Duration.ofMillis(250L).toNanos());
+
+      assertNull(port.readLine());
+    }
+  }
+
+  /**
+   * Commands written ahead of the recorded responses are matched with the
+   * recorded commands as the replay reaches them.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testReplayPipelined()
+    throws Exception
+  {
+    final var pipeData = this.directory.resolve("pipelined.dat");
+    final var pipeIndex = this.directory.resolve("pipelined.idx");
+
+    try {
+      final var time = new AtomicLong(0L);
+      final var recorded = new ISFakeSerialPort();
+
+      try (var ignored = ISSerialPortRecorder.create(
+        new ISFakeClock(), time::get, recorded, pipeData, pipeIndex,
+        Duration.ofSeconds(1L))) {
+        time.set(Duration.ofMillis(1L).toNanos());
+        recorded.writeLine("G1 X1");
+        time.set(Duration.ofMillis(2L).toNanos());
+        recorded.addLine("ok");
+        recorded.readLine();
+        time.set(Duration.ofMillis(3L).toNanos());
+        recorded.writeLine("G1 X2");
+        time.set(Duration.ofMillis(4L).toNanos());
+        recorded.addLine("ok");
+        recorded.readLine();
+      }
+
+      try (var port = ISSerialPortReplay.open(
+        pipeData,
+        pipeIndex,
+        Double.POSITIVE_INFINITY,
+        Duration.ofMillis(100L))) {
+        port.writeLine("G1 X1");
+        port.writeLine("G1 X2");
+
+        assertEquals("ok", port.readLine());
+        assertEquals("ok", port.readLine());
+        assertNull(port.readLine());
+      }
+    } finally {
+      Files.deleteIfExists(pipeData);
+      Files.deleteIfExists(pipeIndex);
+    }
+  }
+}
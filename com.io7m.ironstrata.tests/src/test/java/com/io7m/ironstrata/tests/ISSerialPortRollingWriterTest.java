@@ -0,0 +1,346 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.serialport.logging.ISSerialPortLogger;
+import com.io7m.ironstrata.serialport.logging.ISSerialPortRollingWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class ISSerialPortRollingWriterTest
+{
+  private Path directory;
+
+  @BeforeEach
+  public void setup()
+    throws IOException
+  {
+    this.directory = Files.createTempDirectory("ironstrata");
+  }
+
+  @AfterEach
+  public void tearDown()
+    throws IOException
+  {
+    try (var paths = Files.walk(this.directory)) {
+      for (final var path : paths.sorted(Comparator.reverseOrder())
+        .collect(Collectors.toList())) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  private List<Path> segments()
+    throws IOException
+  {
+    try (var paths = Files.list(this.directory)) {
+      return paths.sorted().collect(Collectors.toList());
+    }
+  }
+
+  private static List<String> readCompressed(
+    final Path file)
+    throws IOException
+  {
+    try (var input = new GZIPInputStream(Files.newInputStream(file))) {
+      return List.of(new String(input.readAllBytes(), UTF_8).split("\n"));
+    }
+  }
+
+  /**
+   * Segments are rotated by size, compressed, and only the most recent
+   * compressed segments are kept.
+   *
+   * @throws IOException On errors
+   */
+
+  @Test
+  public void testRotateSize()
+    throws IOException
+  {
+    final var clock = new ISFakeClock();
+    clock.timeNow = Instant.parse("2000-01-01T00:00:00Z");
+
+    final var writer =
+      ISSerialPortRollingWriter.create(
+        clock, this.directory, "reads", 10L, Duration.ofHours(1L), 3);
+
+    try (writer) {
+      for (int index = 0; index < 5; ++index) {
+        writer.write(String.format("Line %04d\n", Integer.valueOf(index)));
+        writer.flush();
+      }
+    }
+
+    final var files = this.segments();
+    assertEquals(3, files.size());
+
+    final var lines = new ArrayList<String>();
+    for (final var file : files) {
+      assertTrue(file.getFileName().toString().endsWith(".log.gz"));
+      lines.addAll(readCompressed(file));
+    }
+
+    assertEquals(List.of("Line 0002", "Line 0003", "Line 0004"), lines);
+  }
+
+  /**
+   * Segments are rotated by age.
+   *
+   * @throws IOException On errors
+   */
+
+  @Test
+  public void testRotateTime()
+    throws IOException
+  {
+    final var clock = new ISFakeClock();
+    clock.timeNow = Instant.parse("2000-01-01T00:00:00Z");
+
+    final var writer =
+      ISSerialPortRollingWriter.create(
+        clock, this.directory, "reads", 1_000_000L, Duration.ofSeconds(5L), 10);
+
+    try (writer) {
+      writer.write("A\n");
+      writer.flush();
+      writer.write("B\n");
+      writer.flush();
+      clock.tick(10L);
+      writer.write("C\n");
+      writer.flush();
+      writer.write("D\n");
+      writer.flush();
+    }
+
+    final var files = this.segments();
+    assertEquals(2, files.size());
+    assertEquals(
+      "reads-20000101T000000Z-000000.log.gz",
+      files.get(0).getFileName().toString());
+    assertEquals(
+      "reads-20000101T000010Z-000001.log.gz",
+      files.get(1).getFileName().toString());
+    assertEquals(List.of("A", "B", "C"), readCompressed(files.get(0)));
+    assertEquals(List.of("D"), readCompressed(files.get(1)));
+  }
+
+  /**
+   * The size limit is measured in encoded bytes rather than characters.
+   *
+   * @throws IOException On errors
+   */
+
+  @Test
+  public void testRotateSizeBytes()
+    throws IOException
+  {
+    final var clock = new ISFakeClock();
+    clock.timeNow = Instant.parse("2000-01-01T00:00:00Z");
+
+    final var writer =
+      ISSerialPortRollingWriter.create(
+        clock, this.directory, "reads", 10L, Duration.ofHours(1L), 10);
+
+    try (writer) {
+      writer.write("\u00e9\u00e9\u00e9\u00e9\u00e9\n");
+      writer.flush();
+      writer.write("\u00e8\n");
+      writer.flush();
+    }
+
+    final var files = this.segments();
+    assertEquals(2, files.size());
+    assertEquals(
+      List.of("\u00e9\u00e9\u00e9\u00e9\u00e9"),
+      readCompressed(files.get(0)));
+    assertEquals(List.of("\u00e8"), readCompressed(files.get(1)));
+  }
+
+  /**
+   * Segments that were opened but never started are deleted by later
+   * writers.
+   *
+   * @throws IOException On errors
+   */
+
+  @Test
+  public void testRecoverWaiting()
+    throws IOException
+  {
+    final var clock = new ISFakeClock();
+    clock.timeNow = Instant.parse("2000-01-01T00:00:00Z");
+
+    Files.writeString(this.directory.resolve("reads-000007.log.next"), "");
+
+    try (var writer = ISSerialPortRollingWriter.create(
+      clock, this.directory, "reads", 10L, Duration.ofHours(1L), 10)) {
+      writer.write("Line 0000\n");
+      writer.flush();
+    }
+
+    final var files = this.segments();
+    assertEquals(1, files.size());
+    assertEquals(
+      "reads-20000101T000000Z-000000.log.gz",
+      files.get(0).getFileName().toString());
+  }
+
+  /**
+   * Segments left by an earlier writer count towards the retention limit,
+   * and segments that were never compressed are compressed.
+   *
+   * @throws IOException On errors
+   */
+
+  @Test
+  public void testRetainExisting()
+    throws IOException
+  {
+    final var clock = new ISFakeClock();
+    clock.timeNow = Instant.parse("2000-01-01T00:00:00Z");
+
+    try (var writer = ISSerialPortRollingWriter.create(
+      clock, this.directory, "reads", 10L, Duration.ofHours(1L), 10)) {
+      for (int index = 0; index < 3; ++index) {
+        writer.write(String.format("Line %04d\n", Integer.valueOf(index)));
+        writer.flush();
+      }
+    }
+
+    Files.writeString(
+      this.directory.resolve("reads-20000101T000000Z-000100.log"),
+      "Line 0003\n"
+    );
+    Files.writeString(
+      this.directory.resolve("unrelated.log"),
+      "Unrelated\n"
+    );
+
+    clock.tick(1L);
+    try (var writer = ISSerialPortRollingWriter.create(
+      clock, this.directory, "reads", 10L, Duration.ofHours(1L), 3)) {
+      writer.write("Line 0004\n");
+      writer.flush();
+    }
+
+    final var files = this.segments();
+    assertEquals(4, files.size());
+    assertEquals("unrelated.log", files.get(3).getFileName().toString());
+
+    final var lines = new ArrayList<String>();
+    for (final var file : files.subList(0, 3)) {
+      assertTrue(file.getFileName().toString().endsWith(".log.gz"));
+      lines.addAll(readCompressed(file));
+    }
+
+    assertEquals(List.of("Line 0002", "Line 0003", "Line 0004"), lines);
+  }
+
+  /**
+   * An asynchronous logger rotates segments on its own thread.
+   *
+   * @throws IOException On errors
+   */
+
+  @Test
+  public void testLoggerRolling()
+    throws IOException
+  {
+    final var clock = new ISFakeClock();
+    clock.timeNow = Instant.parse("2000-01-01T00:00:00Z");
+
+    final var portBase = new ISFakeSerialPort();
+    final var readDirectory = this.directory.resolve("read");
+    final var writeDirectory = this.directory.resolve("write");
+
+    final var logRead =
+      ISSerialPortRollingWriter.create(
+        clock, readDirectory, "reads", 40L, Duration.ofHours(1L), 100);
+    final var logWrite =
+      ISSerialPortRollingWriter.create(
+        clock, writeDirectory, "writes", 40L, Duration.ofHours(1L), 100);
+
+    try (logRead; logWrite) {
+      try (var ignored = ISSerialPortLogger.createAsynchronous(
+        clock,
+        portBase,
+        new BufferedWriter(logRead),
+        new BufferedWriter(logWrite),
+        16)) {
+        for (int index = 0; index < 10; ++index) {
+          portBase.writeLine(String.format("Write %d", Integer.valueOf(index)));
+        }
+      }
+    }
+
+    final var lines = new ArrayList<String>();
+    try (var paths = Files.list(writeDirectory)) {
+      for (final var file : paths.sorted().collect(Collectors.toList())) {
+        lines.addAll(readCompressed(file));
+      }
+    }
+
+    assertEquals(10, lines.size());
+    for (int index = 0; index < 10; ++index) {
+      assertEquals(
+        "2000-01-01T00:00:00Z Write " + index,
+        lines.get(index));
+    }
+  }
+
+  /**
+   * Invalid limits are rejected.
+   */
+
+  @Test
+  public void testInvalidLimits()
+  {
+    final var clock = new ISFakeClock();
+
+    assertThrows(IllegalArgumentException.class, () -> {
+      ISSerialPortRollingWriter.create(
+        clock, this.directory, "x", 0L, Duration.ofSeconds(1L), 1);
+    });
+    assertThrows(IllegalArgumentException.class, () -> {
+      ISSerialPortRollingWriter.create(
+        clock, this.directory, "x", 1L, Duration.ZERO, 1);
+    });
+    assertThrows(IllegalArgumentException.class, () -> {
+      ISSerialPortRollingWriter.create(
+        clock, this.directory, "x", 1L, Duration.ofSeconds(1L), 0);
+    });
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.serialport.api.ISSerialPortConfiguration;
+import com.io7m.ironstrata.serialport.socket.ISerialPortsSocket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.time.Duration;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class ISSerialPortSocketTest
+{
+  private ServerSocketChannel server;
+
+  private ISSerialPortConfiguration configuration()
+    throws IOException
+  {
+    final var address = (InetSocketAddress) this.server.getLocalAddress();
+    return ISSerialPortConfiguration.builder()
+      .setDeviceName(String.format(
+        "tcp://127.0.0.1:%d", Integer.valueOf(address.getPort())))
+      .setBaudRate(115_200)
+      .setReadTimeout(Duration.ofMillis(250L))
+      .build();
+  }
+
+  @BeforeEach
+  public void setup()
+    throws IOException
+  {
+    this.server = ServerSocketChannel.open();
+    this.server.bind(
+      new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+  }
+
+  @AfterEach
+  public void tearDown()
+    throws IOException
+  {
+    this.server.close();
+  }
+
+  /**
+   * Unsupported device names are rejected.
+   */
+
+  @Test
+  public void testBadDeviceNames()
+  {
+    assertThrows(
+      IOException.class,
+      () -> ISerialPortsSocket.parseAddress("/dev/ttyACM0"));
+    assertThrows(
+      IOException.class,
+      () -> ISerialPortsSocket.parseAddress("tcp://localhost"));
+    assertThrows(
+      IOException.class,
+      () -> ISerialPortsSocket.parseAddress("udp://localhost:2000"));
+  }
+
+  /**
+   * Only TCP device names are supported.
+   */
+
+  @Test
+  public void testSupports()
+  {
+    final var ports = new ISerialPortsSocket();
+    assertTrue(ports.supports("tcp://localhost:2000"));
+    assertFalse(ports.supports("/dev/ttyACM0"));
+    assertFalse(ports.supports("udp://localhost:2000"));
+  }
+
+  /**
+   * Lines consisting of a single NUL character are discarded.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testReadNUL()
+    throws Exception
+  {
+    final var ports = new ISerialPortsSocket();
+    try (var port = ports.open(this.configuration())) {
+      try (var peer = this.server.accept()) {
+        final var reads = port.reads().test();
+
+        peer.write(ByteBuffer.wrap("\0\nok\n".getBytes(US_ASCII)));
+
+        String line = null;
+        for (int index = 0; index < 10 && line == null; ++index) {
+          line = port.readLine();
+        }
+        assertEquals("ok", line);
+        reads.assertValues("ok");
+      }
+    }
+  }
+
+  /**
+   * A write to a peer that stops reading fails after the write timeout.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testWriteTimeout()
+    throws Exception
+  {
+    final var configuration =
+      ISSerialPortConfiguration.builder()
+        .from(this.configuration())
+        .setWriteTimeout(Duration.ofMillis(250L))
+        .build();
+
+    final var ports = new ISerialPortsSocket();
+    try (var port = ports.open(configuration)) {
+      try (var peer = this.server.accept()) {
+        final var line = "G1 X10 Y10 Z10".repeat(1000);
+        final var timeThen = System.nanoTime();
+
+        assertThrows(IOException.class, () -> {
+          while (true) {
+            port.writeLine(line);
+          }
+        });
+
+        final var timeElapsed = System.nanoTime() - timeThen;
+        assertTrue(timeElapsed >= Duration.ofMillis(200L).toNanos());
+      }
+    }
+  }
+
+  /**
+   * Lines are framed from the socket, reading from a silent socket times
+   * out, and nothing is read after the end of the stream.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testReadLines()
+    throws Exception
+  {
+    final var ports = new ISerialPortsSocket();
+    try (var port = ports.open(this.configuration())) {
+      try (var peer = this.server.accept()) {
+        final var reads = port.reads().test();
+
+        final var timeThen = System.nanoTime();
+        assertNull(port.readLine());
+        final var timeElapsed = System.nanoTime() - timeThen;
+        assertTrue(timeElapsed >= Duration.ofMillis(200L).toNanos());
+
+        peer.write(ByteBuffer.wrap(
+          "start\r\nok T:20.0\nok\n".getBytes(US_ASCII)));
+
+        assertEquals("start", port.readLine());
+        assertEquals("ok T:20.0", port.readLine());
+        assertEquals("ok", port.readLine());
+        reads.assertValues("start", "ok T:20.0", "ok");
+      }
+      assertNull(port.readLine());
+      assertNull(port.readLine());
+    }
+  }
+
+  /**
+   * A port whose peer closed the connection discards writes while the peer
+   * is absent, and reconnects on a write once the peer returns.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testReconnect()
+    throws Exception
+  {
+    final var configuration = this.configuration();
+    final var address = this.server.getLocalAddress();
+    final var ports = new ISerialPortsSocket();
+
+    try (var port = ports.open(configuration)) {
+      this.server.accept().close();
+      assertNull(port.readLine());
+
+      this.server.close();
+      port.writeLine("M105");
+      assertNull(port.readLine());
+
+      this.server = ServerSocketChannel.open();
+      this.server.bind(address);
+      port.writeLine("M105");
+
+      try (var peer = this.server.accept()) {
+        final var expected = "M105\n";
+        final var received = new StringBuilder();
+        final var buffer = ByteBuffer.allocate(64);
+        while (received.length() < expected.length()) {
+          buffer.clear();
+          peer.read(buffer);
+          buffer.flip();
+          received.append(US_ASCII.decode(buffer));
+        }
+        assertEquals(expected, received.toString());
+
+        peer.write(ByteBuffer.wrap("ok\n".getBytes(US_ASCII)));
+        assertEquals("ok", port.readLine());
+      }
+    }
+  }
+
+  /**
+   * A batch of lines is written in order, and each line is published.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testWriteLines()
+    throws Exception
+  {
+    final var ports = new ISerialPortsSocket();
+    final var received = new StringBuilder();
+
+    try (var port = ports.open(this.configuration())) {
+      try (var peer = this.server.accept()) {
+        final var writes = port.writes().test();
+        port.writeLines(List.of("G28", "M105 \r"));
+        port.writeLine("M114");
+        writes.assertValues("G28", "M105", "M114");
+
+        final var expected = "G28\nM105\nM114\n";
+        final var buffer = ByteBuffer.allocate(64);
+        while (received.length() < expected.length()) {
+          buffer.clear();
+          peer.read(buffer);
+          buffer.flip();
+          received.append(US_ASCII.decode(buffer));
+        }
+        assertEquals(expected, received.toString());
+      }
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.serialport.plain.internal.ISSerialPortTermios;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public final class ISSerialPortTermiosTest
+{
+  @Test
+  public void testCommand()
+  {
+    final var command =
+      ISSerialPortTermios.command(Paths.get("/dev/ttyACM0"), 115_200);
+
+    Assertions.assertEquals("stty", command.get(0));
+    Assertions.assertEquals("/dev/ttyACM0", command.get(2));
+    Assertions.assertEquals(
+      "115200 raw -echo min 1 time 0",
+      String.join(" ", command.subList(3, command.size()))
+    );
+  }
+
+  @Test
+  public void testStandardBaudRates()
+  {
+    Assertions.assertTrue(ISSerialPortTermios.isStandardBaudRate(115_200));
+    Assertions.assertTrue(ISSerialPortTermios.isStandardBaudRate(9_600));
+    Assertions.assertFalse(ISSerialPortTermios.isStandardBaudRate(250_000));
+    Assertions.assertFalse(ISSerialPortTermios.isStandardBaudRate(0));
+  }
+
+  @Test
+  public void testRegularFileNotDevice()
+    throws IOException
+  {
+    final var file = Files.createTempFile("ironstrata", ".txt");
+    try {
+      Assertions.assertFalse(ISSerialPortTermios.isCharacterDevice(file));
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void testNullIsDevice()
+    throws IOException
+  {
+    final Path path = Paths.get("/dev/null");
+    Assumptions.assumeTrue(Files.exists(path), "/dev/null is unavailable");
+    Assertions.assertTrue(ISSerialPortTermios.isCharacterDevice(path));
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.printer.api.ISPrinterEventCommandSucceeded;
+import com.io7m.ironstrata.printer.api.ISSerialPrinterConfiguration;
+import com.io7m.ironstrata.printer.api.ISSerialPrinterType;
+import com.io7m.ironstrata.printer.vanilla.ISSerialPrinterFactory;
+import com.io7m.ironstrata.printer.vanilla.ISSerialPrinterMessages;
+import com.io7m.ironstrata.serialport.api.ISSerialPortConfiguration;
+import com.io7m.ironstrata.serialport.socket.ISerialPortsSocket;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+public final class ISSerialPrinterEventLoopTest
+{
+  private static ISSerialPrinterConfiguration configuration(
+    final boolean dedicatedReader)
+  {
+    return ISSerialPrinterConfiguration.builder()
+      .setPort(
+        ISSerialPortConfiguration.builder()
+          .setDeviceName("/dev/null")
+          .setBaudRate(100_000)
+          .build()
+      )
+      .setDedicatedReader(dedicatedReader)
+      .build();
+  }
+
+  private static void runPrinters(
+    final boolean dedicatedReader)
+    throws Exception
+  {
+    final var ports = new ISFakeSerialPorts();
+    final var printers = new ArrayList<ISSerialPrinterType>();
+    final var successes = new AtomicInteger(0);
+
+    try (var factory =
+           ISSerialPrinterFactory.builder()
+             .setMessages(ISSerialPrinterMessages.create())
+             .setSerialPorts(ports)
+             .setClock(new ISFakeClock())
+             .setEventLoopThreads(1)
+             .build()) {
+      try {
+        for (int index = 0; index < 4; ++index) {
+          final var port = new ISFakeSerialPort();
+          ports.ports.add(port);
+          final var printer = factory.open(configuration(dedicatedReader));
+          printer.events()
+            .ofType(ISPrinterEventCommandSucceeded.class)
+            .subscribe(e -> successes.incrementAndGet());
+          printers.add(printer);
+
+          port.addLine("start");
+          port.addLine("ok");
+          port.addLine("ok");
+        }
+
+        final var timeEnd = System.nanoTime() + 10_000_000_000L;
+        while (successes.get() < 8 && System.nanoTime() < timeEnd) {
+          Thread.sleep(10L);
+        }
+
+        Assertions.assertEquals(8, successes.get());
+        for (final var printer : printers) {
+          Assertions.assertTrue(printer.isOnline());
+        }
+      } finally {
+        for (final var printer : printers) {
+          printer.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Many printers can be driven by a single event loop thread.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testManyPrinters()
+    throws Exception
+  {
+    runPrinters(true);
+  }
+
+  /**
+   * Printers whose ports cannot report when lines are available are
+   * driven by their own threads.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testManyPrintersUnsignalledPorts()
+    throws Exception
+  {
+    runPrinters(false);
+  }
+
+  /**
+   * Printers on socket ports are driven by the event loop without any
+   * reader threads, because the loop selects the sockets directly.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testManySocketPrinters()
+    throws Exception
+  {
+    final var printers = new ArrayList<ISSerialPrinterType>();
+    final var peers = new ArrayList<SocketChannel>();
+    final var successes = new AtomicInteger(0);
+
+    try (var server = ServerSocketChannel.open()) {
+      server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      final var address = (InetSocketAddress) server.getLocalAddress();
+
+      final var configuration =
+        ISSerialPrinterConfiguration.builder()
+          .setPort(
+            ISSerialPortConfiguration.builder()
+              .setDeviceName(String.format(
+                "tcp://127.0.0.1:%d", Integer.valueOf(address.getPort())))
+              .setBaudRate(115_200)
+              .build()
+          )
+          .setDedicatedReader(false)
+          .build();
+
+      try (var factory =
+             ISSerialPrinterFactory.builder()
+               .setMessages(ISSerialPrinterMessages.create())
+               .setSerialPorts(new ISerialPortsSocket())
+               .setClock(Clock.systemUTC())
+               .setEventLoopThreads(1)
+               .build()) {
+        try {
+          for (int index = 0; index < 4; ++index) {
+            final var printer = factory.open(configuration);
+            printer.events()
+              .ofType(ISPrinterEventCommandSucceeded.class)
+              .subscribe(e -> successes.incrementAndGet());
+            printers.add(printer);
+
+            final var peer = server.accept();
+            peers.add(peer);
+            peer.write(ByteBuffer.wrap("start\nok\nok\n".getBytes(US_ASCII)));
+          }
+
+          final var timeEnd = System.nanoTime() + 10_000_000_000L;
+          while (successes.get() < 8 && System.nanoTime() < timeEnd) {
+            Thread.sleep(10L);
+          }
+
+          Assertions.assertEquals(8, successes.get());
+          for (final var printer : printers) {
+            Assertions.assertTrue(printer.isOnline());
+          }
+
+          final var readers =
+            Thread.getAllStackTraces()
+              .keySet()
+              .stream()
+              .filter(t -> t.getName().contains("serialport"))
+              .count();
+          Assertions.assertEquals(0L, readers);
+        } finally {
+          for (final var printer : printers) {
+            printer.close();
+          }
+          for (final var peer : peers) {
+            peer.close();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Closing the factory closes the printers that the event loop is still
+   * driving.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCloseFactory()
+    throws Exception
+  {
+    final var ports = new ISFakeSerialPorts();
+    ports.ports.add(new ISFakeSerialPort());
+
+    final var factory =
+      ISSerialPrinterFactory.builder()
+        .setMessages(ISSerialPrinterMessages.create())
+        .setSerialPorts(ports)
+        .setClock(new ISFakeClock())
+        .setEventLoopThreads(1)
+        .build();
+
+    final var completed = new CountDownLatch(1);
+    try (var printer = factory.open(configuration(true))) {
+      printer.events().subscribe(e -> {
+      }, e -> {
+      }, completed::countDown);
+
+      factory.close();
+      Assertions.assertTrue(completed.await(10L, TimeUnit.SECONDS));
+      Assertions.assertThrows(
+        IllegalStateException.class,
+        () -> factory.open(configuration(true))
+      );
+    }
+  }
+}
@@ -16,17 +16,23 @@
 
 package com.io7m.ironstrata.tests;
 
+import com.io7m.ironstrata.printer.api.ISPrinterCommandGCode;
 import com.io7m.ironstrata.printer.api.ISPrinterCommandQueueGCodeType;
 import com.io7m.ironstrata.printer.api.ISPrinterCommandQueueType;
 import com.io7m.ironstrata.printer.api.ISPrinterEventCommandFailed;
 import com.io7m.ironstrata.printer.api.ISPrinterEventCommandSubmitted;
 import com.io7m.ironstrata.printer.api.ISPrinterEventCommandSucceeded;
 import com.io7m.ironstrata.printer.api.ISPrinterEventFatalError;
+import com.io7m.ironstrata.printer.api.ISPrinterEventFirmwareCapabilitiesChanged;
 import com.io7m.ironstrata.printer.api.ISPrinterEventOnlineStateChanged;
+import com.io7m.ironstrata.printer.api.ISPrinterEventStateChanged;
 import com.io7m.ironstrata.printer.api.ISPrinterEventTemperaturesChanged;
 import com.io7m.ironstrata.printer.api.ISPrinterEventType;
 import com.io7m.ironstrata.printer.api.ISPrinterExceptionUnsupported;
+import com.io7m.ironstrata.printer.api.ISPrinterFirmwareCapabilities;
+import com.io7m.ironstrata.printer.api.ISPrinterState;
 import com.io7m.ironstrata.printer.api.ISSerialPrinterConfiguration;
+import com.io7m.ironstrata.printer.api.ISSerialPrinterFlowControl;
 import com.io7m.ironstrata.printer.api.ISSerialPrinterType;
 import com.io7m.ironstrata.printer.vanilla.ISSerialPrinterFactory;
 import com.io7m.ironstrata.printer.vanilla.ISSerialPrinterMessages;
@@ -40,9 +46,11 @@ import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 
+import static com.io7m.ironstrata.printer.api.ISPrinterGCodeCommandStyle.COMMAND_WITH_LINE;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -57,10 +65,10 @@ public final class ISSerialPrinterTest
   private ISSerialPrinterType printer;
   private ISFakeSerialPort port;
   private Disposable eventSub;
-  private Observable<ISPrinterEventOnlineStateChanged> onlines;
+  private int onlineChanges;
   private Observable<ISPrinterEventCommandSucceeded> successes;
   private Observable<ISPrinterEventFatalError> fatals;
-  private ArrayList<ISPrinterEventType> events;
+  private List<ISPrinterEventType> events;
   private Observable<ISPrinterEventCommandSubmitted> submissions;
   private Observable<ISPrinterEventCommandFailed> failures;
 
@@ -75,6 +83,32 @@ public final class ISSerialPrinterTest
   @BeforeEach
   public void setup()
     throws Exception
+  {
+    this.open(defaultConfiguration().build());
+  }
+
+  private static ISSerialPrinterConfiguration.Builder defaultConfiguration()
+  {
+    return ISSerialPrinterConfiguration.builder()
+      .setPort(
+        ISSerialPortConfiguration.builder()
+          .setDeviceName("/dev/null")
+          .setBaudRate(100_000)
+          .build()
+      );
+  }
+
+  private void reopen(
+    final ISSerialPrinterConfiguration configuration)
+    throws Exception
+  {
+    this.tearDown();
+    this.open(configuration);
+  }
+
+  private void open(
+    final ISSerialPrinterConfiguration configuration)
+    throws Exception
   {
     this.port = new ISFakeSerialPort();
     this.ports = new ISFakeSerialPorts();
@@ -82,33 +116,24 @@ public final class ISSerialPrinterTest
     this.clock = new ISFakeClock();
 
     this.printers =
-      new ISSerialPrinterFactory(
-        ISSerialPrinterMessages.create(),
-        this.ports,
-        this.clock
-      );
+      ISSerialPrinterFactory.builder()
+        .setMessages(ISSerialPrinterMessages.create())
+        .setSerialPorts(this.ports)
+        .setClock(this.clock)
+        .setNanoTime(this.clock::nanoTime)
+        .build();
 
     this.printer =
-      this.printers.open(
-        ISSerialPrinterConfiguration.builder()
-          .setPort(
-            ISSerialPortConfiguration.builder()
-              .setDeviceName("/dev/null")
-              .setBaudRate(100_000)
-              .build()
-          ).build()
-      );
+      this.printers.open(configuration);
 
     this.events =
-      new ArrayList<>();
+      new CopyOnWriteArrayList<>();
 
     this.eventSub =
       this.printer.events()
         .subscribe(this::logEvent);
 
-    this.onlines =
-      this.printer.events()
-        .ofType(ISPrinterEventOnlineStateChanged.class);
+    this.onlineChanges = 0;
 
     this.submissions =
       this.printer.events()
@@ -192,9 +217,28 @@ public final class ISSerialPrinterTest
     Assertions.assertTrue(this.printer.isOnline());
   }
 
+  /**
+   * Wait for the next online state change. Events are recorded from the
+   * moment the printer is opened, so a change that occurs before this method
+   * is called is not missed.
+   */
+
   private ISPrinterEventOnlineStateChanged waitForOnlineChange()
+    throws InterruptedException
   {
-    return this.onlines.blockingFirst();
+    final var wanted = ++this.onlineChanges;
+    while (true) {
+      final var changes =
+        this.events.stream()
+          .filter(e -> e instanceof ISPrinterEventOnlineStateChanged)
+          .map(ISPrinterEventOnlineStateChanged.class::cast)
+          .collect(Collectors.toList());
+
+      if (changes.size() >= wanted) {
+        return changes.get(wanted - 1);
+      }
+      Thread.sleep(10L);
+    }
   }
 
   /**
@@ -493,6 +537,340 @@ public final class ISSerialPrinterTest
     assertEquals(30L, commands.statistics().commandErrors());
   }
 
+  /**
+   * A printer asking to resend an earlier line causes every command from
+   * that line onwards to be resent, even if it was already acknowledged.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCommandResendEarlierLine()
+    throws Exception
+  {
+    final var startup = this.successes.test();
+    this.port.addLine("start");
+    this.waitForOnlineChange();
+    Assertions.assertTrue(this.printer.isOnline());
+
+    this.port.addLine("ok");
+    this.port.addLine("ok");
+    startup.awaitCount(2);
+
+    final var commands =
+      this.printer.commandQueue(ISPrinterCommandQueueGCodeType.class);
+
+    final var writes =
+      this.port.writes()
+        .filter(line -> line.startsWith("N"))
+        .test();
+    final var done =
+      this.successes
+        .map(e -> ((ISPrinterCommandGCode) e.command()).text())
+        .filter(text -> text.startsWith("N"))
+        .test();
+
+    commands.enqueueCompile("G1 X0", COMMAND_WITH_LINE);
+    commands.enqueueCompile("G1 X1", COMMAND_WITH_LINE);
+    commands.enqueueCompile("G1 X2", COMMAND_WITH_LINE);
+
+    this.port.addLine("ok");
+    this.port.addLine("ok");
+    done.awaitCount(2);
+
+    this.port.addLine("Error:Line Number is not Last Line Number+1, Last Line:0");
+    this.port.addLine("Resend: 1");
+    this.port.addLine("ok");
+    writes.awaitCount(5);
+
+    this.port.addLine("ok");
+    this.port.addLine("ok");
+    done.awaitCount(3);
+
+    writes.assertValues(
+      "N0 G1 X0",
+      "N1 G1 X1",
+      "N2 G1 X2",
+      "N1 G1 X1",
+      "N2 G1 X2"
+    );
+    done.assertValues(
+      "N0 G1 X0",
+      "N1 G1 X1",
+      "N2 G1 X2"
+    );
+
+    assertEquals(1L, commands.statistics().commandResends());
+    assertEquals(1L, commands.statistics().commandErrors());
+  }
+
+  /**
+   * A printer that discards several lines in flight reports an error
+   * before each repeated request to resend the same line. Only the first
+   * error is attributed to a command, and the resent commands succeed.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCommandResendRepeatedErrors()
+    throws Exception
+  {
+    this.reopen(
+      defaultConfiguration()
+        .setFlowControl(ISSerialPrinterFlowControl.CHARACTER_COUNTING)
+        .setFirmwareReceiveBufferSize(128)
+        .build()
+    );
+
+    final var startup = this.successes.test();
+    this.port.addLine("start");
+    this.waitForOnlineChange();
+    Assertions.assertTrue(this.printer.isOnline());
+
+    this.port.addLine("ok");
+    this.port.addLine("ok");
+    startup.awaitCount(2);
+
+    final var commands =
+      this.printer.commandQueue(ISPrinterCommandQueueGCodeType.class);
+
+    final var writes =
+      this.port.writes()
+        .filter(line -> line.startsWith("N"))
+        .test();
+    final var done =
+      this.successes
+        .map(e -> ((ISPrinterCommandGCode) e.command()).text())
+        .filter(text -> text.startsWith("N"))
+        .test();
+    final var failed =
+      this.failures.test();
+
+    commands.enqueueCompile("G1 X0", COMMAND_WITH_LINE);
+    commands.enqueueCompile("G1 X1", COMMAND_WITH_LINE);
+    commands.enqueueCompile("G1 X2", COMMAND_WITH_LINE);
+    commands.enqueueCompile("G1 X3", COMMAND_WITH_LINE);
+    writes.awaitCount(4);
+
+    this.port.addLine("ok");
+    done.awaitCount(1);
+
+    this.port.addLine("Error:checksum mismatch, Last Line: 0");
+    this.port.addLine("Resend: 1");
+    this.port.addLine("ok");
+    writes.awaitCount(7);
+
+    this.port.addLine("Error:Line Number is not Last Line Number+1, Last Line:0");
+    this.port.addLine("Resend: 1");
+    this.port.addLine("ok");
+    this.port.addLine("Error:Line Number is not Last Line Number+1, Last Line:0");
+    this.port.addLine("Resend: 1");
+    this.port.addLine("ok");
+
+    this.port.addLine("ok");
+    this.port.addLine("ok");
+    this.port.addLine("ok");
+    done.awaitCount(4);
+
+    writes.assertValues(
+      "N0 G1 X0",
+      "N1 G1 X1",
+      "N2 G1 X2",
+      "N3 G1 X3",
+      "N1 G1 X1",
+      "N2 G1 X2",
+      "N3 G1 X3"
+    );
+    done.assertValues(
+      "N0 G1 X0",
+      "N1 G1 X1",
+      "N2 G1 X2",
+      "N3 G1 X3"
+    );
+
+    failed.assertValueCount(1);
+    assertEquals(1L, commands.statistics().commandResends());
+    assertEquals(1L, commands.statistics().commandErrors());
+  }
+
+  /**
+   * Commands are sent ahead of acknowledgements when using character
+   * counting flow control.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCharacterCountingSendAhead()
+    throws Exception
+  {
+    this.reopen(
+      defaultConfiguration()
+        .setFlowControl(ISSerialPrinterFlowControl.CHARACTER_COUNTING)
+        .setFirmwareReceiveBufferSize(128)
+        .build()
+    );
+
+    final var startup = this.successes.test();
+    this.port.addLine("start");
+    this.waitForOnlineChange();
+    Assertions.assertTrue(this.printer.isOnline());
+
+    this.port.addLine("ok");
+    this.port.addLine("ok");
+    startup.awaitCount(2);
+
+    final var commands =
+      this.printer.commandQueue(ISPrinterCommandQueueGCodeType.class);
+
+    final var writes =
+      this.port.writes()
+        .filter(line -> line.startsWith("G1"))
+        .test();
+    final var done =
+      this.successes
+        .map(e -> ((ISPrinterCommandGCode) e.command()).text())
+        .filter(text -> text.startsWith("G1"))
+        .test();
+
+    commands.enqueueCompile("G1 X1");
+    commands.enqueueCompile("G1 X2");
+    commands.enqueueCompile("G1 X3");
+
+    writes.awaitCount(3);
+    writes.assertValues("G1 X1", "G1 X2", "G1 X3");
+
+    this.port.addLine("ok");
+    this.port.addLine("ok");
+    this.port.addLine("ok");
+
+    done.awaitCount(3);
+    done.assertValues("G1 X1", "G1 X2", "G1 X3");
+    assertEquals(5L, commands.statistics().commandSubmissions());
+  }
+
+  /**
+   * Commands are not sent ahead beyond the size of the firmware receive
+   * buffer.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCharacterCountingBufferFull()
+    throws Exception
+  {
+    this.reopen(
+      defaultConfiguration()
+        .setFlowControl(ISSerialPrinterFlowControl.CHARACTER_COUNTING)
+        .setFirmwareReceiveBufferSize(12)
+        .build()
+    );
+
+    final var startup = this.successes.test();
+    this.port.addLine("start");
+    this.waitForOnlineChange();
+    Assertions.assertTrue(this.printer.isOnline());
+
+    this.port.addLine("ok");
+    this.port.addLine("ok");
+    startup.awaitCount(2);
+
+    final var commands =
+      this.printer.commandQueue(ISPrinterCommandQueueGCodeType.class);
+
+    final var writes =
+      this.port.writes()
+        .filter(line -> line.startsWith("G1"))
+        .test();
+    final var done =
+      this.successes
+        .map(e -> ((ISPrinterCommandGCode) e.command()).text())
+        .filter(text -> text.startsWith("G1"))
+        .test();
+
+    commands.enqueueCompile("G1 X1");
+    commands.enqueueCompile("G1 X2");
+    commands.enqueueCompile("G1 X3");
+
+    writes.awaitCount(2);
+    Thread.sleep(250L);
+    writes.assertValues("G1 X1", "G1 X2");
+
+    this.port.addLine("ok");
+    writes.awaitCount(3);
+    writes.assertValues("G1 X1", "G1 X2", "G1 X3");
+
+    this.port.addLine("ok");
+    this.port.addLine("ok");
+    done.awaitCount(3);
+    done.assertValues("G1 X1", "G1 X2", "G1 X3");
+  }
+
+  /**
+   * The number of commands in flight follows the free buffer counts
+   * published by the firmware.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testAdvancedOKWindow()
+    throws Exception
+  {
+    this.reopen(
+      defaultConfiguration()
+        .setFlowControl(ISSerialPrinterFlowControl.ADVANCED_OK)
+        .build()
+    );
+
+    final var startup = this.successes.test();
+    this.port.addLine("start");
+    this.waitForOnlineChange();
+    Assertions.assertTrue(this.printer.isOnline());
+
+    this.port.addLine("ok P15 B3");
+    this.port.addLine("ok P15 B3");
+    startup.awaitCount(2);
+
+    final var commands =
+      this.printer.commandQueue(ISPrinterCommandQueueGCodeType.class);
+
+    final var writes =
+      this.port.writes()
+        .filter(line -> line.startsWith("G1"))
+        .test();
+
+    for (int index = 0; index < 5; ++index) {
+      commands.enqueueCompile("G1 X" + index);
+    }
+
+    writes.awaitCount(3);
+    Thread.sleep(250L);
+    writes.assertValueCount(3);
+
+    this.port.addLine("ok P14 B1");
+    writes.awaitCount(4);
+    Thread.sleep(250L);
+    writes.assertValueCount(4);
+
+    this.port.addLine("ok P14 B0");
+    Thread.sleep(250L);
+    writes.assertValueCount(4);
+
+    this.port.addLine("ok P14 B2");
+    writes.awaitCount(5);
+    writes.assertValues("G1 X0", "G1 X1", "G1 X2", "G1 X3", "G1 X4");
+
+    final var temperatures =
+      this.events.stream()
+        .filter(e -> e instanceof ISPrinterEventTemperaturesChanged)
+        .count();
+
+    assertEquals(0L, temperatures);
+  }
+
   /**
    * Temperatures are parsed.
    *
@@ -530,6 +908,375 @@ public final class ISSerialPrinterTest
     assertEquals(36.0, t1t.ambient().get().currentCelsius());
   }
 
+  /**
+   * Printers that advertise temperature auto-reporting are asked to report
+   * temperatures, and the unsolicited reports are published.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTemperatureAutoReport()
+    throws Exception
+  {
+    final var writes = new CopyOnWriteArrayList<String>();
+    final var writeSub = this.port.writes().subscribe(writes::add);
+
+    try {
+      this.port.addLine("start");
+      this.waitForOnlineChange();
+      Assertions.assertTrue(this.printer.isOnline());
+
+      this.port.addLine("FIRMWARE_NAME:Marlin");
+      this.port.addLine("Cap:AUTOREPORT_TEMP:1");
+      this.port.addLine("ok");
+      this.port.addLine("ok T:20.0");
+      this.port.addLine("ok");
+      this.port.addLine(" T:25.0 /0.0 B:30.0 /0.0 @:0 B@:0");
+
+      final var temperatures = this.waitForTemperatures(2);
+      assertEquals(
+        20.0, temperatures.get(0).temperatures().extruder().currentCelsius());
+      assertEquals(
+        25.0, temperatures.get(1).temperatures().extruder().currentCelsius());
+
+      Assertions.assertTrue(
+        writes.stream().anyMatch(w -> w.contains("M155 S2")));
+    } finally {
+      writeSub.dispose();
+    }
+  }
+
+  /**
+   * Firmware capabilities are parsed from the M115 response, and printers
+   * that support advanced acknowledgements switch to using them.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testFirmwareCapabilities()
+    throws Exception
+  {
+    this.port.addLine("start");
+    this.waitForOnlineChange();
+    Assertions.assertTrue(this.printer.isOnline());
+    Assertions.assertTrue(
+      this.printer.firmwareCapabilities().capabilities().isEmpty());
+
+    this.port.addLine("FIRMWARE_NAME:Marlin 2.0.9 PROTOCOL_VERSION:1.0");
+    this.port.addLine("Cap:ADVANCED_OK:1");
+    this.port.addLine("Cap:EMERGENCY_PARSER:1");
+    this.port.addLine("Cap:BINARY_FILE_TRANSFER:0");
+    this.port.addLine("ok P15 B3");
+
+    ISPrinterEventFirmwareCapabilitiesChanged event;
+    while (true) {
+      event =
+        this.events.stream()
+          .filter(e -> e instanceof ISPrinterEventFirmwareCapabilitiesChanged)
+          .map(ISPrinterEventFirmwareCapabilitiesChanged.class::cast)
+          .findFirst()
+          .orElse(null);
+
+      if (event != null) {
+        break;
+      }
+      Thread.sleep(10L);
+    }
+
+    final var capabilities = event.capabilities();
+    assertEquals("Marlin 2.0.9", capabilities.firmwareName().get());
+    Assertions.assertTrue(
+      capabilities.supports(ISPrinterFirmwareCapabilities.ADVANCED_OK));
+    Assertions.assertTrue(
+      capabilities.supports(ISPrinterFirmwareCapabilities.EMERGENCY_PARSER));
+    Assertions.assertFalse(
+      capabilities.supports(ISPrinterFirmwareCapabilities.BINARY_FILE_TRANSFER));
+    assertEquals(capabilities, this.printer.firmwareCapabilities());
+  }
+
+  /**
+   * Commands that are known to take a long time are given longer than the
+   * default response timeout, and firmware keepalive messages count as
+   * signs of life.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testLongCommandsAndKeepalives()
+    throws Exception
+  {
+    final var writes = new CopyOnWriteArrayList<String>();
+    final var writeSub = this.port.writes().subscribe(writes::add);
+
+    try {
+      this.port.addLine("start");
+      this.waitForOnlineChange();
+      Assertions.assertTrue(this.printer.isOnline());
+
+      this.port.addLine("ok");
+      this.port.addLine("ok");
+      this.successes.blockingFirst();
+      this.successes.blockingFirst();
+
+      final var commands =
+        this.printer.commandQueue(ISPrinterCommandQueueGCodeType.class);
+
+      commands.enqueueCompile("G28");
+      while (writes.stream().noneMatch(w -> w.contains("G28"))) {
+        Thread.sleep(10L);
+      }
+
+      this.clock.tick(30L);
+      Thread.sleep(300L);
+      Assertions.assertTrue(this.printer.isOnline());
+      this.port.addLine("ok");
+      this.successes.blockingFirst();
+
+      commands.enqueueCompile("M1000");
+      while (writes.stream().noneMatch(w -> w.contains("M1000"))) {
+        Thread.sleep(10L);
+      }
+
+      for (int index = 0; index < 5; ++index) {
+        this.clock.tick(8L);
+        this.port.addLine("echo:busy: processing");
+        Thread.sleep(150L);
+      }
+      Assertions.assertTrue(this.printer.isOnline());
+      this.port.addLine("ok");
+      this.successes.blockingFirst();
+      Assertions.assertTrue(this.printer.isOnline());
+    } finally {
+      writeSub.dispose();
+    }
+  }
+
+  /**
+   * Emergency commands are written ahead of queued commands, even while
+   * the printer has not acknowledged the command in flight.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testEmergencyCommand()
+    throws Exception
+  {
+    final var writes = new CopyOnWriteArrayList<String>();
+    final var writeSub = this.port.writes().subscribe(writes::add);
+
+    try {
+      this.port.addLine("start");
+      this.waitForOnlineChange();
+      Assertions.assertTrue(this.printer.isOnline());
+
+      this.port.addLine("ok");
+      this.port.addLine("ok");
+      this.successes.blockingFirst();
+      this.successes.blockingFirst();
+
+      final var commands =
+        this.printer.commandQueue(ISPrinterCommandQueueGCodeType.class);
+
+      assertThrows(IllegalArgumentException.class, () -> {
+        commands.enqueueEmergency("G1 X10");
+      });
+
+      commands.enqueueCompile("G28");
+      commands.enqueueCompile("G1 X10");
+      commands.enqueueCompile("G1 X20");
+      while (writes.stream().noneMatch(w -> w.contains("G28"))) {
+        Thread.sleep(10L);
+      }
+
+      commands.enqueueEmergency("M108");
+      while (writes.stream().noneMatch(w -> w.contains("M108"))) {
+        Thread.sleep(10L);
+      }
+
+      Assertions.assertTrue(writes.stream().noneMatch(w -> w.contains("G1")));
+
+      this.port.addLine("ok");
+      this.port.addLine("ok");
+      this.port.addLine("ok");
+      this.port.addLine("ok");
+
+      final var succeeded =
+        this.successes.take(4L)
+          .map(e -> ((ISPrinterCommandGCode) e.command()).text())
+          .toList()
+          .blockingGet();
+
+      assertEquals(List.of("G28", "M108", "G1 X10", "G1 X20"), succeeded);
+    } finally {
+      writeSub.dispose();
+    }
+  }
+
+  /**
+   * The printer moves through the connection states, and each transition
+   * publishes exactly one event.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testStateTransitions()
+    throws Exception
+  {
+    final var writes = new CopyOnWriteArrayList<String>();
+    final var writeSub = this.port.writes().subscribe(writes::add);
+
+    try {
+      assertEquals(ISPrinterState.OFFLINE, this.printer.state());
+
+      this.port.addLine("start");
+      this.waitForState(ISPrinterState.HANDSHAKING);
+
+      this.port.addLine("ok");
+      this.port.addLine("ok");
+      this.waitForState(ISPrinterState.IDLE);
+
+      final var commands =
+        this.printer.commandQueue(ISPrinterCommandQueueGCodeType.class);
+
+      commands.enqueueCompile("G28");
+      this.waitForState(ISPrinterState.PRINTING);
+
+      this.port.addLine("//action:paused");
+      this.waitForState(ISPrinterState.PAUSED);
+      this.port.addLine("ok");
+
+      commands.enqueueCompile("G1 X5");
+      Thread.sleep(100L);
+      assertEquals(ISPrinterState.PAUSED, this.printer.state());
+      Assertions.assertTrue(writes.stream().noneMatch(w -> w.contains("G1")));
+
+      this.port.addLine("//action:resumed");
+      while (writes.stream().noneMatch(w -> w.contains("G1"))) {
+        Thread.sleep(10L);
+      }
+      this.waitForState(ISPrinterState.PRINTING);
+
+      this.port.addLine("Resend: 1");
+      this.port.addLine("ok");
+      this.waitForState(ISPrinterState.RESENDING);
+
+      this.port.addLine("ok");
+      this.waitForState(ISPrinterState.IDLE);
+
+      final var transitions =
+        this.events.stream()
+          .filter(e -> e instanceof ISPrinterEventStateChanged)
+          .map(ISPrinterEventStateChanged.class::cast)
+          .collect(Collectors.toList());
+
+      assertEquals(
+        List.of(
+          ISPrinterState.HANDSHAKING,
+          ISPrinterState.IDLE,
+          ISPrinterState.PRINTING,
+          ISPrinterState.PAUSED,
+          ISPrinterState.IDLE,
+          ISPrinterState.PRINTING,
+          ISPrinterState.RESENDING,
+          ISPrinterState.IDLE
+        ),
+        transitions.stream()
+          .map(ISPrinterEventStateChanged::stateCurrent)
+          .collect(Collectors.toList())
+      );
+
+      for (int index = 1; index < transitions.size(); ++index) {
+        assertEquals(
+          transitions.get(index - 1).stateCurrent(),
+          transitions.get(index).statePrevious()
+        );
+      }
+    } finally {
+      writeSub.dispose();
+    }
+  }
+
+  /**
+   * A request from the firmware to pause holds new commands until the host
+   * resumes, even if the firmware never asks the host to resume.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testHostActionPauseResume()
+    throws Exception
+  {
+    final var writes = new CopyOnWriteArrayList<String>();
+    final var writeSub = this.port.writes().subscribe(writes::add);
+
+    try {
+      this.port.addLine("start");
+      this.port.addLine("ok");
+      this.port.addLine("ok");
+      this.waitForState(ISPrinterState.IDLE);
+
+      final var commands =
+        this.printer.commandQueue(ISPrinterCommandQueueGCodeType.class);
+
+      commands.enqueueCompile("G28");
+      this.waitForState(ISPrinterState.PRINTING);
+
+      this.port.addLine("//action:pause");
+      this.waitForState(ISPrinterState.PAUSED);
+      this.port.addLine("ok");
+
+      commands.enqueueCompile("G1 X5");
+      this.port.addLine("//action:resumed");
+      Thread.sleep(100L);
+      assertEquals(ISPrinterState.PAUSED, this.printer.state());
+      Assertions.assertTrue(writes.stream().noneMatch(w -> w.contains("G1")));
+
+      commands.resume();
+      while (writes.stream().noneMatch(w -> w.contains("G1"))) {
+        Thread.sleep(10L);
+      }
+      this.waitForState(ISPrinterState.PRINTING);
+
+      this.port.addLine("ok");
+      this.waitForState(ISPrinterState.IDLE);
+    } finally {
+      writeSub.dispose();
+    }
+  }
+
+  private void waitForState(
+    final ISPrinterState state)
+    throws InterruptedException
+  {
+    while (this.printer.state() != state) {
+      Thread.sleep(10L);
+    }
+  }
+
+  private List<ISPrinterEventTemperaturesChanged> waitForTemperatures(
+    final int wanted)
+    throws InterruptedException
+  {
+    while (true) {
+      final var temperatures =
+        this.events.stream()
+          .filter(e -> e instanceof ISPrinterEventTemperaturesChanged)
+          .map(ISPrinterEventTemperaturesChanged.class::cast)
+          .collect(Collectors.toList());
+
+      if (temperatures.size() >= wanted) {
+        return temperatures;
+      }
+      Thread.sleep(10L);
+    }
+  }
+
   /**
    * Unsupported command queues are unsupported!
    *
@@ -553,4 +1300,54 @@ public final class ISSerialPrinterTest
   {
 
   }
+
+  /**
+   * An engine reading through a dedicated reader sleeps between events,
+   * and is woken by both submitted commands and received lines.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testDedicatedReaderWakeups()
+    throws Exception
+  {
+    this.reopen(
+      defaultConfiguration()
+        .setDedicatedReader(true)
+        .build()
+    );
+
+    final var startup = this.successes.test();
+    this.port.addLine("start");
+    this.waitForOnlineChange();
+    Assertions.assertTrue(this.printer.isOnline());
+
+    this.port.addLine("ok");
+    this.port.addLine("ok");
+    startup.awaitCount(2);
+
+    final var commands =
+      this.printer.commandQueue(ISPrinterCommandQueueGCodeType.class);
+
+    final var writes =
+      this.port.writes()
+        .filter(line -> line.startsWith("G1"))
+        .test();
+    final var done =
+      this.successes
+        .map(e -> ((ISPrinterCommandGCode) e.command()).text())
+        .filter(text -> text.startsWith("G1"))
+        .test();
+
+    Thread.sleep(250L);
+    commands.enqueueCompile("G1 X1");
+    writes.awaitCount(1);
+    writes.assertValues("G1 X1");
+
+    Thread.sleep(250L);
+    this.port.addLine("ok");
+    done.awaitCount(1);
+    done.assertValues("G1 X1");
+  }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.printer.api.ISPrinterEventCommandSucceeded;
+import com.io7m.ironstrata.printer.api.ISSerialPrinterConfiguration;
+import com.io7m.ironstrata.printer.vanilla.ISSerialPrinterFactory;
+import com.io7m.ironstrata.printer.vanilla.ISSerialPrinterMessages;
+import com.io7m.ironstrata.serialport.api.ISSerialPortConfiguration;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class ISSerialPrinterThreadFactoryTest
+{
+  /**
+   * Printer engines run on threads from the given thread factory.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testThreadFactory()
+    throws Exception
+  {
+    final var ports = new ISFakeSerialPorts();
+    final var port = new ISFakeSerialPort();
+    ports.ports.add(port);
+
+    final var created = new CopyOnWriteArrayList<Thread>();
+    final var factory =
+      ISSerialPrinterFactory.builder()
+        .setMessages(ISSerialPrinterMessages.create())
+        .setSerialPorts(ports)
+        .setClock(new ISFakeClock())
+        .setThreadFactory(runnable -> {
+          final var thread = new Thread(runnable);
+          thread.setName("custom-printer");
+          created.add(thread);
+          return thread;
+        })
+        .build();
+
+    final var successes = new AtomicInteger(0);
+    final var engineThreads = new CopyOnWriteArrayList<String>();
+
+    try (var printer = factory.open(
+      ISSerialPrinterConfiguration.builder()
+        .setPort(
+          ISSerialPortConfiguration.builder()
+            .setDeviceName("/dev/null")
+            .setBaudRate(100_000)
+            .build())
+        .build())) {
+
+      port.writes()
+        .subscribe(line -> {
+          engineThreads.add(Thread.currentThread().getName());
+        });
+      printer.events()
+        .ofType(ISPrinterEventCommandSucceeded.class)
+        .subscribe(e -> successes.incrementAndGet());
+
+      port.addLine("start");
+      port.addLine("ok");
+      port.addLine("ok");
+
+      final var timeEnd = System.nanoTime() + 10_000_000_000L;
+      while (successes.get() < 2 && System.nanoTime() < timeEnd) {
+        Thread.sleep(10L);
+      }
+
+      Assertions.assertEquals(2, successes.get());
+      Assertions.assertEquals(1, created.size());
+      Assertions.assertFalse(engineThreads.isEmpty());
+      for (final var name : engineThreads) {
+        Assertions.assertEquals("custom-printer", name);
+      }
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2020 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironstrata.tests;
+
+import com.io7m.ironstrata.printer.vanilla.internal.ISTimeOut;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class ISTimeOutTest
+{
+  @Test
+  public void testTimeOut()
+  {
+    final var time = new AtomicLong(-5_000_000_000L);
+    final var timeout = new ISTimeOut(time::get, Duration.ofSeconds(10L));
+
+    Assertions.assertEquals(0L, timeout.remainingNanos());
+    Assertions.assertTrue(timeout.isTimedOut());
+    Assertions.assertFalse(timeout.isTimedOut());
+    Assertions.assertEquals(10_000_000_001L, timeout.remainingNanos());
+
+    time.addAndGet(10_000_000_000L);
+    Assertions.assertFalse(timeout.isTimedOut());
+    Assertions.assertEquals(1L, timeout.remainingNanos());
+
+    time.addAndGet(1L);
+    Assertions.assertEquals(0L, timeout.remainingNanos());
+    Assertions.assertTrue(timeout.isTimedOut());
+    Assertions.assertFalse(timeout.isTimedOut());
+  }
+
+  @Test
+  public void testReset()
+  {
+    final var time = new AtomicLong(0L);
+    final var timeout = new ISTimeOut(time::get, Duration.ofSeconds(1L));
+
+    timeout.reset();
+    time.addAndGet(900_000_000L);
+    timeout.reset();
+    time.addAndGet(900_000_000L);
+    Assertions.assertFalse(timeout.isTimedOut());
+    Assertions.assertEquals(100_000_001L, timeout.remainingNanos());
+  }
+
+  @Test
+  public void testSetDuration()
+  {
+    final var time = new AtomicLong(0L);
+    final var timeout = new ISTimeOut(time::get, Duration.ofSeconds(1L));
+
+    timeout.reset();
+    time.addAndGet(2_000_000_000L);
+    timeout.setDurationNanos(3_000_000_000L);
+    Assertions.assertEquals(Duration.ofSeconds(3L), timeout.duration());
+    Assertions.assertFalse(timeout.isTimedOut());
+    Assertions.assertEquals(1_000_000_001L, timeout.remainingNanos());
+
+    Assertions.assertThrows(IllegalArgumentException.class, () -> {
+      timeout.setDurationNanos(-1L);
+    });
+  }
+}